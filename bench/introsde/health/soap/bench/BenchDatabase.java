@@ -0,0 +1,106 @@
+package introsde.health.soap.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import introsde.health.soap.dao.DataGenerator;
+import introsde.health.soap.dao.EHealthDao;
+
+/**
+ * The throwaway SQLite databases of the benchmarks. The database of each size (number of rows of the
+ * history) is seeded once, in a separate JVM, into a template file kept in "bench.db.dir" (the
+ * temporary directory by default); every trial of a benchmark then works on its own copy of the
+ * template, so the writes of a trial do not change the data of the next ones. The data is the
+ * deterministic one of DataGenerator: the people have one entry of each of the nine measures per day
+ * (so the size is rounded down to a multiple of the days) and two goals each.
+ * Usage (to seed a template): BenchDatabase [history rows] [template file]
+ *
+ * @author alan
+ */
+
+public final class BenchDatabase {
+	private static final int MEASURES = 9;
+
+	/**
+	 * The private constructor of the class (it only has static methods).
+	 */
+	private BenchDatabase() {
+		// Static helper
+	}
+
+	/**
+	 * A method that points the service to a new copy of the database of the given size (seeding
+	 * its template first, if needed). It must be called before the first use of EHealthDao.
+	 * @param historyRows: the number of rows of the history
+	 * @return file: the copy of the database (deleted when the JVM exits)
+	 */
+	public static File open(int historyRows) throws IOException, InterruptedException {
+		File dir = new File(System.getProperty("bench.db.dir", System.getProperty("java.io.tmpdir")));
+		File template = new File(dir, "people-bench-" + historyRows + ".sqlite");
+
+		if (!template.exists()) {
+			seedInNewJvm(historyRows, template);
+		}
+
+		File copy = File.createTempFile("people-bench-", ".sqlite", dir);
+		copy.deleteOnExit();
+		Files.copy(template.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		System.setProperty("db.url", "jdbc:sqlite:" + copy.getAbsolutePath());
+
+		return copy;
+	}
+
+	/**
+	 * A method that returns the number of people of the database of the given size (the people have
+	 * 1000 entries of the history each, but there are at least 10 and at most 1000 of them).
+	 * @param historyRows: the number of rows of the history
+	 * @return people: the number of people
+	 */
+	public static int getPeople(int historyRows) {
+		return Math.max(10, Math.min(1000, historyRows / 1000));
+	}
+
+	/**
+	 * The entry point of the JVM that seeds a template.
+	 */
+	public static void main(String[] args) {
+		int historyRows = Integer.parseInt(args[0]);
+		File template = new File(args[1]);
+		File partial = new File(template.getPath() + ".partial");
+		partial.delete();
+		System.setProperty("db.url", "jdbc:sqlite:" + partial.getAbsolutePath());
+
+		long start = System.currentTimeMillis();
+		int people = getPeople(historyRows);
+		EHealthDao.instance.initializeDB(people, Math.max(1, historyRows / (people * MEASURES)),
+				DataGenerator.DEFAULT_SEED);		// it also marks the data as migrated
+
+		if (!partial.renameTo(template)) {
+			throw new IllegalStateException("Cannot create " + template);
+		}
+		System.err.println("Seeded " + template + " (" + historyRows + " history rows) in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		System.exit(0);
+	}
+
+
+	/********************************************************************************
+	 * HELPER METHODS USEFUL FOR THE COMPUTATION OF OTHER METHODS IN THIS CLASS		*
+	 ********************************************************************************/
+
+	/**
+	 * A method that seeds a template in a new JVM (the service can only use one database per JVM).
+	 */
+	private static void seedInNewJvm(int historyRows, File template) throws IOException, InterruptedException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		Process process = new ProcessBuilder(java, "-Dlog.level=warn", "-cp", System.getProperty("java.class.path"),
+				BenchDatabase.class.getName(), String.valueOf(historyRows), template.getAbsolutePath())
+				.inheritIO().start();
+
+		if (process.waitFor() != 0 || !template.exists()) {
+			throw new IllegalStateException("Cannot seed the database with " + historyRows + " history rows");
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package introsde.health.soap.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+import introsde.health.soap.dao.EHealthDao;
+import introsde.health.soap.model.Person;
+import introsde.health.soap.util.AsyncLogger;
+import introsde.health.soap.ws.PeopleImplementation;
+
+/**
+ * The benchmark of the retries of the transactions that find the database locked (on a copy of the
+ * benchmark database with 1000 history rows, see BenchDatabase). Many threads save the measures of
+ * different people (so they do not wait for the locks of the people) on the default profile, where
+ * SQLite fails at once with SQLITE_BUSY when another connection holds its lock; it prints the goodput
+ * (the writes committed per second), the writes failed and the retries.
+ * The retries are configured when the DAO is created, so each configuration runs in its own JVM, e.g.
+ * with -Ddb.retry.max-attempts=1 (no retries) and with the default settings (see the Ant target).
+ * Usage: BusyRetryBenchmark [threads] [seconds]
+ *
+ * @author alan
+ */
+
+public class BusyRetryBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 16;
+		final long seconds = (args.length > 1) ? Long.parseLong(args[1]) : 10;
+
+		AsyncLogger.setLevel(AsyncLogger.Level.ERROR);
+		BenchDatabase.open(1000);
+		final PeopleImplementation service = new PeopleImplementation();
+		List<Person> people = service.readPersonList(null);
+		final LongAdder committed = new LongAdder();
+		final LongAdder failed = new LongAdder();
+		final CountDownLatch start = new CountDownLatch(1);
+		final long[] end = new long[1];
+		List<Thread> writers = new ArrayList<Thread>();
+
+		for (int t = 0; t < threads; t++) {
+			final long id = people.get(t % people.size()).getId();
+			Thread writer = new Thread("writer-" + t) {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (long i = 0; System.nanoTime() < end[0]; i++) {
+						try {
+							service.savePersonMeasure(id, ServiceState.newMeasurement(i));
+							committed.increment();
+						} catch (RuntimeException e) {		// SQLITE_BUSY after the last retry (if any)
+							failed.increment();
+						}
+					}
+				}
+			};
+			writer.start();
+			writers.add(writer);
+		}
+
+		end[0] = System.nanoTime() + seconds * 1000 * 1000 * 1000;
+		start.countDown();
+		for (Thread writer : writers) {
+			writer.join();
+		}
+
+		EHealthDao dao = EHealthDao.instance;
+		System.out.println(String.format("threads=%d max-attempts=%s: goodput %.1f writes/s, %d committed, "
+				+ "%d failed, %d retries (%d transactions recovered, %d failed after the last attempt)", threads,
+				System.getProperty("db.retry.max-attempts", "default"), committed.sum() / (double) seconds,
+				committed.sum(), failed.sum(), dao.getRetries(), dao.getRecovered(), dao.getExhausted()));
+		AsyncLogger.flush();
+		System.exit(0);
+	}
+}
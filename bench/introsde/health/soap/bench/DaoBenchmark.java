@@ -0,0 +1,231 @@
+package introsde.health.soap.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import introsde.health.soap.dao.EHealthDao;
+import introsde.health.soap.dao.UnitOfWork;
+import introsde.health.soap.model.Goal;
+import introsde.health.soap.model.Measure;
+import introsde.health.soap.model.Measurement;
+import introsde.health.soap.model.MeasurementAggregate;
+import introsde.health.soap.model.MeasurementHistory;
+import introsde.health.soap.model.MeasurementHistoryGroup;
+import introsde.health.soap.model.MeasurementHistoryPage;
+import introsde.health.soap.model.MeasurementResult;
+import introsde.health.soap.model.Person;
+import introsde.health.soap.model.PersonProjection;
+
+/**
+ * The benchmarks of the static DAO methods of the model (Person, Measure, Measurement,
+ * MeasurementHistory and Goal), executed directly (without the web service). The methods that
+ * create a person or a goal delete it in the same invocation, so the size of the tables does not
+ * change; the ones that save a measure add an entry to the history at each invocation (a few
+ * thousands per trial, negligible even for the smallest database).
+ *
+ * @author alan
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DaoBenchmark {
+
+	/********************************************************************************
+	 * LIST OF ALL THE BENCHMARKS OF PERSON											*
+	 ********************************************************************************/
+
+	@Benchmark
+	public List<Person> getAllPeople(ServiceState s) {
+		return Person.getAllPeople();
+	}
+
+	@Benchmark
+	public List<Person> getAllPeopleSummaries(ServiceState s) {
+		return Person.getAllPeopleSummaries();
+	}
+
+	@Benchmark
+	public List<Person> getPeopleByIds(ServiceState s) {
+		return Person.getPeopleByIds(s.peopleIds);
+	}
+
+	@Benchmark
+	public List<Person> getPeople(ServiceState s) {
+		return Person.getPeople(s.peopleIds, PersonProjection.parse("health_profile,goals"));
+	}
+
+	@Benchmark
+	public Person getPersonById(ServiceState s) {
+		return Person.getPersonById((int) s.personId);
+	}
+
+	@Benchmark
+	public Person savePersonAndDeletePerson(ServiceState s) {
+		Person p = Person.savePerson(ServiceState.newPerson());
+		Person.deletePerson(p);
+		return p;
+	}
+
+
+	/********************************************************************************
+	 * LIST OF ALL THE BENCHMARKS OF MEASURE AND MEASUREMENT						*
+	 ********************************************************************************/
+
+	@Benchmark
+	public List<Measure> getAllMeasures(ServiceState s) {
+		return Measure.getAllMeasures();
+	}
+
+	@Benchmark
+	public Measure saveMeasure(ServiceState s) {
+		Measure m = new Measure();
+		m.setMeasureName("bench_" + s.next());
+		return Measure.saveMeasure(m);
+	}
+
+	@Benchmark
+	public Measurement getMeasure(ServiceState s) {
+		return Measurement.getMeasure(s.person, ServiceState.MEASURE);
+	}
+
+	@Benchmark
+	public Measurement updateMeasurement(ServiceState s) {
+		return Measurement.updateMeasurement(s.measurementId, ServiceState.newMeasurement(s.next()));
+	}
+
+	@Benchmark
+	public Measurement saveMeasurementWithHistory(final ServiceState s) {
+		final Measurement m = ServiceState.newMeasurement(s.next());
+
+		return EHealthDao.instance.runInTransaction(new UnitOfWork<Measurement>() {
+			@Override
+			public Measurement execute(EntityManager em) {
+				return Measurement.saveMeasurementWithHistory(em, em.find(Person.class, (int) s.personId), m);
+			}
+		});
+	}
+
+	@Benchmark
+	public List<MeasurementResult> saveMeasurementsWithHistory(final ServiceState s) {
+		final List<Measurement> measures = new ArrayList<Measurement>();
+		for (String name : Arrays.asList(ServiceState.MEASURE, "steps", "sleep_hours")) {
+			Measurement m = ServiceState.newMeasurement(s.next());
+			m.setMeasureName(name);
+			measures.add(m);
+		}
+
+		return EHealthDao.instance.runInTransaction(new UnitOfWork<List<MeasurementResult>>() {
+			@Override
+			public List<MeasurementResult> execute(EntityManager em) {
+				List<MeasurementResult> results = new ArrayList<MeasurementResult>();
+				for (int i = 0; i < measures.size(); i++) {
+					results.add(new MeasurementResult(s.personId, i));
+				}
+				Measurement.saveMeasurementsWithHistory(em, em.find(Person.class, (int) s.personId), measures, results);
+				return results;
+			}
+		});
+	}
+
+
+	/********************************************************************************
+	 * LIST OF ALL THE BENCHMARKS OF MEASUREMENT HISTORY							*
+	 ********************************************************************************/
+
+	@Benchmark
+	public List<MeasurementHistory> getHistoryOfAMeasure(ServiceState s) {
+		return MeasurementHistory.getHistoryOfAMeasure(s.person, ServiceState.MEASURE);
+	}
+
+	@Benchmark
+	public List<MeasurementHistoryGroup> getHistoriesOfMeasures(ServiceState s) {
+		return MeasurementHistory.getHistoriesOfMeasures(s.person, Arrays.asList(ServiceState.MEASURE, "steps"));
+	}
+
+	@Benchmark
+	public MeasurementHistoryPage getHistoryPage(ServiceState s) {
+		return MeasurementHistory.getHistoryPage(s.person, ServiceState.MEASURE, null, null, true, 10, null);
+	}
+
+	@Benchmark
+	public List<MeasurementAggregate> getHistoryAggregates(ServiceState s) {
+		return MeasurementHistory.getHistoryAggregates((int) s.personId, ServiceState.MEASURE, null, null,
+				MeasurementAggregate.Bucket.DAY);
+	}
+
+	@Benchmark
+	public MeasurementHistory getHistoryOfAMeasureById(ServiceState s) {
+		return MeasurementHistory.getHistoryOfAMeasureById(s.person, s.historyId, ServiceState.MEASURE);
+	}
+
+	@Benchmark
+	public MeasurementHistory addMeasurementToHistory(ServiceState s) {
+		Measurement m = ServiceState.newMeasurement(s.next());
+		m.setPerson(s.person);
+		return MeasurementHistory.addMeasurementToHistory(m);
+	}
+
+	@Benchmark
+	public MeasurementHistory updateMeasurementHistory(ServiceState s) {
+		s.historyEntry.setMeasureValue(String.valueOf(60 + s.next() % 40));
+		return MeasurementHistory.updateMeasurementHistory(s.historyEntry);
+	}
+
+
+	/********************************************************************************
+	 * LIST OF ALL THE BENCHMARKS OF GOAL											*
+	 ********************************************************************************/
+
+	@Benchmark
+	public List<Goal> getAllGoals(ServiceState s) {
+		return Goal.getAllGoals();
+	}
+
+	@Benchmark
+	public Goal getGoalById(ServiceState s) {
+		return Goal.getGoalById(s.goalId);
+	}
+
+	@Benchmark
+	public Goal saveGoalAndDeleteGoal(ServiceState s) {
+		Goal g = ServiceState.newGoal();
+		g.setPerson(s.person);
+		Goal.saveGoal(g);
+		Goal.deleteGoal(g);
+		return g;
+	}
+
+	@Benchmark
+	public List<Goal> getAllPersonGoals(ServiceState s) {
+		return Goal.getAllPersonGoals(s.person);
+	}
+
+	@Benchmark
+	public Goal getPersonGoalByName(ServiceState s) {
+		return Goal.getPersonGoalByName(s.person, s.goalTitle);
+	}
+
+	@Benchmark
+	public Goal getPersonGoalById(ServiceState s) {
+		return Goal.getPersonGoalById(s.person, s.goalId);
+	}
+
+	@Benchmark
+	public List<Goal> getPersonGoalByStatus(ServiceState s) {
+		return Goal.getPersonGoalByStatus(s.person, s.goalStatus);
+	}
+
+	@Benchmark
+	public Goal getPersonGoalByNameAndStatus(ServiceState s) {
+		return Goal.getPersonGoalByNameAndStatus(s.person, s.goalTitle, s.goalStatus);
+	}
+}
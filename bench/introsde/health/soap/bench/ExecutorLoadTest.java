@@ -0,0 +1,223 @@
+package introsde.health.soap.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.xml.ws.Endpoint;
+import javax.xml.ws.spi.Provider;
+
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpServer;
+
+import introsde.health.soap.endpoint.RequestExecutors;
+import introsde.health.soap.endpoint.RequestExecutors.BoundedExecutor;
+import introsde.health.soap.endpoint.Startup;
+import introsde.health.soap.metrics.MetricsFilter;
+import introsde.health.soap.metrics.MetricsInvoker;
+import introsde.health.soap.util.AsyncLogger;
+import introsde.health.soap.ws.PeopleImplementation;
+
+/**
+ * The load test of the request executors (on a copy of the benchmark database of the given size, see
+ * BenchDatabase): for each mode (fixed, work-stealing and virtual) the endpoint is published on a local
+ * HTTP server, as PeoplePublisher does, and many clients send readPersonHistory requests at the same
+ * time (each one for the weight history of one of ten people, in turn) without pausing between them.
+ * After a warm-up it prints, for each mode, the throughput (the requests completed per second) and the
+ * 50th and 99th percentiles of their latency, as seen by the clients.
+ * Usage: ExecutorLoadTest [clients] [seconds] [history rows] [threads] [max in-flight]
+ *
+ * @author alan
+ */
+
+public class ExecutorLoadTest {
+	private static final String PATH = "/ws/people";
+	private static final String REQUEST = "<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+			+ "<S:Body><ns:readPersonHistory xmlns:ns=\"http://ws.soap.health.introsde/\"><id>%d</id>"
+			+ "<measure_type>" + ServiceState.MEASURE + "</measure_type></ns:readPersonHistory></S:Body></S:Envelope>";
+
+	public static void main(String[] args) throws Exception {
+		int cores = Runtime.getRuntime().availableProcessors();
+		int clients = (args.length > 0) ? Integer.parseInt(args[0]) : 256;
+		long seconds = (args.length > 1) ? Long.parseLong(args[1]) : 10;
+		int historyRows = (args.length > 2) ? Integer.parseInt(args[2]) : 100000;
+		int threads = (args.length > 3) ? Integer.parseInt(args[3]) : cores * 4;
+		int maxInFlight = (args.length > 4) ? Integer.parseInt(args[4]) : 256;
+
+		AsyncLogger.setLevel(AsyncLogger.Level.ERROR);
+		BenchDatabase.open(historyRows);
+		PeopleImplementation service = new PeopleImplementation();
+		Startup.warmUp(service);
+		List<Long> ids = new ArrayList<Long>();
+		for (int i = 1; i <= 10 && i <= BenchDatabase.getPeople(historyRows); i++) {
+			ids.add(Long.valueOf(i));
+		}
+
+		for (RequestExecutors.Mode mode : RequestExecutors.Mode.values()) {
+			BoundedExecutor executor = RequestExecutors.create(mode, threads, maxInFlight);
+			HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+			server.setExecutor(executor);
+			HttpContext context = server.createContext(PATH);
+			context.getFilters().add(new MetricsFilter());
+			Endpoint endpoint = Provider.provider().createEndpoint(null, PeopleImplementation.class,
+					new MetricsInvoker(service));
+			endpoint.publish(context);
+			server.start();
+
+			try {
+				URL url = new URL("http://localhost:" + server.getAddress().getPort() + PATH);
+				run(url, ids, clients, Math.max(1, seconds / 5));		// warm-up (the results are discarded)
+				Result result = run(url, ids, clients, seconds);
+				System.out.println(String.format("%s, %d clients: %.1f requests/s, p50 %.2f ms, p99 %.2f ms "
+						+ "(%d requests, %d failed)", executor, clients, result.count / (double) seconds,
+						result.percentile(50), result.percentile(99), result.count, result.failed));
+			} finally {
+				endpoint.stop();
+				server.stop(0);
+				executor.shutdown();
+			}
+		}
+		AsyncLogger.flush();
+		System.exit(0);
+	}
+
+
+	/********************************************************************************
+	 * HELPER METHODS USEFUL FOR THE COMPUTATION OF OTHER METHODS IN THIS CLASS		*
+	 ********************************************************************************/
+
+	/**
+	 * A method that sends requests from many clients at the same time for the given duration.
+	 * @param url: the url of the endpoint
+	 * @param ids: the identifiers of the people whose history is read
+	 * @param clients: the number of clients
+	 * @param seconds: the duration
+	 * @return result: the latencies of the requests completed
+	 */
+	private static Result run(final URL url, final List<Long> ids, int clients, long seconds) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final long[] end = new long[1];
+		final LongAdder failed = new LongAdder();
+		final long[][] latencies = new long[clients][];
+		final int[] counts = new int[clients];
+		List<Thread> threads = new ArrayList<Thread>();
+
+		for (int c = 0; c < clients; c++) {
+			final int client = c;
+			Thread thread = new Thread("client-" + c) {
+				@Override
+				public void run() {
+					long[] own = new long[1024];
+					int count = 0;
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = client; System.nanoTime() < end[0]; i++) {
+						long begin = System.nanoTime();
+						try {
+							send(url, ids.get(i % ids.size()));
+						} catch (IOException e) {		// the failed requests are not measured
+							failed.increment();
+							continue;
+						}
+						if (count == own.length) {
+							own = Arrays.copyOf(own, count * 2);
+						}
+						own[count++] = System.nanoTime() - begin;
+					}
+					latencies[client] = own;
+					counts[client] = count;
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+
+		end[0] = System.nanoTime() + seconds * 1000 * 1000 * 1000;
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		int count = 0;
+		for (int c = 0; c < clients; c++) {
+			count += counts[c];
+		}
+		long[] all = new long[count];
+		int offset = 0;
+		for (int c = 0; c < clients; c++) {
+			System.arraycopy(latencies[c], 0, all, offset, counts[c]);
+			offset += counts[c];
+		}
+		Arrays.sort(all);
+		return new Result(all, failed.sum());
+	}
+
+	/**
+	 * A method that sends a readPersonHistory request and reads the whole response.
+	 * @param url: the url of the endpoint
+	 * @param id: the identifier of the person
+	 */
+	private static void send(URL url, Long id) throws IOException {
+		byte[] body = String.format(REQUEST, id).getBytes(StandardCharsets.UTF_8);
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setRequestProperty("Content-Type", "text/xml; charset=utf-8");
+		connection.setDoOutput(true);
+		connection.setFixedLengthStreamingMode(body.length);
+
+		OutputStream out = connection.getOutputStream();
+		out.write(body);
+		out.close();
+		if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+			throw new IOException("HTTP " + connection.getResponseCode());
+		}
+
+		InputStream in = connection.getInputStream();		// read to the end, so the connection is kept alive
+		byte[] buffer = new byte[8192];
+		while (in.read(buffer) >= 0) {
+			// discard the response
+		}
+		in.close();
+	}
+
+
+	/**
+	 * The latencies of the requests of a run.
+	 */
+	private static final class Result {
+		private final long[] latencies;		// sorted, in nanoseconds
+		private final int count;
+		private final long failed;
+
+		Result(long[] latencies, long failed) {
+			this.latencies = latencies;
+			this.count = latencies.length;
+			this.failed = failed;
+		}
+
+		/**
+		 * A method that returns a percentile of the latencies.
+		 * @param p: the percentile (between 0 and 100)
+		 * @return latency: the latency in milliseconds (0 if no request completed)
+		 */
+		double percentile(double p) {
+			if (this.count == 0) {
+				return 0;
+			}
+			int index = (int) Math.ceil(p / 100 * this.count) - 1;
+			return this.latencies[Math.max(0, index)] / 1e6;
+		}
+	}
+}
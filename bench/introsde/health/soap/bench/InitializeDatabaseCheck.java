@@ -0,0 +1,97 @@
+package introsde.health.soap.bench;
+
+import java.util.concurrent.Callable;
+
+import introsde.health.soap.util.AsyncLogger;
+import introsde.health.soap.ws.PeopleImplementation;
+
+/**
+ * The regression check of the identifiers after a reset of the database (on a copy of the benchmark
+ * database with 1000 history rows, see BenchDatabase): the service writes once, so that EclipseLink
+ * reserves a block of identifiers of each entity in memory, then the database is reset with the
+ * generated data (whose rows have explicit identifiers, starting at 1) and the service writes again.
+ * The check fails if a write after the reset is given an identifier already stored by the generator.
+ * Usage: InitializeDatabaseCheck
+ *
+ * @author alan
+ */
+
+public class InitializeDatabaseCheck {
+	private static final int PEOPLE = 5;
+
+	public static void main(String[] args) throws Exception {
+		AsyncLogger.setLevel(AsyncLogger.Level.ERROR);
+		BenchDatabase.open(1000);
+		final PeopleImplementation service = new PeopleImplementation();
+
+		service.initializeDatabase(null, null, null);		// the sample data
+		boolean passed = writes(service, 1, "before the reset");
+
+		service.initializeDatabase(PEOPLE, 30, 42L);
+		for (int i = 0; i < 2; i++) {		// beyond the identifiers reserved before the reset
+			passed &= writes(service, PEOPLE, "after the reset (" + (i + 1) + ")");
+		}
+
+		System.err.println(passed ? "PASSED" : "FAILED");
+		AsyncLogger.flush();
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	/********************************************************************************
+	 * HELPER METHODS USEFUL FOR THE COMPUTATION OF OTHER METHODS IN THIS CLASS		*
+	 ********************************************************************************/
+
+	/**
+	 * A method that saves a measure and creates a goal for each person, and creates a new person.
+	 * @param service: the service
+	 * @param people: the number of people (their identifiers start at 1)
+	 * @param name: the name of the step
+	 * @return passed: true if all the writes succeed
+	 */
+	private static boolean writes(final PeopleImplementation service, int people, String name) {
+		boolean passed = true;
+
+		for (int i = 1; i <= people; i++) {
+			final long id = i;
+			passed &= check(name + ", savePersonMeasure(" + id + ")", new Callable<Object>() {
+				@Override
+				public Object call() {
+					return service.savePersonMeasure(id, ServiceState.newMeasurement(id));
+				}
+			});
+			passed &= check(name + ", createGoal(" + id + ")", new Callable<Object>() {
+				@Override
+				public Object call() {
+					return service.createGoal(id, ServiceState.newGoal());
+				}
+			});
+		}
+		passed &= check(name + ", createPerson", new Callable<Object>() {
+			@Override
+			public Object call() {
+				return service.createPerson(ServiceState.newPerson());
+			}
+		});
+		return passed;
+	}
+
+	/**
+	 * A method that executes a write.
+	 * @param name: the name of the write
+	 * @param write: the write
+	 * @return passed: true if the write succeeds
+	 */
+	private static boolean check(String name, Callable<Object> write) {
+		try {
+			if (write.call() == null) {
+				System.err.println(name + ": FAILED (nothing written)");
+				return false;
+			}
+			return true;
+		} catch (Exception e) {
+			System.err.println(name + ": FAILED (" + e.getMessage() + ")");
+			return false;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package introsde.health.soap.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+
+import org.eclipse.persistence.jpa.JpaHelper;
+import org.eclipse.persistence.sequencing.Sequence;
+import org.eclipse.persistence.sessions.server.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import introsde.health.soap.dao.EHealthDao;
+import introsde.health.soap.dao.UnitOfWork;
+import introsde.health.soap.model.Measurement;
+import introsde.health.soap.model.MeasurementHistory;
+import introsde.health.soap.model.MeasurementResult;
+import introsde.health.soap.model.Person;
+
+/**
+ * The benchmark of the insert rate of the history, in rows inserted per second: one entry per
+ * transaction (as savePersonMeasure does) and a batch of entries per transaction (as savePersonMeasures
+ * does), with the identifiers of the history reserved in blocks (the allocationSize of its
+ * @TableGenerator) and one at a time, i.e. with a read and an update of the sequence table for each
+ * new row. The size of the blocks is changed on the sequence of the session before the trial.
+ *
+ * @author alan
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class InsertRateBenchmark {
+	private static final int BATCH = 100;
+
+	/**
+	 * The database (100k history rows) and the service, with the given size of the blocks of identifiers.
+	 */
+	@State(Scope.Benchmark)
+	public static class InsertState {
+		@Param({"1", "500"})
+		public int allocationSize;
+
+		ServiceState s;
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			this.s = new ServiceState();
+			this.s.historyRows = 100000;
+			this.s.setUp();
+
+			// The identifiers already reserved are discarded (the next ones come after them)
+			Server session = JpaHelper.getServerSession(EHealthDao.instance.getEntityManagerFactory());
+			Sequence sequence = session.getDescriptor(MeasurementHistory.class).getSequence();
+			sequence.setPreallocationSize(this.allocationSize);
+			session.getSequencingControl().resetSequencing();
+			System.err.println(sequence.getName() + ": blocks of " + sequence.getPreallocationSize() + " identifiers");
+		}
+	}
+
+
+	/********************************************************************************
+	 * LIST OF ALL THE BENCHMARKS OF THE INSERTS									*
+	 ********************************************************************************/
+
+	@Benchmark
+	public Measurement insertOnePerTransaction(final InsertState i) {
+		final Measurement m = ServiceState.newMeasurement(i.s.next());
+
+		return EHealthDao.instance.runInTransaction(new UnitOfWork<Measurement>() {
+			@Override
+			public Measurement execute(EntityManager em) {
+				return Measurement.saveMeasurementWithHistory(em, em.find(Person.class, (int) i.s.personId), m);
+			}
+		});
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public List<MeasurementResult> insertBatchPerTransaction(final InsertState i) {
+		final List<Measurement> measures = new ArrayList<Measurement>();
+		for (int j = 0; j < BATCH; j++) {
+			measures.add(ServiceState.newMeasurement(i.s.next()));
+		}
+
+		return EHealthDao.instance.runInTransaction(new UnitOfWork<List<MeasurementResult>>() {
+			@Override
+			public List<MeasurementResult> execute(EntityManager em) {
+				List<MeasurementResult> results = new ArrayList<MeasurementResult>();
+				for (int j = 0; j < measures.size(); j++) {
+					results.add(new MeasurementResult(i.s.personId, j));
+				}
+				Measurement.saveMeasurementsWithHistory(em, em.find(Person.class, (int) i.s.personId), measures, results);
+				return results;
+			}
+		});
+	}
+}
@@ -0,0 +1,136 @@
+package introsde.health.soap.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import introsde.health.soap.util.AsyncLogger;
+
+/**
+ * A benchmark of the logging of the web methods under concurrency: each thread logs the two lines
+ * of a request (the execution at info level and the result at debug level), either with
+ * System.out.println and string concatenation (as the service used to do) or with the
+ * AsyncLogger at different levels. The console is replaced by a stream that discards the
+ * output, so only the cost of logging is measured (not the one of the terminal). When the threads
+ * log faster than the writer can format, the events that do not fit in the buffer are dropped (and
+ * counted): the requests never wait for the console.
+ * Usage: LoggingBenchmark [threads] [requests per thread]
+ *
+ * @author alan
+ */
+
+public class LoggingBenchmark {
+	private static final AsyncLogger LOG = getLogger();
+
+	public static void main(String[] args) throws InterruptedException {
+		int threads = (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2;
+		int requests = (args.length > 1) ? Integer.parseInt(args[1]) : 200000;
+
+		System.err.println("threads=" + threads + " requests/thread=" + requests);
+		for (int round = 0; round < 2; round++) {		// the first round is the warm-up
+			boolean print = (round == 1);
+			run("System.out.println", threads, requests, print, new Request() {
+				@Override
+				public void log(Long id, String measureType) {
+					System.out.println("Executing readPersonHistory()...");
+					System.out.println("\tReturning the \"" + measureType + "\" history of the person with ID " + id + "...");
+				}
+			});
+			AsyncLogger.Level[] levels = { AsyncLogger.Level.DEBUG, AsyncLogger.Level.INFO, AsyncLogger.Level.OFF };
+			for (AsyncLogger.Level level : levels) {
+				AsyncLogger.setLevel(level);
+				run("AsyncLogger (level " + level.name().toLowerCase() + ")", threads, requests, print, new Request() {
+					@Override
+					public void log(Long id, String measureType) {
+						LOG.info("readPersonHistory", "id", id, "measure_type", measureType);
+						LOG.debug("readPersonHistory.returned", "id", id, "measure_type", measureType);
+					}
+				});
+			}
+		}
+		System.err.println("dropped events (buffer full): " + AsyncLogger.getDropped());
+	}
+
+	/**
+	 * A method that runs a benchmark and prints its throughput and allocation rate.
+	 */
+	private static void run(String name, int threads, final int requests, boolean print, final Request request)
+			throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch end = new CountDownLatch(threads);
+		final AtomicLong allocated = new AtomicLong();
+		final AtomicLong busy = new AtomicLong();		// the time spent logging by all the threads
+		long dropped = AsyncLogger.getDropped();
+		final Long id = Long.valueOf(1000);		// the arguments of the request (boxed by JAX-WS)
+
+		for (int t = 0; t < threads; t++) {
+			new Thread("bench-" + t) {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						long before = allocatedBytes();
+						long begin = System.nanoTime();
+						for (int i = 0; i < requests; i++) {
+							request.log(id, "weight");
+						}
+						busy.addAndGet(System.nanoTime() - begin);
+						allocated.addAndGet(allocatedBytes() - before);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						end.countDown();
+					}
+				}
+			}.start();
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		end.await();
+		long elapsed = System.nanoTime() - begin;
+		AsyncLogger.flush();
+
+		if (print) {
+			long total = (long) threads * requests;
+			System.err.println(String.format("%-28s %12.0f requests/s %10.1f ns/request %8.1f bytes/request %10d dropped",
+					name, total * 1e9 / elapsed, (double) busy.get() / total, (double) allocated.get() / total,
+					AsyncLogger.getDropped() - dropped));
+		}
+	}
+
+	/**
+	 * A method that returns the bytes allocated by the current thread (-1 if it is not supported).
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/**
+	 * A method that discards the console output before the logger is initialized.
+	 */
+	private static AsyncLogger getLogger() {
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+				// Discard
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				// Discard
+			}
+		}, false));
+		return AsyncLogger.getLogger(LoggingBenchmark.class);
+	}
+
+	private interface Request {
+		void log(Long id, String measureType);
+	}
+}
@@ -0,0 +1,204 @@
+package introsde.health.soap.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import introsde.health.soap.model.Goal;
+import introsde.health.soap.model.Measure;
+import introsde.health.soap.model.Measurement;
+import introsde.health.soap.model.MeasurementAggregate;
+import introsde.health.soap.model.MeasurementHistory;
+import introsde.health.soap.model.MeasurementHistoryGroup;
+import introsde.health.soap.model.MeasurementHistoryPage;
+import introsde.health.soap.model.MeasurementResult;
+import introsde.health.soap.model.Person;
+import introsde.health.soap.model.PersonMeasurements;
+
+/**
+ * The benchmarks of the methods of PeopleImplementation, called directly (i.e. without the HTTP
+ * server and the (un)marshalling of the SOAP messages, see the metrics of the service for them).
+ * initializeDatabase is not benchmarked, since it replaces the data of the database.
+ *
+ * @author alan
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PeopleBenchmark {
+
+	/********************************************************************************
+	 * LIST OF ALL THE BENCHMARKS OF THE PEOPLE										*
+	 ********************************************************************************/
+
+	@Benchmark
+	public List<Person> readPersonList(ServiceState s) {
+		return s.service.readPersonList(null);
+	}
+
+	@Benchmark
+	public List<Person> readPersonSummaryList(ServiceState s) {
+		return s.service.readPersonSummaryList();
+	}
+
+	@Benchmark
+	public Person readPerson(ServiceState s) {
+		return s.service.readPerson(s.personId, null);
+	}
+
+	@Benchmark
+	public List<Person> readPeople(ServiceState s) {
+		return s.service.readPeople(s.getPeopleLongIds(), null);
+	}
+
+	@Benchmark
+	public Person updatePerson(ServiceState s) {
+		Person p = new Person((int) s.personId, "Person" + s.personId, "Bench" + (s.next() % 10), "01-01-1980");
+		return s.service.updatePerson(p);
+	}
+
+	@Benchmark
+	public Person createPersonAndDeletePerson(ServiceState s) {
+		Person p = s.service.createPerson(ServiceState.newPerson());
+		s.service.deletePerson(Long.valueOf(p.getId()));
+		return p;
+	}
+
+
+	/********************************************************************************
+	 * LIST OF ALL THE BENCHMARKS OF THE MEASURES									*
+	 ********************************************************************************/
+
+	@Benchmark
+	public List<MeasurementHistory> readPersonHistory(ServiceState s) {
+		return s.service.readPersonHistory(s.personId, ServiceState.MEASURE);
+	}
+
+	@Benchmark
+	public List<MeasurementHistoryGroup> readPersonHistories(ServiceState s) {
+		return s.service.readPersonHistories(s.personId, Arrays.asList(ServiceState.MEASURE, "steps"));
+	}
+
+	@Benchmark
+	public MeasurementHistoryPage readPersonHistoryPage(ServiceState s) {
+		return s.service.readPersonHistoryPage(s.personId, ServiceState.MEASURE, null, null, "desc", 10, null);
+	}
+
+	@Benchmark
+	public List<MeasurementAggregate> readPersonHistoryStats(ServiceState s) {
+		return s.service.readPersonHistoryStats(s.personId, ServiceState.MEASURE, null, null, "day");
+	}
+
+	@Benchmark
+	public List<Measure> readMeasureTypes(ServiceState s) {
+		return s.service.readMeasureTypes();
+	}
+
+	@Benchmark
+	public MeasurementHistory readPersonMeasure(ServiceState s) {
+		return s.service.readPersonMeasure(s.personId, ServiceState.MEASURE, Long.valueOf(s.historyId));
+	}
+
+	@Benchmark
+	public Measurement savePersonMeasure(ServiceState s) {
+		return s.service.savePersonMeasure(s.personId, ServiceState.newMeasurement(s.next()));
+	}
+
+	@Benchmark
+	public List<MeasurementResult> savePersonMeasures(ServiceState s) {
+		List<Measurement> measurements = new ArrayList<Measurement>();
+		for (String name : Arrays.asList(ServiceState.MEASURE, "steps", "sleep_hours")) {
+			Measurement m = ServiceState.newMeasurement(s.next());
+			m.setMeasureName(name);
+			measurements.add(m);
+		}
+		return s.service.savePersonMeasures(s.personId, measurements);
+	}
+
+	@Benchmark
+	public List<MeasurementResult> savePeopleMeasures(ServiceState s) {
+		List<PersonMeasurements> people = new ArrayList<PersonMeasurements>();
+		for (Long id : s.getPeopleLongIds()) {
+			PersonMeasurements pm = new PersonMeasurements();
+			pm.setId(id);
+			pm.setMeasurements(Arrays.asList(ServiceState.newMeasurement(s.next())));
+			people.add(pm);
+		}
+		return s.service.savePeopleMeasures(people);
+	}
+
+	@Benchmark
+	public Long updatePersonMeasure(ServiceState s) {
+		MeasurementHistory m = new MeasurementHistory();
+		m.setId(s.historyId);
+		m.setMeasureName(ServiceState.MEASURE);
+		m.setMeasureValue(String.valueOf(60 + s.next() % 40));
+		return s.service.updatePersonMeasure(s.personId, m);
+	}
+
+
+	/********************************************************************************
+	 * LIST OF ALL THE BENCHMARKS OF THE GOALS										*
+	 ********************************************************************************/
+
+	@Benchmark
+	public List<Goal> readGoalList(ServiceState s) {
+		return s.service.readGoalList();
+	}
+
+	@Benchmark
+	public Goal readGoal(ServiceState s) {
+		return s.service.readGoal(Long.valueOf(s.goalId));
+	}
+
+	@Benchmark
+	public Goal updateGoal(ServiceState s) {
+		Goal g = new Goal();		// the whole goal is sent (the missing attributes would be cleared)
+		g.setId(s.goalId);
+		g.setTitle(s.goal.getTitle());
+		g.setInitValue(s.goal.getInitValue());
+		g.setFinalValue(String.valueOf(60 + s.next() % 10));
+		g.setDeadline(s.goal.getDeadline());
+		g.setTime(s.goal.getTime());
+		g.setAchieved(s.goal.getAchieved());
+		return s.service.updateGoal(s.personId, g);
+	}
+
+	@Benchmark
+	public Goal createGoalAndDeleteGoal(ServiceState s) {
+		Goal g = s.service.createGoal(s.personId, ServiceState.newGoal());
+		s.service.deleteGoal(Long.valueOf(g.getId()));
+		return g;
+	}
+
+	@Benchmark
+	public List<Goal> readPersonGoalList(ServiceState s) {
+		return s.service.readPersonGoalList(s.personId);
+	}
+
+	@Benchmark
+	public Goal readPersonGoalById(ServiceState s) {
+		return s.service.readPersonGoalById(s.personId, Long.valueOf(s.goalId));
+	}
+
+	@Benchmark
+	public Goal readPersonGoalByName(ServiceState s) {
+		return s.service.readPersonGoalByName(s.personId, s.goalTitle);
+	}
+
+	@Benchmark
+	public List<Goal> readPersonGoalByStatus(ServiceState s) {
+		return s.service.readPersonGoalByStatus(s.personId, s.goalStatus);
+	}
+
+	@Benchmark
+	public Goal readPersonGoalByNameAndStatus(ServiceState s) {
+		return s.service.readPersonGoalByNameAndStatus(s.personId, s.goalTitle, s.goalStatus);
+	}
+}
@@ -0,0 +1,267 @@
+package introsde.health.soap.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+
+import introsde.health.soap.dao.EHealthDao;
+import introsde.health.soap.dao.UnitOfWork;
+import introsde.health.soap.model.Measurement;
+import introsde.health.soap.model.Person;
+import introsde.health.soap.util.AsyncLogger;
+import introsde.health.soap.ws.PeopleImplementation;
+
+/**
+ * A stress test of the concurrent writes of the measures (on a copy of the benchmark database with
+ * 1000 history rows, see BenchDatabase). It checks that:
+ * - the writes of the same person are linearizable: many threads save the first measure of a new
+ *   person at the same time, and every write must succeed, the person must end up with exactly one
+ *   health profile row for the measure, with as many history entries as the writes, and the value of
+ *   the health profile must be the one of the last entry of the history (without the locks, the
+ *   threads that read the profile before the first insert is committed insert it again, as the
+ *   unlocked baseline shows);
+ * - the writes of different people do not wait for each other: while the lock of a person is held,
+ *   a write of another person completes, while a write of the locked person waits for the lock.
+ * Usage: PersonWritesStress [threads] [rounds]
+ *
+ * @author alan
+ */
+
+public class PersonWritesStress {
+	private static final String MEASURE = "weight";
+	private static final long TIMEOUT = 30;		// seconds
+
+	public static void main(String[] args) throws Exception {
+		int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 16;
+		int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+
+		if (System.getProperty("db.profile") == null) {		// wait for the lock of SQLite instead of failing
+			System.setProperty("db.profile", "performance");
+		}
+		AsyncLogger.setLevel(AsyncLogger.Level.ERROR);
+		BenchDatabase.open(1000);
+		PeopleImplementation service = new PeopleImplementation();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		boolean passed = true;
+
+		System.err.println("threads=" + threads + " rounds=" + rounds);
+		try {
+			long duplicates = 0;
+			for (int r = 0; r < rounds; r++) {
+				duplicates += Math.max(0, race(pool, threads, service, false).profile - 1);
+			}
+			System.err.println("unlocked baseline (DAO only): " + duplicates + " duplicate health profile rows in "
+					+ rounds + " rounds");
+
+			for (int r = 0; r < rounds && passed; r++) {
+				passed = race(pool, threads, service, true).check();
+			}
+			System.err.println("same person, through the service: " + (passed ? "OK" : "FAILED"));
+
+			boolean independent = checkIndependence(pool, service);
+			System.err.println("different people, through the service: " + (independent ? "OK" : "FAILED"));
+			passed &= independent;
+		} finally {
+			pool.shutdownNow();
+		}
+
+		System.err.println(passed ? "PASSED" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	/********************************************************************************
+	 * HELPER METHODS USEFUL FOR THE COMPUTATION OF OTHER METHODS IN THIS CLASS		*
+	 ********************************************************************************/
+
+	/**
+	 * A method that saves the first measure of a new person from many threads at the same time, and
+	 * counts the rows stored.
+	 * @param locked: true to save it through the service, false to call the DAO directly (no locks)
+	 * @return round: the writes and the rows stored
+	 */
+	private static Round race(ExecutorService pool, int threads, final PeopleImplementation service,
+			final boolean locked) throws Exception {
+		Person p = new Person();
+		p.setFirstname("Stress");
+		p.setLastname("Test");
+		p.setBirthdate("01-01-1980");
+		final long id = service.createPerson(p).getId();
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicInteger saved = new AtomicInteger();
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+
+		for (int t = 0; t < threads; t++) {
+			final int value = 60 + t;
+			futures.add(pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						if (locked) {
+							service.savePersonMeasure(id, ServiceState.newMeasurement(value));
+						} else {
+							EHealthDao.instance.runInTransaction(new UnitOfWork<Measurement>() {
+								@Override
+								public Measurement execute(EntityManager em) {
+									return Measurement.saveMeasurementWithHistory(em, em.find(Person.class, (int) id),
+											ServiceState.newMeasurement(value));
+								}
+							});
+						}
+						saved.incrementAndGet();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} catch (RuntimeException e) {		// e.g. SQLITE_BUSY: the write is not counted
+						System.err.println("write failed: " + e.getMessage());
+					}
+				}
+			}));
+		}
+		start.countDown();
+		for (Future<?> f : futures) {
+			f.get(TIMEOUT, TimeUnit.SECONDS);
+		}
+
+		Round round = new Round(id, threads, saved.get());
+		round.profile = count("SELECT COUNT(m) FROM Measurement m WHERE m.person.id = :id AND m.measureName = :m", id);
+		round.history = count("SELECT COUNT(h) FROM MeasurementHistory h WHERE h.person.id = :id AND h.measureName = :m", id);
+		round.current = first("SELECT m.measureValue FROM Measurement m WHERE m.person.id = :id AND m.measureName = :m", id);
+		round.last = first("SELECT h.measureValue FROM MeasurementHistory h WHERE h.person.id = :id "
+				+ "AND h.measureName = :m ORDER BY h.id DESC", id);
+		return round;
+	}
+
+	/**
+	 * A method that checks that a write of a person does not wait for the lock of another person,
+	 * while a write of the locked person does.
+	 * @return passed: true if both checks pass
+	 */
+	private static boolean checkIndependence(ExecutorService pool, final PeopleImplementation service)
+			throws Exception {
+		List<Long> ids = new ArrayList<Long>();
+		for (Person p : service.readPersonList(null)) {
+			ids.add(Long.valueOf(p.getId()));
+		}
+		final long locked = ids.get(0);
+		final long other = ids.get(1);
+
+		PeopleImplementation.getPersonLocks().lock(locked);
+		Future<?> blocked;
+		try {
+			Future<?> free = pool.submit(save(service, other));
+			try {
+				free.get(TIMEOUT, TimeUnit.SECONDS);
+			} catch (TimeoutException e) {
+				System.err.println("the write of person " + other + " waited for the lock of person " + locked);
+				return false;
+			}
+
+			blocked = pool.submit(save(service, locked));
+			try {
+				blocked.get(1, TimeUnit.SECONDS);
+				System.err.println("the write of person " + locked + " did not wait for its lock");
+				return false;
+			} catch (TimeoutException e) {
+				// expected: it waits until the lock is released
+			}
+		} finally {
+			PeopleImplementation.getPersonLocks().unlock(locked);
+		}
+
+		blocked.get(TIMEOUT, TimeUnit.SECONDS);
+		return true;
+	}
+
+	private static Runnable save(final PeopleImplementation service, final long id) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				service.savePersonMeasure(id, ServiceState.newMeasurement(id));
+			}
+		};
+	}
+
+	/**
+	 * A method that counts the rows of a measure of a person.
+	 */
+	private static long count(String jpql, long id) {
+		EntityManager em = EHealthDao.instance.createEntityManager();
+		try {
+			return ((Number) em.createQuery(jpql).setParameter("id", (int) id).setParameter("m", MEASURE)
+					.getSingleResult()).longValue();
+		} finally {
+			EHealthDao.instance.closeConnections(em);
+		}
+	}
+
+	/**
+	 * A method that reads the first value of a measure of a person.
+	 * @return value: the first value (null if there is none)
+	 */
+	private static String first(String jpql, long id) {
+		EntityManager em = EHealthDao.instance.createEntityManager();
+		try {
+			List<?> values = em.createQuery(jpql).setParameter("id", (int) id).setParameter("m", MEASURE)
+					.setMaxResults(1).getResultList();
+			return values.isEmpty() ? null : (String) values.get(0);
+		} finally {
+			EHealthDao.instance.closeConnections(em);
+		}
+	}
+
+
+	/**
+	 * The writes of a round and the rows of the measure stored for its person.
+	 */
+	private static final class Round {
+		private final long id;
+		private final int writes;
+		private final int saved;
+		private long profile;		// the rows of the health profile
+		private long history;		// the entries of the history
+		private String current;		// the value of the health profile
+		private String last;		// the value of the last entry of the history
+
+		Round(long id, int writes, int saved) {
+			this.id = id;
+			this.writes = writes;
+			this.saved = saved;
+		}
+
+		/**
+		 * A method that checks that every write succeeded and stored exactly its rows.
+		 * @return passed: true if the rows match the writes
+		 */
+		boolean check() {
+			List<String> errors = new ArrayList<String>();
+
+			if (this.saved != this.writes) {
+				errors.add(this.saved + " of " + this.writes + " writes succeeded");
+			}
+			if (this.profile != 1) {
+				errors.add(this.profile + " health profile rows (1 expected)");
+			}
+			if (this.history != this.writes) {
+				errors.add(this.history + " history entries for " + this.writes + " writes");
+			}
+			if (this.current == null || !this.current.equals(this.last)) {
+				errors.add("the health profile value " + this.current + " is not the last one of the history ("
+						+ this.last + ")");
+			}
+
+			for (String error : errors) {
+				System.err.println("person " + this.id + ": " + error);
+			}
+			return errors.isEmpty();
+		}
+	}
+}
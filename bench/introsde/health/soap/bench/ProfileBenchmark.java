@@ -0,0 +1,109 @@
+package introsde.health.soap.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import introsde.health.soap.model.Measurement;
+import introsde.health.soap.model.MeasurementHistory;
+
+/**
+ * The benchmark of the database profiles on a mixed workload: in the same trial 12 threads read the
+ * weight history of the people while 4 threads save their weight, on the default profile (a single
+ * connection, rollback journal) and on the performance one (connection pools, statement cache, WAL
+ * and the other pragmas of PerformanceProfile). Each value of dbProfile runs in its own JVM, so the
+ * profile is configured before the first use of the DAO. JMH reports the throughput of the reads and
+ * of the writes, as well as the one of the whole group. On the default profile a read can fail at once
+ * with SQLITE_BUSY while a write holds the lock of the database (only the transactions are retried):
+ * the calls that fail are included in the throughput, and their number (per iteration) is reported
+ * by the secondary results failedReads and failedWrites.
+ *
+ * @author alan
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ProfileBenchmark {
+
+	/**
+	 * The database (100k history rows) and the service, with the given database profile.
+	 */
+	@State(Scope.Benchmark)
+	public static class ProfileState {
+		@Param({"default", "performance"})
+		public String dbProfile;
+
+		ServiceState s;
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			System.setProperty("db.profile", this.dbProfile);
+			this.s = new ServiceState();
+			this.s.historyRows = 100000;
+			this.s.setUp();
+		}
+	}
+
+	/**
+	 * The person read or written by a thread, and the calls of the thread that failed.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Client {
+		long personId;
+		public long failedReads;
+		public long failedWrites;
+
+		@Setup(Level.Trial)
+		public void setUp(ProfileState p) {
+			this.personId = p.s.getPeopleLongIds().get((int) (p.s.next() % p.s.peopleIds.size()));
+		}
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			this.failedReads = 0;
+			this.failedWrites = 0;
+		}
+	}
+
+
+	/********************************************************************************
+	 * LIST OF ALL THE BENCHMARKS OF THE MIXED WORKLOAD								*
+	 ********************************************************************************/
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(12)
+	public List<MeasurementHistory> readPersonHistory(ProfileState p, Client c) {
+		try {
+			return p.s.service.readPersonHistory(c.personId, ServiceState.MEASURE);
+		} catch (RuntimeException e) {		// SQLITE_BUSY
+			c.failedReads++;
+			return null;
+		}
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(4)
+	public Measurement savePersonMeasure(ProfileState p, Client c) {
+		try {
+			return p.s.service.savePersonMeasure(c.personId, ServiceState.newMeasurement(p.s.next()));
+		} catch (RuntimeException e) {		// SQLITE_BUSY after the last retry
+			c.failedWrites++;
+			return null;
+		}
+	}
+}
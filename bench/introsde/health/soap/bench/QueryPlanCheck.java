@@ -0,0 +1,150 @@
+package introsde.health.soap.bench;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Parameter;
+import javax.persistence.Query;
+
+import org.eclipse.persistence.jpa.JpaHelper;
+
+import introsde.health.soap.dao.EHealthDao;
+import introsde.health.soap.model.Person;
+import introsde.health.soap.util.AsyncLogger;
+
+/**
+ * The regression check of the indexes of the named queries (on a copy of the benchmark database with
+ * 1000 history rows, see BenchDatabase): every named query of the history, of the health profiles and
+ * of the goals that filters on the person is executed, and the SQL it sends to the database is run
+ * with EXPLAIN QUERY PLAN. The check fails if SQLite scans a table instead of searching it with an
+ * index (or with the primary key).
+ * Usage: QueryPlanCheck
+ *
+ * @author alan
+ */
+
+public class QueryPlanCheck {
+	private static final List<String> ENTITIES = Arrays.asList("Measurement", "MeasurementHistory", "Goal");
+
+	public static void main(String[] args) throws Exception {
+		AsyncLogger.setLevel(AsyncLogger.Level.ERROR);
+		File db = BenchDatabase.open(1000);
+		SqlRecorder recorder = SqlRecorder.install();
+		boolean passed = true;
+		int checked = 0;
+
+		Connection connection = DriverManager.getConnection("jdbc:sqlite:" + db.getAbsolutePath());
+		EntityManager em = EHealthDao.instance.createEntityManager();
+		try {
+			for (String name : new TreeSet<String>(JpaHelper.getServerSession(
+					EHealthDao.instance.getEntityManagerFactory()).getQueries().keySet())) {
+				if (!ENTITIES.contains(name.substring(0, name.indexOf('.')))) {
+					continue;
+				}
+				Query query = em.createNamedQuery(name);
+				if (!bind(query, em)) {		// not a query of the data of a person
+					continue;
+				}
+
+				recorder.start();
+				query.getResultList();
+				List<String> statements = recorder.stop();
+				if (statements.isEmpty()) {
+					System.err.println(name + ": no statement executed");
+					passed = false;
+					continue;
+				}
+
+				List<String> plan = explain(connection, statements.get(0));
+				boolean indexed = true;
+				for (String step : plan) {
+					indexed &= !step.startsWith("SCAN");
+				}
+				System.err.println(name + ": " + (indexed ? "OK " : "FAILED ") + plan);
+				passed &= indexed;
+				checked++;
+			}
+		} finally {
+			EHealthDao.instance.closeConnections(em);
+			connection.close();
+		}
+
+		passed &= checked > 0;
+		System.err.println(checked + " queries checked: " + (passed ? "PASSED" : "FAILED"));
+		AsyncLogger.flush();
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	/********************************************************************************
+	 * HELPER METHODS USEFUL FOR THE COMPUTATION OF OTHER METHODS IN THIS CLASS		*
+	 ********************************************************************************/
+
+	/**
+	 * A method that sets the parameters of a named query to the values of the first person.
+	 * @param query: the query
+	 * @param em: the entity manager
+	 * @return person: true if the query filters on the person
+	 */
+	private static boolean bind(Query query, EntityManager em) {
+		boolean person = false;
+
+		for (Parameter<?> parameter : query.getParameters()) {
+			String name = parameter.getName();
+
+			if ("person".equals(name)) {
+				query.setParameter(name, em.find(Person.class, 1));
+				person = true;
+			} else if ("measureName".equals(name) || "title".equals(name)) {
+				query.setParameter(name, ServiceState.MEASURE);
+			} else if ("measureNames".equals(name)) {
+				query.setParameter(name, Arrays.asList(ServiceState.MEASURE, "steps"));
+			} else if ("achieved".equals(name)) {
+				query.setParameter(name, "NO");
+			} else if ("id".equals(name) || "mid".equals(name)) {
+				query.setParameter(name, 1);
+			} else if ("from".equals(name) || "lastTime".equals(name) || "lastId".equals(name)) {
+				query.setParameter(name, 0L);
+			} else if ("to".equals(name)) {
+				query.setParameter(name, Long.MAX_VALUE);
+			} else {
+				throw new IllegalArgumentException("Unknown parameter " + name + " of " + query);
+			}
+		}
+		return person;
+	}
+
+	/**
+	 * A method that returns the plan of a statement (its parameters are left unbound, i.e. NULL: the
+	 * plan of SQLite does not depend on their values).
+	 * @param connection: the connection to the database
+	 * @param sql: the statement
+	 * @return plan: the detail of each step of the plan
+	 */
+	private static List<String> explain(Connection connection, String sql) throws SQLException {
+		PreparedStatement st = connection.prepareStatement("EXPLAIN QUERY PLAN " + sql);
+		try {
+			for (int i = 1; i <= st.getParameterMetaData().getParameterCount(); i++) {
+				st.setObject(i, null);
+			}
+
+			List<String> plan = new ArrayList<String>();
+			ResultSet rs = st.executeQuery();
+			while (rs.next()) {
+				plan.add(rs.getString("detail"));
+			}
+			return plan;
+		} finally {
+			st.close();
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package introsde.health.soap.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManager;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import introsde.health.soap.dao.EHealthDao;
+import introsde.health.soap.model.Goal;
+import introsde.health.soap.model.Measurement;
+import introsde.health.soap.model.MeasurementHistory;
+import introsde.health.soap.model.Person;
+import introsde.health.soap.util.AsyncLogger;
+import introsde.health.soap.util.Values;
+import introsde.health.soap.ws.PeopleImplementation;
+
+/**
+ * The state shared by the benchmarks of a trial: the copy of the database of the given size (see
+ * BenchDatabase), the implementation of the service and the identifiers of the rows read and
+ * updated by the benchmarks (the person in the middle of the table, with its weight history).
+ *
+ * @author alan
+ */
+
+@State(Scope.Benchmark)
+public class ServiceState {
+	static final String MEASURE = "weight";
+
+	@Param({"1000", "100000", "10000000"})
+	public int historyRows;
+
+	PeopleImplementation service;
+	Person person;						// the person read and updated by the benchmarks
+	long personId;
+	List<Integer> peopleIds;			// ten people (the person included)
+	int measurementId;					// the current weight of the person
+	int historyId;						// the last weight of the person in the history
+	MeasurementHistory historyEntry;	// the same entry (detached), updated by the benchmarks
+	Goal goal;							// the weight goal of the person
+	int goalId;
+	String goalTitle;
+	String goalStatus;
+	private final AtomicLong counter = new AtomicLong();
+
+	/**
+	 * A method that opens the database and looks up the rows used by the benchmarks.
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		AsyncLogger.setLevel(AsyncLogger.Level.OFF);	// measure the service, not the log
+		BenchDatabase.open(this.historyRows);
+
+		this.service = new PeopleImplementation();
+		int people = BenchDatabase.getPeople(this.historyRows);
+		int id = people / 2 + 1;
+		this.personId = id;
+		this.person = Person.getPersonById(id);
+		this.peopleIds = new ArrayList<Integer>();
+		for (int i = 0; i < 10 && i < people; i++) {
+			this.peopleIds.add(Integer.valueOf((id + i - 1) % people + 1));
+		}
+
+		this.measurementId = Measurement.getMeasure(this.person, MEASURE).getId();
+		List<MeasurementHistory> history = MeasurementHistory.getHistoryOfAMeasure(this.person, MEASURE);
+		this.historyEntry = history.get(history.size() - 1);
+		this.historyId = this.historyEntry.getId();
+		this.goal = Goal.getPersonGoalByName(this.person, MEASURE);
+		this.goalId = this.goal.getId();
+		this.goalTitle = this.goal.getTitle();
+		this.goalStatus = this.goal.getAchieved();
+
+		EntityManager em = EHealthDao.instance.createEntityManager();
+		try {
+			System.err.println("\nhistory rows: " + em.createQuery("SELECT COUNT(mh) FROM MeasurementHistory mh")
+					.getSingleResult() + ", people: " + people + ", person: " + id + ", weight entries: " + history.size());
+		} finally {
+			EHealthDao.instance.closeConnections(em);
+		}
+	}
+
+	/**
+	 * A method that returns a different number at each call (e.g. to change the values written).
+	 * @return next: the number of calls before this one
+	 */
+	long next() {
+		return this.counter.getAndIncrement();
+	}
+
+	/**
+	 * A method that returns the identifiers of the people as the service receives them.
+	 * @return ids: the identifiers of ten people
+	 */
+	List<Long> getPeopleLongIds() {
+		List<Long> ids = new ArrayList<Long>();
+		for (Integer i : this.peopleIds) {
+			ids.add(Long.valueOf(i));
+		}
+		return ids;
+	}
+
+	/**
+	 * A method that returns a new weight measure (with a value changing at each call).
+	 * @param i: a counter
+	 * @return measurement: the new measure
+	 */
+	static Measurement newMeasurement(long i) {
+		Measurement m = new Measurement();
+		m.setMeasureName(MEASURE);
+		m.setMeasureValue(String.valueOf(60 + i % 40));
+		m.setMeasureValueType("Kg");
+		m.setTime(Values.formatTime(System.currentTimeMillis()));
+		return m;
+	}
+
+	/**
+	 * A method that returns a new person, with a health profile of three measures.
+	 * @return person: the new person (not stored yet)
+	 */
+	static Person newPerson() {
+		Person p = new Person();
+		p.setFirstname("New");
+		p.setLastname("Person");
+		p.setBirthdate("01-01-1980");
+		List<Measurement> profile = new ArrayList<Measurement>();
+		for (String name : Arrays.asList(MEASURE, "height", "steps")) {
+			Measurement m = newMeasurement(70);
+			m.setMeasureName(name);
+			profile.add(m);
+		}
+		p.setHealthProfile(profile);
+		return p;
+	}
+
+	/**
+	 * A method that returns a new goal.
+	 * @return goal: the new goal (not stored yet)
+	 */
+	static Goal newGoal() {
+		Goal g = new Goal();
+		g.setTitle("sleep_hours");
+		g.setInitValue("6");
+		g.setFinalValue("8");
+		g.setDeadline(Values.formatTime(System.currentTimeMillis() + 30L * 24 * 60 * 60 * 1000));
+		g.setTime(Values.formatTime(System.currentTimeMillis()));
+		g.setAchieved("NO");
+		return g;
+	}
+}
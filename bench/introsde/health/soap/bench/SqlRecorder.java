@@ -0,0 +1,83 @@
+package introsde.health.soap.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.persistence.jpa.JpaHelper;
+import org.eclipse.persistence.logging.AbstractSessionLog;
+import org.eclipse.persistence.logging.SessionLog;
+import org.eclipse.persistence.logging.SessionLogEntry;
+import org.eclipse.persistence.sessions.Session;
+
+import introsde.health.soap.dao.EHealthDao;
+
+/**
+ * A log of the session of the service that records the SQL statements sent to the database by the
+ * current thread while it is recording, so that the checks can count them or explain their plan.
+ * EclipseLink logs every statement it executes in the "sql" category: the recorder enables that
+ * category for the recording threads only, and passes all the other entries to the log it replaces.
+ *
+ * @author alan
+ */
+
+public final class SqlRecorder extends AbstractSessionLog {
+	private final SessionLog log;		// the log of the session
+	private final ThreadLocal<List<String>> statements = new ThreadLocal<List<String>>();
+
+	/**
+	 * The constructor of the class (see install).
+	 * @param log: the log of the session
+	 */
+	private SqlRecorder(SessionLog log) {
+		this.log = log;
+	}
+
+	/**
+	 * A method that installs a recorder as the log of the session of the service (the client sessions
+	 * created afterwards share the log of the server session).
+	 * @return recorder: the recorder installed
+	 */
+	public static SqlRecorder install() {
+		Session session = JpaHelper.getServerSession(EHealthDao.instance.getEntityManagerFactory());
+		SqlRecorder recorder = new SqlRecorder(session.getSessionLog());
+		session.setSessionLog(recorder);
+		return recorder;
+	}
+
+	/**
+	 * A method that starts recording the statements of the current thread (forgetting the previous ones).
+	 */
+	public void start() {
+		this.statements.set(new ArrayList<String>());
+	}
+
+	/**
+	 * A method that stops recording the statements of the current thread.
+	 * @return statements: the statements recorded since start, in order
+	 */
+	public List<String> stop() {
+		List<String> recorded = this.statements.get();
+		this.statements.remove();
+		return (recorded != null) ? recorded : new ArrayList<String>();
+	}
+
+	@Override
+	public boolean shouldLog(int level, String category) {
+		return (SessionLog.SQL.equals(category) && this.statements.get() != null) || this.log.shouldLog(level, category);
+	}
+
+	@Override
+	public void log(SessionLogEntry entry) {
+		List<String> recorded = this.statements.get();
+
+		if (recorded != null && SessionLog.SQL.equals(entry.getNameSpace())) {
+			String sql = entry.getMessage();
+			int bind = sql.indexOf("\n\tbind =>");		// the values of the parameters, if they are logged
+			recorded.add((bind >= 0) ? sql.substring(0, bind) : sql);
+			if (!this.log.shouldLog(entry.getLevel(), entry.getNameSpace())) {
+				return;
+			}
+		}
+		this.log.log(entry);
+	}
+}
@@ -0,0 +1,146 @@
+package introsde.health.soap.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A benchmark of the startup of the server: the plain build (the classes compiled by javac, woven
+ * by EclipseLink at runtime if at all), the woven build (the entities woven by "ant weave" and
+ * packaged in a jar) and the woven build with the class data sharing archive created by
+ * "ant cds.archive". Each run starts a new JVM that exits as soon as the service is ready
+ * (startup.exit-after-ready), and the configurations are alternated so that the page cache and the
+ * database favour none of them. For each configuration the benchmark prints the time from the start
+ * of the JVM to the readiness of the service (as logged by the service), the time spent
+ * initializing the database, and the wall time of the whole process (including the exit).
+ * Usage: StartupBenchmark [runs] [plain classpath] [woven classpath] [CDS archive]
+ *
+ * @author alan
+ */
+
+public class StartupBenchmark {
+	private static final String MAIN = "introsde.health.soap.endpoint.PeoplePublisher";
+	private static final Pattern READY = Pattern.compile("startup\\.ready .*ms_since_jvm_start=(\\d+)");
+	private static final Pattern DATABASE = Pattern.compile("startup\\.database .*ms=(\\d+)");
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 4) {
+			System.err.println("Usage: StartupBenchmark [runs] [plain classpath] [woven classpath] [CDS archive]");
+			System.exit(1);
+		}
+		int runs = Integer.parseInt(args[0]);
+
+		Configuration[] configurations = {
+			new Configuration("plain", args[1]),
+			new Configuration("woven", args[2]),
+			new Configuration("woven + CDS", args[2], "-XX:SharedArchiveFile=" + args[3], "-Xshare:auto")
+		};
+
+		System.err.println("runs=" + runs);
+		for (int run = -1; run < runs; run++) {		// the first run is the warm-up (of the disk caches)
+			for (Configuration configuration : configurations) {
+				configuration.run(run >= 0);
+			}
+		}
+
+		for (Configuration configuration : configurations) {
+			configuration.print();
+		}
+	}
+
+
+	/********************************************************************************
+	 * HELPER METHODS/CLASSES USEFUL FOR THE COMPUTATION OF OTHER METHODS IN THIS CLASS	*
+	 ********************************************************************************/
+
+	/**
+	 * A method that returns the median of a list of durations.
+	 */
+	private static long median(List<Long> values) {
+		List<Long> sorted = new ArrayList<Long>(values);
+		Collections.sort(sorted);
+		return sorted.isEmpty() ? -1 : sorted.get(sorted.size() / 2);
+	}
+
+	/**
+	 * A method that returns the minimum of a list of durations.
+	 */
+	private static long min(List<Long> values) {
+		return values.isEmpty() ? -1 : Collections.min(values);
+	}
+
+	/**
+	 * A configuration of the JVM that runs the server, with its measures.
+	 */
+	private static class Configuration {
+		private final String name;
+		private final List<String> command = new ArrayList<String>();
+		private final List<Long> ready = new ArrayList<Long>();
+		private final List<Long> database = new ArrayList<Long>();
+		private final List<Long> wall = new ArrayList<Long>();
+
+		Configuration(String name, String classpath, String... options) {
+			this.name = name;
+			this.command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+			this.command.addAll(Arrays.asList(options));
+			this.command.add("-Dstartup.exit-after-ready=true");
+			this.command.add("-Dlog.level=info");
+			this.command.add("-cp");
+			this.command.add(classpath);
+			this.command.add(MAIN);
+		}
+
+		/**
+		 * A method that starts the server, waits for its exit and records the measures.
+		 */
+		void run(boolean record) throws IOException, InterruptedException {
+			ProcessBuilder builder = new ProcessBuilder(this.command).redirectErrorStream(true);
+			builder.environment().put("PORT", "0");		// an ephemeral port
+
+			long start = System.nanoTime();
+			Process process = builder.start();
+			long readyMillis = -1;
+			long databaseMillis = -1;
+			BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				Matcher m = READY.matcher(line);
+				if (m.find()) {
+					readyMillis = Long.parseLong(m.group(1));
+				}
+				m = DATABASE.matcher(line);
+				if (m.find()) {
+					databaseMillis = Long.parseLong(m.group(1));
+				}
+			}
+			int status = process.waitFor();
+			long wallMillis = (System.nanoTime() - start) / 1000000;
+
+			if (status != 0 || readyMillis < 0) {
+				System.err.println(this.name + ": the server did not start (exit status " + status + ")");
+				return;
+			}
+			if (record) {
+				this.ready.add(readyMillis);
+				this.database.add(databaseMillis);
+				this.wall.add(wallMillis);
+			}
+		}
+
+		/**
+		 * A method that prints the medians (and minimums) of the measures.
+		 */
+		void print() {
+			System.out.printf("%-12s ready %6d ms (min %6d)   database %6d ms (min %6d)   wall %6d ms (min %6d)%n",
+					this.name, median(this.ready), min(this.ready), median(this.database), min(this.database),
+					median(this.wall), min(this.wall));
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package introsde.health.soap.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import introsde.health.soap.dao.EntityCache;
+import introsde.health.soap.model.Goal;
+import introsde.health.soap.model.Person;
+import introsde.health.soap.util.AsyncLogger;
+import introsde.health.soap.ws.PeopleImplementation;
+
+/**
+ * The regression check of the number of SQL statements of the listings (on a copy of the benchmark
+ * database with 1000 history rows, see BenchDatabase): each listing is executed with an empty shared
+ * cache, and the collections of its result that JAXB marshals (the health profile and the goals of
+ * the people, the person of the goals) are read, so that the lazy ones are loaded too. The check
+ * fails if a listing issues more statements than its fetch plan (i.e. one query per person or per
+ * goal, the N+1 pattern, instead of a few IN queries).
+ * Usage: StatementCountCheck
+ *
+ * @author alan
+ */
+
+public class StatementCountCheck {
+	private static SqlRecorder recorder;
+
+	public static void main(String[] args) throws Exception {
+		AsyncLogger.setLevel(AsyncLogger.Level.ERROR);
+		BenchDatabase.open(1000);
+		final PeopleImplementation service = new PeopleImplementation();
+		recorder = SqlRecorder.install();
+
+		final List<Long> ids = new ArrayList<Long>();
+		for (Person p : service.readPersonSummaryList()) {
+			ids.add(Long.valueOf(p.getId()));
+		}
+		System.err.println(ids.size() + " people");
+
+		// The people, then their health profiles and their goals (one IN query each)
+		boolean passed = check("readPersonList", 3, new Callable<List<?>>() {
+			@Override
+			public List<?> call() {
+				return service.readPersonList(null);
+			}
+		});
+		passed &= check("readPersonSummaryList", 1, new Callable<List<?>>() {
+			@Override
+			public List<?> call() {
+				return service.readPersonSummaryList();
+			}
+		});
+		passed &= check("readPeople", 3, new Callable<List<?>>() {
+			@Override
+			public List<?> call() {
+				return service.readPeople(ids, null);
+			}
+		});
+		// The goals, then their people
+		passed &= check("readGoalList", 2, new Callable<List<?>>() {
+			@Override
+			public List<?> call() {
+				return service.readGoalList();
+			}
+		});
+
+		System.err.println(passed ? "PASSED" : "FAILED");
+		AsyncLogger.flush();
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	/********************************************************************************
+	 * HELPER METHODS USEFUL FOR THE COMPUTATION OF OTHER METHODS IN THIS CLASS		*
+	 ********************************************************************************/
+
+	/**
+	 * A method that counts the statements of a listing, reading its result.
+	 * @param name: the name of the operation
+	 * @param max: the maximum number of statements
+	 * @param operation: the operation
+	 * @return passed: true if the operation issues at most max statements
+	 */
+	private static boolean check(String name, int max, Callable<List<?>> operation) throws Exception {
+		EntityCache.evictAll();		// every entity is read from the database
+
+		recorder.start();
+		List<String> statements;
+		int size;
+		try {
+			List<?> result = operation.call();
+			load(result);
+			size = result.size();
+		} finally {
+			statements = recorder.stop();
+		}
+
+		boolean passed = statements.size() <= max;
+		System.err.println(name + ": " + statements.size() + " statements for " + size + " results (at most "
+				+ max + ") " + (passed ? "OK" : "FAILED"));
+		if (!passed) {
+			for (String sql : statements) {
+				System.err.println("\t" + sql);
+			}
+		}
+		return passed;
+	}
+
+	/**
+	 * A method that reads the relationships of the elements of a result that are marshalled (or, for
+	 * the person of the goals, loaded with them).
+	 * @param result: the result
+	 */
+	private static void load(List<?> result) {
+		for (Object o : result) {
+			if (o instanceof Person) {
+				Person p = (Person) o;
+				if (p.getHealthProfile() != null) p.getHealthProfile().size();
+				if (p.getGoals() != null) p.getGoals().size();
+			} else if (o instanceof Goal && ((Goal) o).getPerson() != null) {
+				((Goal) o).getPerson().getId();
+			}
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package introsde.health.soap.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import introsde.health.soap.dao.EHealthDao;
+import introsde.health.soap.dao.UnitOfWork;
+import introsde.health.soap.model.Measurement;
+import introsde.health.soap.model.MeasurementHistory;
+import introsde.health.soap.model.Person;
+
+/**
+ * The benchmark of the transactions of savePersonMeasure, in writes per second: the measure is saved
+ * as the service does, with the lookup of the person, the update of the health profile and the new
+ * entry of the history in a single transaction, and as the service did before, with a separate
+ * entity manager for each of them (and a commit for each of the two writes).
+ *
+ * @author alan
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TransactionBatchingBenchmark {
+
+	/********************************************************************************
+	 * LIST OF ALL THE BENCHMARKS OF THE TRANSACTIONS OF SAVEPERSONMEASURE			*
+	 ********************************************************************************/
+
+	@Benchmark
+	public Measurement singleTransaction(final ServiceState s) {
+		final Measurement m = ServiceState.newMeasurement(s.next());
+
+		return EHealthDao.instance.runInTransaction(new UnitOfWork<Measurement>() {
+			@Override
+			public Measurement execute(EntityManager em) {
+				return Measurement.saveMeasurementWithHistory(em, em.find(Person.class, (int) s.personId), m);
+			}
+		});
+	}
+
+	@Benchmark
+	public Measurement separateTransactions(ServiceState s) {
+		Measurement m = ServiceState.newMeasurement(s.next());
+
+		Person person = Person.getPersonById((int) s.personId);
+		m.setPerson(person);
+		Measurement mCurr = Measurement.getMeasure(person, m.getMeasureName());
+		mCurr = Measurement.updateMeasurement((mCurr != null) ? mCurr.getId() : null, m);
+		MeasurementHistory.addMeasurementToHistory(mCurr);
+		return mCurr;
+	}
+}
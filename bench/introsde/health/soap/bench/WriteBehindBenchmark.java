@@ -0,0 +1,82 @@
+package introsde.health.soap.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import introsde.health.soap.model.Measurement;
+import introsde.health.soap.model.MeasurementHistory;
+
+/**
+ * The benchmarks of the concurrent writes of the measures, with and without the write-behind queue
+ * (each value of writeBehind runs in its own JVM, so the queue is configured before its first use).
+ * Each thread writes the measures of a different person of the ten of ServiceState.
+ *
+ * @author alan
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(16)
+public class WriteBehindBenchmark {
+
+	/**
+	 * The database (100k history rows) and the service, with the write-behind queue enabled or not.
+	 */
+	@State(Scope.Benchmark)
+	public static class WriteState {
+		@Param({"false", "true"})
+		public boolean writeBehind;
+
+		ServiceState s;
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			System.setProperty("write.behind.enabled", String.valueOf(this.writeBehind));
+			this.s = new ServiceState();
+			this.s.historyRows = 100000;
+			this.s.setUp();
+		}
+	}
+
+	/**
+	 * The person written by a thread.
+	 */
+	@State(Scope.Thread)
+	public static class Writer {
+		long personId;
+
+		@Setup(Level.Trial)
+		public void setUp(WriteState w) {
+			this.personId = w.s.getPeopleLongIds().get((int) (w.s.next() % w.s.peopleIds.size()));
+		}
+	}
+
+
+	/********************************************************************************
+	 * LIST OF ALL THE BENCHMARKS OF THE WRITES										*
+	 ********************************************************************************/
+
+	@Benchmark
+	public Measurement savePersonMeasure(WriteState w, Writer t) {
+		return w.s.service.savePersonMeasure(t.personId, ServiceState.newMeasurement(w.s.next()));
+	}
+
+	@Benchmark
+	public Long updatePersonMeasure(WriteState w, Writer t) {
+		MeasurementHistory m = new MeasurementHistory();
+		m.setId(w.s.historyId);
+		m.setMeasureName(ServiceState.MEASURE);
+		m.setMeasureValue(String.valueOf(60 + w.s.next() % 40));
+		return w.s.service.updatePersonMeasure(w.s.personId, m);
+	}
+}
@@ -0,0 +1,251 @@
+package introsde.health.soap.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Random;
+
+import javax.persistence.PersistenceException;
+
+import introsde.health.soap.util.AsyncLogger;
+import introsde.health.soap.util.Values;
+
+/**
+ * The generator of synthetic data, used to load the database for load tests and benchmarks. Given
+ * the same number of people, number of days and seed it always generates the same data: the people,
+ * the nine measures, one entry of the history per measure per day for each person (a bounded random
+ * walk around a baseline of the person, so that the series look realistic), the health profiles
+ * (the last entry of each measure) and two goals per person.
+ * The rows are written with JDBC batches in the order of the primary keys and of the indexes, in the
+ * transaction of the caller, so millions of rows are written in seconds.
+ * It is used by EHealthDao.initializeDB, which also resets the database, and from the command line:
+ * DataGenerator [people] [days] [seed] (the database is the one of db.url).
+ *
+ * @author alan
+ */
+
+public final class DataGenerator {
+	private static final AsyncLogger LOG = AsyncLogger.getLogger(DataGenerator.class);
+	public static final long DEFAULT_SEED = 42;
+
+	// The measures, with their unit, range, decimals and maximum daily change (0: constant)
+	static final String[] MEASURES = {"weight", "height", "steps", "bloodpressure", "sleep_hours",
+			"carbohydrates", "proteins", "lipids", "sodium"};
+	private static final String[] TYPES = {"Kg", "m", "steps", "mmHg", "h", "g", "g", "g", "g"};
+	private static final double[] MIN = {45, 1.50, 500, 95, 4, 150, 40, 40, 1};
+	private static final double[] MAX = {130, 2.00, 20000, 165, 10, 450, 180, 160, 4};
+	private static final int[] DECIMALS = {1, 2, 0, 0, 1, 0, 0, 0, 1};
+	private static final double[] STEP = {0.3, 0, 4000, 6, 1.5, 80, 30, 30, 0.6};
+
+	private static final String[] FIRST_NAMES = {"John", "Margaret", "Jeremy", "Anna", "Luca", "Maria",
+			"Paul", "Sarah", "Marco", "Laura", "David", "Emma", "Peter", "Giulia", "Thomas", "Alice"};
+	private static final String[] LAST_NAMES = {"Brown", "Robinson", "Allen", "Rossi", "Smith", "Bianchi",
+			"Taylor", "Ferrari", "Wilson", "Romano", "Clark", "Colombo", "Walker", "Ricci", "Hall", "Greco"};
+
+	private static final long LAST_DAY = 1485846000000L;		// Tue Jan 31 08:00:00 CET 2017
+	private static final long DAY = 24L * 60 * 60 * 1000;
+	private static final int BATCH_SIZE = 10000;
+
+	/**
+	 * The private constructor of the class (it only has static methods).
+	 */
+	private DataGenerator() {
+		// Static helper
+	}
+
+	/**
+	 * The command line: it resets the database of db.url and fills it with the generated data.
+	 * Usage: DataGenerator [people] [days] [seed]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: DataGenerator [people] [days] [seed]");
+			System.exit(1);
+		}
+		int people = Integer.parseInt(args[0]);
+		int days = Integer.parseInt(args[1]);
+		long seed = (args.length > 2) ? Long.parseLong(args[2]) : DEFAULT_SEED;
+
+		long start = System.currentTimeMillis();
+		EHealthDao.instance.initializeDB(people, days, seed);
+		System.out.println("Generated " + people + " people with " + days + " days of measures ("
+				+ (long) people * days * MEASURES.length + " history rows) in " + (System.currentTimeMillis() - start) + " ms");
+		AsyncLogger.flush();
+		System.exit(0);
+	}
+
+	/**
+	 * A method that inserts the generated data in empty tables (with the identifiers starting from 1).
+	 * @param connection: the JDBC connection of the current transaction
+	 * @param people: the number of people
+	 * @param days: the number of days of measures of each person (ending on January 31, 2017)
+	 * @param seed: the seed of the random values
+	 * @return rows: the number of rows inserted
+	 */
+	public static long generate(Connection connection, int people, int days, long seed) {
+		long start = System.currentTimeMillis();
+		Random random = new Random(seed);
+		long rows = 0;
+
+		// All the entries of a day have the same time, so its representation is computed once
+		String[] times = new String[days];
+		long[] millis = new long[days];
+		for (int d = 0; d < days; d++) {
+			millis[d] = getTime(days, d);
+			times[d] = Values.formatTime(millis[d]);
+		}
+		long lastTime = (days > 0) ? getTime(days, days - 1) : LAST_DAY;
+		String lastDay = Values.formatTime(lastTime);
+		String firstDay = Values.formatTime((days > 0) ? getTime(days, 0) : LAST_DAY);
+		String deadline = Values.formatTime(LAST_DAY + 90 * DAY);
+
+		try {
+			PreparedStatement measure = connection.prepareStatement(
+					"INSERT INTO measure (id, measure_name) VALUES (?, ?)");
+			PreparedStatement person = connection.prepareStatement(
+					"INSERT INTO person (id, firstname, lastname, birthdate) VALUES (?, ?, ?, ?)");
+			PreparedStatement history = connection.prepareStatement("INSERT INTO measurement_history (id, "
+					+ "person_id, measure_name, measure_value, time, measure_value_type, numeric_value, time_millis) "
+					+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+			PreparedStatement measurement = connection.prepareStatement("INSERT INTO measurement (id, person_id, "
+					+ "measure_name, measure_value, time, measure_value_type, numeric_value, time_millis) "
+					+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+			PreparedStatement goal = connection.prepareStatement("INSERT INTO goal (id, person_id, title, "
+					+ "init_value, final_value, deadline, time, achieved) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+			PreparedStatement rollup = MeasurementRollups.prepareSeries(connection);
+
+			try {
+				for (int m = 0; m < MEASURES.length; m++) {
+					measure.setInt(1, m + 1);
+					measure.setString(2, MEASURES[m]);
+					measure.addBatch();
+				}
+				measure.executeBatch();
+				rows += MEASURES.length;
+
+				int historyId = 0;
+				int pending = 0;
+				double[] values = new double[days];
+				for (int p = 1; p <= people; p++) {
+					person.setInt(1, p);
+					person.setString(2, FIRST_NAMES[random.nextInt(FIRST_NAMES.length)]);
+					person.setString(3, LAST_NAMES[random.nextInt(LAST_NAMES.length)]);
+					person.setString(4, String.format("%02d-%02d-%04d", 1 + random.nextInt(28),
+							1 + random.nextInt(12), 1940 + random.nextInt(60)));
+					person.executeUpdate();
+
+					// The history of each measure (in the order of the index on person, measure and time) and
+					// its rollups, computed here rather than from the history afterwards
+					double[] first = new double[MEASURES.length];
+					double[] last = new double[MEASURES.length];
+					for (int m = 0; m < MEASURES.length; m++) {
+						double value = MIN[m] + random.nextDouble() * (MAX[m] - MIN[m]);
+						first[m] = value;
+						for (int d = 0; d < days; d++) {
+							value = Math.max(MIN[m], Math.min(MAX[m], value + (random.nextDouble() * 2 - 1) * STEP[m]));
+							values[d] = round(value, DECIMALS[m]);
+							bind(history, ++historyId, p, m, values[d], times[d], millis[d]);
+							history.addBatch();
+
+							if (++pending == BATCH_SIZE) {
+								history.executeBatch();
+								rollup.executeBatch();
+								pending = 0;
+							}
+						}
+						rows += MeasurementRollups.addSeries(rollup, p, MEASURES[m], millis, values, days,
+								historyId - days + 1);
+						last[m] = value;
+					}
+
+					// The health profile (the last entries) and the goals
+					for (int m = 0; m < MEASURES.length; m++) {
+						bind(measurement, (p - 1) * MEASURES.length + m + 1, p, m, last[m], lastDay, lastTime);
+						measurement.addBatch();
+					}
+					addGoal(goal, (p - 1) * 2 + 1, p, 0, first[0], first[0] - 5, firstDay, deadline, "NO");
+					addGoal(goal, (p - 1) * 2 + 2, p, 2, 0, 10000, firstDay, deadline,
+							random.nextBoolean() ? "YES" : "NO");
+					rows += 1 + MEASURES.length + 2 + (long) MEASURES.length * days;
+
+					if (p % 1000 == 0) {
+						measurement.executeBatch();
+						goal.executeBatch();
+					}
+				}
+				history.executeBatch();
+				rollup.executeBatch();
+				measurement.executeBatch();
+				goal.executeBatch();
+			} finally {
+				measure.close();
+				person.close();
+				history.close();
+				measurement.close();
+				goal.close();
+				rollup.close();
+			}
+		} catch (SQLException e) {
+			throw new PersistenceException("Cannot generate the data", e);
+		}
+
+		LOG.info("generator.completed", "people", people, "rows", rows, "ms", System.currentTimeMillis() - start);
+		return rows;
+	}
+
+
+	/********************************************************************************
+	 * HELPER METHODS USEFUL FOR THE COMPUTATION OF OTHER METHODS IN THIS CLASS		*
+	 ********************************************************************************/
+
+	/**
+	 * A method that returns the time of the entries of a day.
+	 * @param days: the number of days
+	 * @param d: the day (0 is the first one)
+	 * @return time: the time in milliseconds since the epoch
+	 */
+	private static long getTime(int days, int d) {
+		return LAST_DAY - (long) (days - 1 - d) * DAY;
+	}
+
+	/**
+	 * A method that binds the parameters of a row of "measurement" or "measurement_history".
+	 */
+	private static void bind(PreparedStatement st, int id, int personId, int m, double value, String time,
+			long timeMillis) throws SQLException {
+		double rounded = round(value, DECIMALS[m]);
+
+		st.setInt(1, id);
+		st.setInt(2, personId);
+		st.setString(3, MEASURES[m]);
+		st.setString(4, (DECIMALS[m] == 0) ? Long.toString((long) rounded) : Double.toString(rounded));
+		st.setString(5, time);
+		st.setString(6, TYPES[m]);
+		st.setDouble(7, rounded);
+		st.setLong(8, timeMillis);
+	}
+
+	/**
+	 * A method that adds a goal of a person to the batch.
+	 */
+	private static void addGoal(PreparedStatement st, int id, int personId, int m, double initValue,
+			double finalValue, String time, String deadline, String achieved) throws SQLException {
+		st.setInt(1, id);
+		st.setInt(2, personId);
+		st.setString(3, MEASURES[m]);
+		st.setString(4, String.valueOf(round(initValue, DECIMALS[m])));
+		st.setString(5, String.valueOf(round(finalValue, DECIMALS[m])));
+		st.setString(6, deadline);
+		st.setString(7, time);
+		st.setString(8, achieved);
+		st.addBatch();
+	}
+
+	/**
+	 * A method that rounds a value to the given number of decimals.
+	 */
+	private static double round(double value, int decimals) {
+		double scale = Math.pow(10, decimals);
+		return Math.round(value * scale) / scale;
+	}
+}
@@ -0,0 +1,271 @@
+package introsde.health.soap.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+
+import introsde.health.soap.util.AsyncLogger;
+import introsde.health.soap.util.Config;
+import introsde.health.soap.util.Values;
+
+/**
+ * The online migration of the data stored by the previous versions of the service. It runs in a
+ * background thread, in small transactions (db.migration.chunk-size rows each), so the service keeps
+ * serving requests meanwhile. Its steps are marked with PRAGMA user_version, so that each of them
+ * runs only once:
+ * <ol>
+ * <li>the typed columns (numeric_value, time_millis) of the rows of "measurement" and
+ * "measurement_history" written before they existed are filled parsing their string columns;
+ * the rows not migrated yet are simply left out of the queries on the typed columns. Values and
+ * times that cannot be parsed are left NULL, as the setters of the entities store them (so those
+ * rows stay out of the queries on the typed columns, whether they were migrated or written later);</li>
+ * <li>the daily and weekly rollups of the history are computed, one person per transaction;
+ * they are used by the queries only after this step has completed.</li>
+ * </ol>
+ *
+ * @author alan
+ */
+
+public final class DataMigration implements Runnable {
+	private static final AsyncLogger LOG = AsyncLogger.getLogger(DataMigration.class);
+	public static final int TYPED_VALUES_VERSION = 1;
+	public static final int ROLLUPS_VERSION = 2;
+	public static final int SCHEMA_VERSION = ROLLUPS_VERSION;		// the version of the last step
+
+	private static final String[] TABLES = {"measurement", "measurement_history"};
+
+	// The indexes on the string time column, replaced by the ones on time_millis
+	private static final String[] OBSOLETE_INDEXES = {
+		"idx_measurement_history_person_measure_time", "idx_measurement_history_person_measure_id"
+	};
+
+	private final int chunkSize;
+
+	/**
+	 * The constructor of the class.
+	 * @param chunkSize: the number of rows migrated in each transaction
+	 */
+	public DataMigration(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * A method that starts the migration in a background thread, unless the database is already migrated.
+	 * @return started: true if the migration was started
+	 */
+	public static boolean startIfNeeded() {
+		int version = EHealthDao.instance.runInTransaction(new UnitOfWork<Integer>() {
+			@Override
+			public Integer execute(EntityManager em) {
+				return getSchemaVersion(em);
+			}
+		});
+
+		if (version >= SCHEMA_VERSION) {
+			return false;
+		}
+
+		Thread thread = new Thread(new DataMigration(Config.getInt("db.migration.chunk-size", 1000)),
+				"data-migration");
+		thread.setDaemon(true);
+		thread.start();
+
+		return true;
+	}
+
+	/**
+	 * A method that returns the version of the data, i.e. the last migration step completed.
+	 * @param em: the entity manager
+	 * @return version: the value of PRAGMA user_version
+	 */
+	public static int getSchemaVersion(EntityManager em) {
+		return ((Number) em.createNativeQuery("PRAGMA user_version").getSingleResult()).intValue();
+	}
+
+	/**
+	 * A method that runs the steps of the migration not completed yet.
+	 */
+	@Override
+	public void run() {
+		try {
+			int version = EHealthDao.instance.runInTransaction(new UnitOfWork<Integer>() {
+				@Override
+				public Integer execute(EntityManager em) {
+					return getSchemaVersion(em);
+				}
+			});
+
+			if (version < TYPED_VALUES_VERSION) {
+				migrateTypedValues();
+			}
+			if (version < ROLLUPS_VERSION) {
+				backfillRollups();
+			}
+			MeasurementRollups.setReady(true);
+		} catch (PersistenceException e) {
+			LOG.error("migration.interrupted", "restart", "next startup", e);
+		}
+	}
+
+	/**
+	 * A method that fills the typed columns of all the tables, one chunk (transaction) at a time.
+	 */
+	private void migrateTypedValues() {
+		long start = System.currentTimeMillis();
+		long migrated = 0;
+
+		for (final String table : TABLES) {
+			long lastId = Long.MIN_VALUE;
+
+			while (true) {
+				final long after = lastId;
+				long[] chunk = EHealthDao.instance.runInTransaction(new UnitOfWork<long[]>() {
+					@Override
+					public long[] execute(EntityManager em) {
+						return migrateChunk(em.unwrap(Connection.class), table, after);
+					}
+				});
+
+				if (chunk[0] == 0) {		// no more rows to migrate in this table
+					break;
+				}
+				migrated += chunk[0];
+				lastId = chunk[1];
+			}
+		}
+
+		EHealthDao.instance.runInTransaction(new UnitOfWork<Void>() {
+			@Override
+			public Void execute(EntityManager em) {
+				for (String index : OBSOLETE_INDEXES) {
+					em.createNativeQuery("DROP INDEX IF EXISTS " + index).executeUpdate();
+				}
+				setSchemaVersion(em, TYPED_VALUES_VERSION);
+				return null;
+			}
+		});
+
+		LOG.info("migration.typed-values.completed", "rows", migrated, "ms", System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * A method that computes the rollups of the history, one person (transaction) at a time.
+	 */
+	private void backfillRollups() {
+		long start = System.currentTimeMillis();
+
+		@SuppressWarnings("unchecked")
+		List<Number> people = EHealthDao.instance.runInTransaction(new UnitOfWork<List<Number>>() {
+			@Override
+			public List<Number> execute(EntityManager em) {
+				return em.createNativeQuery("SELECT DISTINCT person_id FROM measurement_history "
+						+ "WHERE person_id IS NOT NULL ORDER BY person_id").getResultList();
+			}
+		});
+
+		for (final Number personId : people) {
+			EHealthDao.instance.runInTransaction(new UnitOfWork<Void>() {
+				@Override
+				public Void execute(EntityManager em) {
+					MeasurementRollups.rebuild(em, personId.intValue());
+					return null;
+				}
+			});
+		}
+
+		EHealthDao.instance.runInTransaction(new UnitOfWork<Void>() {
+			@Override
+			public Void execute(EntityManager em) {
+				setSchemaVersion(em, ROLLUPS_VERSION);
+				return null;
+			}
+		});
+
+		LOG.info("migration.rollups.completed", "people", people.size(), "ms", System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * A method that marks a step of the migration as completed (or, with SCHEMA_VERSION, all of them,
+	 * e.g. after the database is reset with data that needs no migration).
+	 * @param em: the entity manager (with an active transaction)
+	 * @param version: the version of the step
+	 */
+	static void setSchemaVersion(EntityManager em, int version) {
+		em.createNativeQuery("PRAGMA user_version = " + version).executeUpdate();
+	}
+
+	/**
+	 * A method that migrates the next chunk of rows of a table.
+	 * @param connection: the JDBC connection of the current transaction
+	 * @param table: the name of the table
+	 * @param lastId: the identifier of the last row of the previous chunk
+	 * @return chunk: the number of rows migrated and the identifier of the last one
+	 */
+	private long[] migrateChunk(Connection connection, String table, long lastId) {
+		try {
+			PreparedStatement select = connection.prepareStatement("SELECT id, measure_value, time FROM " + table
+					+ " WHERE id > ? AND (numeric_value IS NULL OR time_millis IS NULL) ORDER BY id LIMIT ?");
+			PreparedStatement update = connection.prepareStatement("UPDATE " + table
+					+ " SET numeric_value = COALESCE(numeric_value, ?), time_millis = COALESCE(time_millis, ?)"
+					+ " WHERE id = ?");
+			long count = 0;
+
+			try {
+				select.setLong(1, lastId);
+				select.setInt(2, chunkSize);
+				ResultSet rs = select.executeQuery();
+
+				while (rs.next()) {
+					lastId = rs.getLong(1);
+					Double value = Values.parseNumber(rs.getString(2));
+					Long time = Values.parseTime(rs.getString(3));
+
+					if (value != null) {
+						update.setDouble(1, value);
+					} else {
+						update.setNull(1, Types.DOUBLE);
+					}
+					if (time != null) {
+						update.setLong(2, time);
+					} else {
+						update.setNull(2, Types.BIGINT);
+					}
+					update.setLong(3, lastId);
+					update.addBatch();
+					count++;
+				}
+				rs.close();
+
+				if (count > 0) {
+					update.executeBatch();
+				}
+			} finally {
+				closeQuietly(select);
+				closeQuietly(update);
+			}
+
+			return new long[] {count, lastId};
+		} catch (SQLException e) {
+			throw new PersistenceException("Cannot migrate the table " + table, e);
+		}
+	}
+
+	/**
+	 * A method that closes a statement ignoring the errors.
+	 * @param st: the statement to close
+	 */
+	private static void closeQuietly(Statement st) {
+		try {
+			st.close();
+		} catch (SQLException e) {
+			// Nothing to do
+		}
+	}
+}
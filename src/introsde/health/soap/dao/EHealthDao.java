@@ -1,11 +1,33 @@
 package introsde.health.soap.dao;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
 import javax.persistence.Persistence;
 import javax.persistence.Query;
 
+import org.eclipse.persistence.config.PersistenceUnitProperties;
+import org.eclipse.persistence.internal.sessions.AbstractSession;
+import org.eclipse.persistence.internal.weaving.PersistenceWeaved;
+import org.eclipse.persistence.jpa.JpaHelper;
+import org.eclipse.persistence.queries.DatabaseQuery;
+import org.eclipse.persistence.sessions.DatabaseRecord;
+
+import introsde.health.soap.model.HealthProfileCache;
+import introsde.health.soap.model.Person;
+import introsde.health.soap.util.AsyncLogger;
+import introsde.health.soap.util.Config;
+import introsde.health.soap.util.Values;
+
 /**
  * A class (singleton JAVA instance) that will connect our model to the database, specifically used
  * to create an Entity Manager whenever we need to execute an operation in the SQLite database.
@@ -16,15 +38,76 @@ import javax.persistence.Query;
 public enum EHealthDao {
 	instance;
 	
+	private static final int SQLITE_BUSY = 5;		// the result codes of a database locked by another connection
+	private static final int SQLITE_LOCKED = 6;
+	
 	private EntityManagerFactory emf;
 	
+	// The logger (an instance field, since the static fields are not initialized yet in the constructor)
+	private final AsyncLogger log = AsyncLogger.getLogger(EHealthDao.class);
+	
+	// The actions to execute after the commit of the unit of work running in each thread
+	private final ThreadLocal<List<Runnable>> afterCommitActions = new ThreadLocal<List<Runnable>>();
+	
+	// The retries of the transactions that fail because the database is locked by another connection
+	private final int retryMaxAttempts = Math.max(1, Config.getInt("db.retry.max-attempts", 10));
+	private final long retryDeadline = Config.getLong("db.retry.deadline-ms", 10000);
+	private final long retryBaseDelay = Math.max(1, Config.getLong("db.retry.base-delay-ms", 5));
+	private final long retryMaxDelay = Config.getLong("db.retry.max-delay-ms", 250);
+	private final LongAdder retries = new LongAdder();		// the attempts repeated
+	private final LongAdder recovered = new LongAdder();	// the transactions committed after a retry
+	private final LongAdder exhausted = new LongAdder();	// the transactions failed after the last retry
+	
 	private EHealthDao() {
 		if (emf!=null) {	// check if the Entity Manager Factory is null
 			emf.close();
 		}
 		
 		// Configure the Entity Manager Factory from a particular persistence unit
-		emf = Persistence.createEntityManagerFactory("health-internal-service");
+		emf = Persistence.createEntityManagerFactory("health-internal-service", getProperties());
+		if (PerformanceProfile.isEnabled()) {
+			log.info("database.profile", "name", PerformanceProfile.NAME);
+		}
+		
+		// Create the indexes used by the named queries (missing on the tables created before them)
+		// and the rollup table, and make sure that the identifier sequences are ahead of the stored identifiers
+		runInTransaction(new UnitOfWork<Integer>() {
+			@Override
+			public Integer execute(EntityManager em) {
+				IdSequences.synchronize(em);
+				MeasurementRollups.createTable(em);
+				MeasurementRollups.setReady(DataMigration.getSchemaVersion(em) >= DataMigration.ROLLUPS_VERSION);
+				return SchemaIndexes.createIndexes(em);
+			}
+		});
+	}
+	
+	/**
+	 * A method that returns the properties overriding the ones of the persistence unit,
+	 * depending on the database profile selected with db.profile (DB_PROFILE).
+	 * @return properties: the properties of the persistence unit to override
+	 */
+	private static Map<String, Object> getProperties() {
+		Map<String, Object> properties = new HashMap<String, Object>();
+		String url = Config.getString("db.url", null);
+		
+		if (url != null) {		// use a different database file (e.g. for benchmarks)
+			properties.put(PersistenceUnitProperties.JDBC_URL, url);
+		}
+		
+		// Configure the shared cache of the entities (and count its hits and misses)
+		properties.put(PersistenceUnitProperties.SESSION_CUSTOMIZER, EntityCache.class.getName());
+		
+		// Use the lazy loading and the change tracking of the entities if they have been woven at build time
+		if (PersistenceWeaved.class.isAssignableFrom(Person.class)) {
+			properties.put(PersistenceUnitProperties.WEAVING, "static");
+		}
+		
+		if (PerformanceProfile.isEnabled()) {
+			properties.putAll(PerformanceProfile.getProperties());
+		}
+		
+		return properties;
 	}
 
 	public EntityManager createEntityManager() {
@@ -32,7 +115,7 @@ public enum EHealthDao {
 			// Return the Entity Manager that will provide the ops from/to the DB
 			return emf.createEntityManager();
 		} catch (Exception e) {
-			e.printStackTrace();
+			log.error("createEntityManager.failed", e);
 		}
 		return null;
 	}
@@ -48,27 +131,247 @@ public enum EHealthDao {
 	public EntityManagerFactory getEntityManagerFactory() {
 		return emf;
 	}
+
+	/**
+	 * A method that executes a unit of work with a single Entity Manager and a single transaction:
+	 * the transaction is committed if the unit of work completes, otherwise it is rolled back.
+	 * In both cases the Entity Manager is closed. The actions registered by the unit of work with
+	 * afterCommit are executed only if the transaction is committed.
+	 * If the transaction fails because the database is locked by another connection (SQLITE_BUSY),
+	 * the unit of work is executed again in a new transaction, after a random delay growing
+	 * exponentially at each attempt (up to db.retry.max-attempts attempts within db.retry.deadline-ms),
+	 * so the unit of work must not have effects outside of its transaction other than afterCommit.
+	 * A unit of work started by another one is not retried: the outer one is retried as a whole.
+	 * @param work: the unit of work to execute
+	 * @return result: the result of the unit of work
+	 */
+	public <T> T runInTransaction(UnitOfWork<T> work) {
+		long deadline = System.currentTimeMillis() + retryDeadline;
+		int maxAttempts = (afterCommitActions.get() == null) ? retryMaxAttempts : 1;
+		
+		for (int attempt = 1; ; attempt++) {
+			try {
+				T result = runOnce(work);
+				if (attempt > 1) {
+					recovered.increment();
+				}
+				return result;
+			} catch (RuntimeException e) {
+				if (!isBusy(e)) {
+					throw e;
+				}
+				
+				// Full jitter: a random delay up to the exponential backoff, so that the writers spread out
+				long backoff = Math.min(retryMaxDelay, retryBaseDelay << Math.min(attempt - 1, 20));
+				long delay = ThreadLocalRandom.current().nextLong(backoff + 1);
+				if (attempt >= maxAttempts || System.currentTimeMillis() + delay > deadline) {
+					exhausted.increment();
+					log.warn("transaction.busy", "attempts", attempt, "error", e.getMessage());
+					throw e;
+				}
+				
+				retries.increment();
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * A method that returns the number of transactions executed again because the database was locked.
+	 * @return retries: the number of attempts repeated
+	 */
+	public long getRetries() {
+		return retries.sum();
+	}
+	
+	/**
+	 * A method that returns the number of transactions committed after one or more retries.
+	 * @return recovered: the number of transactions
+	 */
+	public long getRecovered() {
+		return recovered.sum();
+	}
+	
+	/**
+	 * A method that returns the number of transactions that failed because the database was still
+	 * locked after the last retry.
+	 * @return exhausted: the number of transactions
+	 */
+	public long getExhausted() {
+		return exhausted.sum();
+	}
+	
+	/**
+	 * An helper method of runInTransaction that executes a single attempt of a unit of work.
+	 * @param work: the unit of work to execute
+	 * @return result: the result of the unit of work
+	 */
+	private <T> T runOnce(UnitOfWork<T> work) {
+		EntityManager em = createEntityManager();
+		EntityTransaction tx = em.getTransaction();
+		List<Runnable> outerActions = afterCommitActions.get();
+		List<Runnable> actions = new ArrayList<Runnable>();
+
+		try {
+			afterCommitActions.set(actions);
+			tx.begin();
+			T result = work.execute(em);
+			tx.commit();
+			afterCommitActions.set(outerActions);
+			
+			for (Runnable action : actions) {
+				action.run();
+			}
+
+			return result;
+		} finally {
+			afterCommitActions.set(outerActions);
+			try {
+				if (tx.isActive()) {	// the unit of work (or the commit) failed
+					tx.rollback();
+				}
+			} catch (RuntimeException e) {		// do not hide the failure of the unit of work
+				log.warn("transaction.rollback_failed", "error", e.getMessage());
+			} finally {
+				closeConnections(em);
+			}
+		}
+	}
+	
+	/**
+	 * A method that tells if an exception is caused by a database locked by another connection.
+	 * @param e: the exception
+	 * @return busy: true if the transaction can be executed again
+	 */
+	static boolean isBusy(Throwable e) {
+		for (int depth = 0; e != null && depth < 10; depth++, e = e.getCause()) {
+			if (e instanceof SQLException) {
+				int code = ((SQLException) e).getErrorCode();
+				if (code == SQLITE_BUSY || code == SQLITE_LOCKED) {
+					return true;
+				}
+			}
+			
+			String message = e.getMessage();
+			if (message != null && (message.contains("SQLITE_BUSY") || message.contains("database is locked")
+					|| message.contains("SQLITE_LOCKED"))) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * A method that registers an action to execute after the commit of the unit of work running
+	 * in the current thread (e.g. to update an in-memory copy of the data written by it).
+	 * @param action: the action to execute
+	 * @return registered: true if the action is registered, false if no unit of work is running
+	 */
+	public boolean afterCommit(Runnable action) {
+		List<Runnable> actions = afterCommitActions.get();
+		
+		if (actions == null) {
+			return false;
+		}
+		actions.add(action);
+		return true;
+	}
+	
+	/**
+	 * A method that prepares (i.e. translates to SQL) all the named queries of the persistence unit,
+	 * that EclipseLink would otherwise prepare at their first execution. The queries that can only
+	 * be prepared with their arguments (e.g. the ones with a list parameter) are skipped.
+	 * @return prepared: the number of queries prepared
+	 */
+	public int prepareNamedQueries() {
+		AbstractSession session = (AbstractSession) JpaHelper.getServerSession(emf);
+		int prepared = 0;
+		
+		for (DatabaseQuery query : session.getAllQueries()) {
+			try {
+				query.checkPrepare(session, new DatabaseRecord());
+				prepared++;
+			} catch (RuntimeException e) {
+				log.debug("prepareNamedQueries.skipped", "query", query.getName(), "error", e.getMessage());
+			}
+		}
+		
+		return prepared;
+	}
 	
 	/**
 	 * An accessory function that resets the database and repopulates it with new data
 	 */
 	public void initializeDB() {
-		EntityManager em = getEntityManagerFactory().createEntityManager();
-		EntityTransaction t = em.getTransaction();
-		
-		t.begin();
-		
-		// Clean the database from previously stored records
-		int resDelPerson = em.createQuery("DELETE FROM Person p").executeUpdate();
-		int resDelMeasure = em.createQuery("DELETE FROM Measure m").executeUpdate();
-		int resDelMeasurement = em.createQuery("DELETE FROM Measurement mm").executeUpdate();
-		int resDelMeasurementHistory = em.createQuery("DELETE FROM MeasurementHistory mh").executeUpdate();
-		int resDelGoal = em.createQuery("DELETE FROM Goal g").executeUpdate();
-		System.out.println("DELETE queries were executed (# records for each table: " 
-				+ resDelPerson + ", " + resDelMeasure + ", " + resDelMeasurement + ", " 
-				+ resDelMeasurementHistory + ", " + resDelGoal + ")");
-		
-		// Store new data
+		initializeDB(null, null, null);
+	}
+	
+	/**
+	 * An accessory function that resets the database and repopulates it with the sample data or,
+	 * if the number of people is given, with the synthetic data of DataGenerator.
+	 * @param people: the number of people to generate (null for the sample data)
+	 * @param days: the number of days of measures of each person (null for none)
+	 * @param seed: the seed of the generated values (null for the default one)
+	 */
+	public void initializeDB(final Integer people, final Integer days, final Long seed) {
+		runInTransaction(new UnitOfWork<Void>() {
+			@Override
+			public Void execute(EntityManager em) {
+				// Clean the database from previously stored records
+				int resDelPerson = em.createQuery("DELETE FROM Person p").executeUpdate();
+				int resDelMeasure = em.createQuery("DELETE FROM Measure m").executeUpdate();
+				int resDelMeasurement = em.createQuery("DELETE FROM Measurement mm").executeUpdate();
+				int resDelMeasurementHistory = em.createQuery("DELETE FROM MeasurementHistory mh").executeUpdate();
+				int resDelGoal = em.createQuery("DELETE FROM Goal g").executeUpdate();
+				log.info("initializeDB.deleted", "people", resDelPerson, "goals", resDelGoal, "rows", 
+						resDelPerson + resDelMeasure + resDelMeasurement + resDelMeasurementHistory + resDelGoal);
+				
+				// Store new data: the sample data, or the generated one if its size is given
+				long inserted;
+				if (people == null) {
+					inserted = insertSampleData(em);
+			
+					// Recompute all the daily/weekly rollups from the new history
+					MeasurementRollups.rebuild(em, null);
+				} else {
+					// The generator writes the rollups together with the history
+					MeasurementRollups.deleteAll(em);
+					inserted = DataGenerator.generate(em.unwrap(Connection.class), people.intValue(),
+							(days != null) ? days.intValue() : 0, (seed != null) ? seed.longValue() : DataGenerator.DEFAULT_SEED);
+				}
+				
+				log.info("initializeDB.inserted", "rows", inserted);
+				
+				// The rows above have explicit identifiers, so move the identifier sequences after them
+				IdSequences.synchronize(em);
+				
+				// The new rows have their typed columns and their rollups: there is nothing to migrate
+				DataMigration.setSchemaVersion(em, DataMigration.SCHEMA_VERSION);
+				return null;
+			}
+		});
+		
+		// The identifiers reserved in memory before the reset may be among the ones just inserted:
+		// discard them, so that the next block is read from the sequences moved forward above
+		JpaHelper.getServerSession(emf).getSequencingControl().resetSequencing();
+		MeasurementRollups.setReady(true);
+		
+		// The bulk deletes and the native inserts bypass the shared cache, so drop all its entries
+		EntityCache.evictAll();
+		HealthProfileCache.clear();
+    }
+	
+	/**
+	 * A function that inserts the sample data (three people with two weeks of measures and their goals).
+	 * @param em: the entity manager
+	 * @return rows: the number of rows inserted
+	 */
+	private long insertSampleData(EntityManager em) {
 		insertPerson(em, 1, "John", "Brown", "10-10-1943");
 		insertPerson(em, 2, "Margaret", "Robinson", "15-09-1982");
 		insertPerson(em, 3, "Jeremy", "Allen", "01-01-1971");
@@ -287,10 +590,12 @@ public enum EHealthDao {
 		insertGoal(em, 7, 1, "lipids", "0", "102", "Wed Feb 01 22:34:24 CET 2017", "Tue Jan 31 22:34:24 CET 2017", "NO");
 		insertGoal(em, 8, 1, "sodium", "0", "2.0", "Wed Feb 01 22:34:24 CET 2017", "Tue Jan 31 22:34:24 CET 2017", "NO");
 		
-		System.out.println("INSERT queries were executed!\n");
-		
-		t.commit();
-    }
+		long rows = 0;
+		for (String entity : new String[] {"Person", "Measure", "Measurement", "MeasurementHistory", "Goal"}) {
+			rows += ((Number) em.createQuery("SELECT COUNT(e) FROM " + entity + " e").getSingleResult()).longValue();
+		}
+		return rows;
+	}
 	
 	/**
 	 * A function that allows to insert data into the database (table: Person).
@@ -335,14 +640,16 @@ public enum EHealthDao {
 	 * @param measureValueType: the measure's value type
 	 */
 	public void insertMeasurement(EntityManager em, int id, int personId, String measureName, String measureValue, String time, String measureValueType) {
-		Query query = em.createNativeQuery("INSERT INTO Measurement (id, person_id, measure_name, measure_value, time, measure_value_type) " +
-				"VALUES (?, ?, ?, ?, ?, ?)");
+		Query query = em.createNativeQuery("INSERT INTO Measurement (id, person_id, measure_name, measure_value, time, measure_value_type, " +
+				"numeric_value, time_millis) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
 		query.setParameter(1, id);
 		query.setParameter(2, personId);
 		query.setParameter(3, measureName);
 		query.setParameter(4, measureValue);
 		query.setParameter(5, time);
 		query.setParameter(6, measureValueType);
+		query.setParameter(7, Values.parseNumber(measureValue));
+		query.setParameter(8, Values.parseTime(time));
 		query.executeUpdate();
 	}
 	
@@ -357,14 +664,16 @@ public enum EHealthDao {
 	 * @param measureValueType: the measure's value type
 	 */
 	public void insertMeasurementHistory(EntityManager em, int id, int personId, String measureName, String measureValue, String time, String measureValueType) {
-		Query query = em.createNativeQuery("INSERT INTO Measurement_History (id, person_id, measure_name, measure_value, time, measure_value_type) " +
-				"VALUES (?, ?, ?, ?, ?, ?)");
+		Query query = em.createNativeQuery("INSERT INTO Measurement_History (id, person_id, measure_name, measure_value, time, measure_value_type, " +
+				"numeric_value, time_millis) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
 		query.setParameter(1, id);
 		query.setParameter(2, personId);
 		query.setParameter(3, measureName);
 		query.setParameter(4, measureValue);
 		query.setParameter(5, time);
 		query.setParameter(6, measureValueType);
+		query.setParameter(7, Values.parseNumber(measureValue));
+		query.setParameter(8, Values.parseTime(time));
 		query.executeUpdate();
 	}
 	
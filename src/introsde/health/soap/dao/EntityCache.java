@@ -0,0 +1,302 @@
+package introsde.health.soap.dao;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.persistence.config.CacheIsolationType;
+import org.eclipse.persistence.config.SessionCustomizer;
+import org.eclipse.persistence.descriptors.ClassDescriptor;
+import org.eclipse.persistence.descriptors.invalidation.TimeToLiveCacheInvalidationPolicy;
+import org.eclipse.persistence.internal.identitymaps.CacheIdentityMap;
+import org.eclipse.persistence.internal.sessions.AbstractSession;
+import org.eclipse.persistence.jpa.JpaHelper;
+import org.eclipse.persistence.queries.DatabaseQuery;
+import org.eclipse.persistence.queries.QueryResultsCachePolicy;
+import org.eclipse.persistence.queries.ReadQuery;
+import org.eclipse.persistence.sessions.Record;
+import org.eclipse.persistence.sessions.Session;
+import org.eclipse.persistence.sessions.SessionEvent;
+import org.eclipse.persistence.sessions.SessionEventAdapter;
+import org.eclipse.persistence.sessions.SessionProfiler;
+import org.eclipse.persistence.sessions.SessionProfilerAdapter;
+
+import introsde.health.soap.metrics.RequestMetrics;
+import introsde.health.soap.model.Goal;
+import introsde.health.soap.model.Measure;
+import introsde.health.soap.model.Person;
+import introsde.health.soap.util.Config;
+
+/**
+ * The configuration of the shared (second level) cache of the Person, Measure and Goal entities,
+ * installed as the session customizer of the persistence unit. Each entity is kept in a fixed size
+ * LRU cache (cache.{entity}.max-size, 0 to disable it) whose entries expire after cache.ttl
+ * milliseconds (0 for no expiry); the catalogue of the measures is also kept in the query results
+ * cache. The entries changed by the service are invalidated explicitly (evict and evictAll), and
+ * the hits, misses, evictions (LRU) and invalidations of each entity are counted.
+ * As the profiler of the session, it also measures the database time of the SOAP requests.
+ *
+ * @author alan
+ */
+
+public class EntityCache extends SessionProfilerAdapter implements SessionCustomizer {
+	private static final long TTL = Config.getLong("cache.ttl", 10 * 60 * 1000L);
+
+	private static final Map<Class<?>, Statistics> STATISTICS;
+	static {
+		Map<Class<?>, Statistics> statistics = new LinkedHashMap<Class<?>, Statistics>();
+		statistics.put(Person.class, new Statistics(Config.getInt("cache.person.max-size", 1000)));
+		statistics.put(Measure.class, new Statistics(Config.getInt("cache.measure.max-size", 100)));
+		statistics.put(Goal.class, new Statistics(Config.getInt("cache.goal.max-size", 5000)));
+		STATISTICS = Collections.unmodifiableMap(statistics);
+	}
+
+	/**
+	 * The empty constructor of the class (instantiated by EclipseLink as the session customizer).
+	 */
+	public EntityCache() {
+		// Empty constructor
+	}
+
+	/**
+	 * A method called by EclipseLink before the login, that configures the cache of the entities
+	 * and installs the profiler counting the hits and the misses (and timing the queries).
+	 * @param session: the server session
+	 */
+	@Override
+	public void customize(Session session) {
+		for (Map.Entry<Class<?>, Statistics> entry : STATISTICS.entrySet()) {
+			ClassDescriptor descriptor = session.getDescriptor(entry.getKey());
+			int size = entry.getValue().getMaxSize();
+
+			if (size <= 0) {		// not cached
+				descriptor.setCacheIsolation(CacheIsolationType.ISOLATED);
+				continue;
+			}
+			descriptor.setIdentityMapClass(CountingIdentityMap.class);
+			descriptor.setIdentityMapSize(size);
+			if (TTL > 0) {
+				descriptor.setCacheInvalidationPolicy(new TimeToLiveCacheInvalidationPolicy(TTL));
+			}
+		}
+
+		session.setProfiler(this);
+		session.getEventManager().addListener(new SessionEventAdapter() {
+			@Override
+			public void postLogin(SessionEvent event) {
+				cacheQueryResults(event.getSession(), "Measure.findAll");
+			}
+		});
+	}
+
+	/**
+	 * A method that keeps the results of a named query in the query results cache (the catalogue
+	 * of the measures is read as a whole). The named queries are only defined at the login.
+	 * @param session: the server session
+	 * @param name: the name of the query
+	 */
+	private static void cacheQueryResults(Session session, String name) {
+		DatabaseQuery query = session.getQuery(name);
+
+		if (query instanceof ReadQuery && STATISTICS.get(query.getReferenceClass()).getMaxSize() > 0) {
+			QueryResultsCachePolicy policy = new QueryResultsCachePolicy(1);
+			if (TTL > 0) {
+				policy.setCacheInvalidationPolicy(new TimeToLiveCacheInvalidationPolicy(TTL));
+			}
+			((ReadQuery) query).setQueryResultsCachePolicy(policy);
+		}
+	}
+
+	/**
+	 * A method called by EclipseLink to execute a query, that adds its execution time to the
+	 * database time of the current request (see RequestMetrics).
+	 * @param query: the query
+	 * @param row: the arguments of the query
+	 * @param session: the session executing the query
+	 * @return result: the result of the query
+	 */
+	@Override
+	public Object profileExecutionOfQuery(DatabaseQuery query, Record row, AbstractSession session) {
+		long start = RequestMetrics.databaseStarted();
+
+		try {
+			return super.profileExecutionOfQuery(query, row, session);
+		} finally {
+			RequestMetrics.databaseEnded(start);
+		}
+	}
+
+	/**
+	 * A method called by EclipseLink when a profiled event occurs (here, a lookup in the cache).
+	 * @param operationName: the name of the event
+	 * @param query: the query that caused the event
+	 * @param session: the session
+	 */
+	@Override
+	public void occurred(String operationName, DatabaseQuery query, AbstractSession session) {
+		Statistics statistics = (query != null) ? STATISTICS.get(query.getReferenceClass()) : null;
+
+		if (statistics == null) {
+			return;
+		} else if (SessionProfiler.CacheHits.equals(operationName)) {
+			statistics.hits.incrementAndGet();
+		} else if (SessionProfiler.CacheMisses.equals(operationName)) {
+			statistics.misses.incrementAndGet();
+		}
+	}
+
+
+	/********************************************************************************
+	 * LIST OF ALL THE CACHE OPERATIONS												*
+	 ********************************************************************************/
+
+	/**
+	 * A method that removes an entity from the shared cache (e.g. after it has been changed, or
+	 * after the collections of its relationships have been changed from the other side).
+	 * @param type: the class of the entity
+	 * @param id: the identifier of the entity
+	 */
+	public static void evict(Class<?> type, Object id) {
+		EHealthDao.instance.getEntityManagerFactory().getCache().evict(type, id);
+
+		Statistics statistics = STATISTICS.get(type);
+		if (statistics != null) {
+			statistics.invalidations.incrementAndGet();
+		}
+	}
+
+	/**
+	 * A method that removes all the entities and the query results from the shared cache
+	 * (e.g. after the tables have been changed with bulk queries).
+	 */
+	public static void evictAll() {
+		EHealthDao.instance.getEntityManagerFactory().getCache().evictAll();
+		JpaHelper.getServerSession(EHealthDao.instance.getEntityManagerFactory())
+				.getIdentityMapAccessor().clearQueryCache();
+
+		for (Statistics statistics : STATISTICS.values()) {
+			statistics.invalidations.incrementAndGet();
+		}
+	}
+
+	/**
+	 * A method that returns the counters of the cache of an entity.
+	 * @param type: the class of the entity (Person, Measure or Goal)
+	 * @return statistics: the counters of the cache (null if the entity is not configured here)
+	 */
+	public static Statistics getStatistics(Class<?> type) {
+		return STATISTICS.get(type);
+	}
+
+	/**
+	 * A method that returns the counters of the cache of all the entities configured here.
+	 * @return statistics: the counters of the cache of each entity
+	 */
+	public static Map<Class<?>, Statistics> getStatistics() {
+		return STATISTICS;
+	}
+
+
+	/********************************************************************************
+	 * HELPER CLASSES USEFUL FOR THE COMPUTATION OF OTHER METHODS IN THIS CLASS		*
+	 ********************************************************************************/
+
+	/**
+	 * The counters of the cache of an entity.
+	 */
+	public static final class Statistics {
+		private final int maxSize;
+		private final AtomicLong hits = new AtomicLong();
+		private final AtomicLong misses = new AtomicLong();
+		private final AtomicLong evictions = new AtomicLong();
+		private final AtomicLong invalidations = new AtomicLong();
+
+		private Statistics(int maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		/**
+		 * A method that returns the maximum number of entries of the cache.
+		 * @return maxSize: the maximum number of entries (0 if the entity is not cached)
+		 */
+		public int getMaxSize() {
+			return this.maxSize;
+		}
+
+		/**
+		 * A method that returns the number of lookups served by the cache.
+		 * @return hits: the number of hits
+		 */
+		public long getHits() {
+			return this.hits.get();
+		}
+
+		/**
+		 * A method that returns the number of lookups that read the database
+		 * (including the ones of expired entries).
+		 * @return misses: the number of misses
+		 */
+		public long getMisses() {
+			return this.misses.get();
+		}
+
+		/**
+		 * A method that returns the number of entries removed because the cache was full.
+		 * @return evictions: the number of evictions
+		 */
+		public long getEvictions() {
+			return this.evictions.get();
+		}
+
+		/**
+		 * A method that returns the number of explicit invalidations (evict and evictAll).
+		 * @return invalidations: the number of invalidations
+		 */
+		public long getInvalidations() {
+			return this.invalidations.get();
+		}
+
+		@Override
+		public String toString() {
+			return "hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions()
+					+ ", invalidations=" + getInvalidations();
+		}
+	}
+
+	/**
+	 * The fixed size LRU identity map of EclipseLink, that also counts the evictions.
+	 */
+	public static class CountingIdentityMap extends CacheIdentityMap {
+		private static final long serialVersionUID = 1L;
+
+		private final Statistics statistics;
+
+		/**
+		 * The constructor of the class (instantiated by EclipseLink for each cached entity).
+		 * @param size: the maximum number of entries
+		 * @param descriptor: the descriptor of the entity
+		 * @param session: the session
+		 * @param isolated: true if the cache is isolated
+		 */
+		public CountingIdentityMap(int size, ClassDescriptor descriptor, AbstractSession session, boolean isolated) {
+			super(size, descriptor, session, isolated);
+			this.statistics = (descriptor != null) ? STATISTICS.get(descriptor.getJavaClass()) : null;
+		}
+
+		/**
+		 * A method that removes the least recently used entries while the cache is over its size.
+		 */
+		@Override
+		protected void ensureFixedSize() {
+			synchronized (this.first) {
+				while (getMaxSize() > 0 && getSize() > getMaxSize()) {
+					remove(this.last.getPrevious());
+					if (this.statistics != null) {
+						this.statistics.evictions.incrementAndGet();
+					}
+				}
+			}
+		}
+	}
+}
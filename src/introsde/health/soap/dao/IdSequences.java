@@ -0,0 +1,61 @@
+package introsde.health.soap.dao;
+
+import java.lang.reflect.Field;
+
+import javax.persistence.Column;
+import javax.persistence.EntityManager;
+import javax.persistence.Table;
+import javax.persistence.TableGenerator;
+import javax.persistence.metamodel.EntityType;
+
+/**
+ * A class that keeps the sequence tables of the @TableGenerator identifiers in line with the data.
+ * The entities reserve their identifiers in blocks (allocationSize), so a restart may skip some
+ * values but never reuses one; rows inserted with explicit identifiers (e.g. by initializeDB) must
+ * however move the sequences forward, otherwise the next block could overlap them.
+ *
+ * @author alan
+ */
+
+public final class IdSequences {
+
+	/**
+	 * The private constructor of the class (it only has static methods).
+	 */
+	private IdSequences() {
+		// Static helper
+	}
+
+	/**
+	 * A method that moves every sequence forward to the highest identifier stored in its table
+	 * (sequences are never moved backwards, so identifiers already reserved stay unique).
+	 * @param em: the entity manager (with an active transaction)
+	 */
+	public static void synchronize(EntityManager em) {
+		for (EntityType<?> entity : em.getMetamodel().getEntities()) {
+			Class<?> type = entity.getJavaType();
+			Table table = type.getAnnotation(Table.class);
+
+			for (Field field : type.getDeclaredFields()) {
+				TableGenerator generator = field.getAnnotation(TableGenerator.class);
+				Column column = field.getAnnotation(Column.class);
+
+				if (generator == null || table == null) {
+					continue;
+				}
+
+				String idColumn = (column != null && !column.name().isEmpty()) ? column.name() : field.getName();
+
+				// Create the sequence row if EclipseLink did not create it yet
+				em.createNativeQuery("INSERT OR IGNORE INTO " + generator.table() + " (" + generator.pkColumnName()
+						+ ", " + generator.valueColumnName() + ") VALUES (?, 0)")
+						.setParameter(1, generator.pkColumnValue()).executeUpdate();
+
+				em.createNativeQuery("UPDATE " + generator.table() + " SET " + generator.valueColumnName()
+						+ " = MAX(" + generator.valueColumnName() + ", (SELECT IFNULL(MAX(" + idColumn + "), 0) FROM "
+						+ table.name() + ")) WHERE " + generator.pkColumnName() + " = ?")
+						.setParameter(1, generator.pkColumnValue()).executeUpdate();
+			}
+		}
+	}
+}
@@ -0,0 +1,438 @@
+package introsde.health.soap.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import introsde.health.soap.model.MeasurementAggregate;
+import introsde.health.soap.model.MeasurementAggregate.Bucket;
+import introsde.health.soap.model.MeasurementHistory;
+
+/**
+ * A class that maintains the "measurement_rollup" table, i.e. the count, sum, min, max and last value
+ * of the numeric entries of the history per person, measure and daily/weekly bucket. The rollups are
+ * updated in the same transaction of the entries they summarize: new entries are added incrementally,
+ * while the buckets of an updated entry are recomputed from the history (min and max cannot be
+ * subtracted). The rollups of the entries stored before the table existed are computed by the
+ * background data migration, and they are used for the reads only after it has completed.
+ *
+ * @author alan
+ */
+
+public final class MeasurementRollups {
+	public static final String TABLE = "measurement_rollup";
+
+	// The buckets that are rolled up (the hourly ones are always computed from the history)
+	private static final Bucket[] BUCKETS = {Bucket.DAY, Bucket.WEEK};
+
+	private static volatile boolean ready = false;		// true when all the history is rolled up
+
+	/**
+	 * The private constructor of the class (it only has static methods).
+	 */
+	private MeasurementRollups() {
+		// Static helper
+	}
+
+	/**
+	 * A method that creates the rollup table, if it does not exist.
+	 * @param em: the entity manager (with an active transaction)
+	 */
+	public static void createTable(EntityManager em) {
+		em.createNativeQuery("CREATE TABLE IF NOT EXISTS " + TABLE + " (person_id INTEGER NOT NULL, "
+				+ "measure_name VARCHAR(255) NOT NULL, bucket VARCHAR(8) NOT NULL, bucket_start INTEGER NOT NULL, "
+				+ "cnt INTEGER NOT NULL, sum_value REAL NOT NULL, min_value REAL, max_value REAL, "
+				+ "first_time INTEGER, last_value REAL, last_time INTEGER, last_id INTEGER, "
+				+ "PRIMARY KEY (person_id, measure_name, bucket, bucket_start))").executeUpdate();
+	}
+
+	/**
+	 * A method that tells if the rollups can be used to answer the queries.
+	 * @return ready: true if all the history is rolled up
+	 */
+	public static boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * A method that sets if the rollups can be used to answer the queries.
+	 * @param isReady: true if all the history is rolled up
+	 */
+	static void setReady(boolean isReady) {
+		ready = isReady;
+	}
+
+	/**
+	 * A method that tells if a bucket is rolled up.
+	 * @param bucket: the bucket
+	 * @return rolledUp: true if the bucket is rolled up
+	 */
+	public static boolean isRolledUp(Bucket bucket) {
+		return bucket == Bucket.DAY || bucket == Bucket.WEEK;
+	}
+
+	/**
+	 * A method that adds new entries of the history to the rollups. The entries are first combined
+	 * in memory, so that each bucket is written once (the entries without a numeric value are ignored).
+	 * @param em: the entity manager (with an active transaction)
+	 * @param entries: the new entries (with their identifier already assigned)
+	 */
+	public static void add(EntityManager em, List<MeasurementHistory> entries) {
+		Map<String, Delta> deltas = new LinkedHashMap<String, Delta>();
+
+		for (MeasurementHistory mh : entries) {
+			if (mh.getNumericValue() == null || mh.getTimeMillis() == null || mh.getPerson() == null) {
+				continue;
+			}
+
+			for (Bucket bucket : BUCKETS) {
+				long start = startOf(bucket, mh.getTimeMillis());
+				String key = mh.getPerson().getId() + "|" + mh.getMeasureName() + "|" + bucket + "|" + start;
+				Delta delta = deltas.get(key);
+
+				if (delta == null) {
+					delta = new Delta(mh.getPerson().getId(), mh.getMeasureName(), bucket, start);
+					deltas.put(key, delta);
+				}
+				delta.add(mh.getNumericValue(), mh.getTimeMillis(), mh.getId());
+			}
+		}
+
+		for (Delta delta : deltas.values()) {
+			delta.apply(em);
+		}
+	}
+
+	/**
+	 * A method that recomputes from the history the buckets of an entry (e.g. after its value is updated).
+	 * The changes of the entry must be already flushed.
+	 * @param em: the entity manager (with an active transaction)
+	 * @param mh: the entry of the history
+	 */
+	public static void recompute(EntityManager em, MeasurementHistory mh) {
+		if (mh.getTimeMillis() == null || mh.getPerson() == null) {
+			return;
+		}
+
+		for (Bucket bucket : BUCKETS) {
+			recompute(em, bucket, mh.getPerson().getId(), mh.getMeasureName(), startOf(bucket, mh.getTimeMillis()));
+		}
+	}
+
+	/**
+	 * A method that recomputes from the history all the rollups of a person (or of everyone).
+	 * @param em: the entity manager (with an active transaction)
+	 * @param personId: the identifier of the person (null for everyone)
+	 */
+	public static void rebuild(EntityManager em, Integer personId) {
+		for (Bucket bucket : BUCKETS) {
+			recompute(em, bucket, personId, null, null);
+		}
+	}
+
+	/**
+	 * A method that removes all the rollups (e.g. before a bulk load of the history).
+	 * @param em: the entity manager (with an active transaction)
+	 */
+	public static void deleteAll(EntityManager em) {
+		em.createNativeQuery("DELETE FROM " + TABLE).executeUpdate();
+	}
+
+	/**
+	 * A method that prepares the statement used by addSeries.
+	 * @param connection: the JDBC connection of the current transaction
+	 * @return statement: the insert of a rollup row
+	 */
+	public static PreparedStatement prepareSeries(Connection connection) throws SQLException {
+		return connection.prepareStatement("INSERT INTO " + TABLE + " (person_id, measure_name, bucket, "
+				+ "bucket_start, cnt, sum_value, min_value, max_value, first_time, last_value, last_time, last_id) "
+				+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+	}
+
+	/**
+	 * A method that adds to a JDBC batch the rollups of a series of new entries of a measure of a person,
+	 * sorted by time and with consecutive identifiers (e.g. a bulk load of the history), so that they
+	 * do not have to be recomputed from the history. The series must not share buckets with other entries.
+	 * @param st: the statement returned by prepareSeries
+	 * @param personId: the identifier of the person
+	 * @param mName: the measure
+	 * @param times: the times of the entries in milliseconds since the epoch
+	 * @param values: the numeric values of the entries
+	 * @param count: the number of entries
+	 * @param firstId: the identifier of the first entry
+	 * @return rows: the number of rollup rows added to the batch
+	 */
+	public static int addSeries(PreparedStatement st, int personId, String mName, long[] times, double[] values,
+			int count, int firstId) throws SQLException {
+		int rows = 0;
+
+		for (Bucket bucket : BUCKETS) {
+			Delta delta = null;
+			for (int i = 0; i < count; i++) {
+				long start = startOf(bucket, times[i]);
+
+				if (delta == null || delta.start != start) {
+					if (delta != null) {
+						delta.bind(st);
+						rows++;
+					}
+					delta = new Delta(personId, mName, bucket, start);
+				}
+				delta.add(values[i], times[i], firstId + i);
+			}
+
+			if (delta != null) {
+				delta.bind(st);
+				rows++;
+			}
+		}
+
+		return rows;
+	}
+
+	/**
+	 * A method that removes all the rollups of a person.
+	 * @param em: the entity manager (with an active transaction)
+	 * @param personId: the identifier of the person
+	 */
+	public static void deleteForPerson(EntityManager em, int personId) {
+		em.createNativeQuery("DELETE FROM " + TABLE + " WHERE person_id = ?1").setParameter(1, personId)
+				.executeUpdate();
+	}
+
+	/**
+	 * A method that returns the rolled up buckets of a measure of a person in a time window.
+	 * @param em: the entity manager
+	 * @param personId: the identifier of the person
+	 * @param mName: the measure
+	 * @param bucket: the bucket (DAY or WEEK)
+	 * @param from: the start of the first bucket in milliseconds since the epoch (or null)
+	 * @param to: the end of the last bucket in milliseconds since the epoch (or null)
+	 * @return aggregates: the aggregates of each non-empty bucket, sorted by time
+	 */
+	public static List<MeasurementAggregate> getAggregates(EntityManager em, int personId, String mName,
+			Bucket bucket, Long from, Long to) {
+		@SuppressWarnings("unchecked")
+		List<Object[]> rows = em.createNativeQuery("SELECT bucket_start, cnt, sum_value, min_value, max_value, "
+				+ "first_time, last_value, last_time FROM " + TABLE + " WHERE person_id = ?1 AND measure_name = ?2 "
+				+ "AND bucket = ?3 AND bucket_start >= ?4 AND bucket_start < ?5 AND cnt > 0 ORDER BY bucket_start")
+				.setParameter(1, personId).setParameter(2, mName).setParameter(3, bucket.name())
+				.setParameter(4, (from != null) ? from : Long.MIN_VALUE)
+				.setParameter(5, (to != null) ? to : Long.MAX_VALUE).getResultList();
+
+		List<MeasurementAggregate> aggregates = new ArrayList<MeasurementAggregate>(rows.size());
+		for (Object[] row : rows) {
+			MeasurementAggregate a = new MeasurementAggregate();
+			long count = ((Number) row[1]).longValue();
+
+			a.setStart(((Number) row[0]).longValue());
+			a.setEnd(a.getStart() + bucket.getSize());
+			a.setCount(count);
+			a.setMean(((Number) row[2]).doubleValue() / count);
+			a.setMin(toDouble(row[3]));
+			a.setMax(toDouble(row[4]));
+			a.setFirstTime(toLong(row[5]));
+			a.setLast(toDouble(row[6]));
+			a.setLastTime(toLong(row[7]));
+			aggregates.add(a);
+		}
+
+		return aggregates;
+	}
+
+
+	/********************************************************************************
+	 * HELPER METHODS USEFUL FOR THE COMPUTATION OF OTHER METHODS IN THIS CLASS		*
+	 ********************************************************************************/
+
+	/**
+	 * A method that returns the start of the bucket that contains a time.
+	 * @param bucket: the bucket
+	 * @param time: the time in milliseconds since the epoch
+	 * @return start: the start of the bucket in milliseconds since the epoch
+	 */
+	public static long startOf(Bucket bucket, long time) {
+		return bucket.getOrigin() + Math.floorDiv(time - bucket.getOrigin(), bucket.getSize()) * bucket.getSize();
+	}
+
+	/**
+	 * A method that recomputes from the history the rollups of a bucket type, optionally restricted
+	 * to a person, a measure and a single bucket.
+	 * @param em: the entity manager (with an active transaction)
+	 * @param bucket: the bucket type
+	 * @param personId: the identifier of the person (or null)
+	 * @param mName: the measure (or null)
+	 * @param start: the start of the bucket in milliseconds since the epoch (or null)
+	 */
+	private static void recompute(EntityManager em, Bucket bucket, Integer personId, String mName, Long start) {
+		StringBuilder scope = new StringBuilder();
+		List<Object> params = new ArrayList<Object>();
+
+		if (personId != null) {
+			params.add(personId);
+			scope.append(" AND person_id = ?").append(params.size());
+		}
+		if (mName != null) {
+			params.add(mName);
+			scope.append(" AND measure_name = ?").append(params.size());
+		}
+
+		// The rollup rows to replace and the history rows to summarize (the same person, measure and bucket)
+		String deleteScope = scope.toString();
+		String insertScope = scope.toString();
+		if (start != null) {
+			params.add(start);
+			deleteScope += " AND bucket_start = ?" + params.size();
+			insertScope += " AND time_millis >= ?" + params.size();
+			params.add(start + bucket.getSize());
+			insertScope += " AND time_millis < ?" + params.size();
+		}
+
+		String bucketStart = bucket.getOrigin() + " + ((time_millis - (" + bucket.getOrigin() + ")) / "
+				+ bucket.getSize() + ") * " + bucket.getSize();
+
+		Query delete = em.createNativeQuery("DELETE FROM " + TABLE + " WHERE bucket = '" + bucket.name() + "'"
+				+ deleteScope);
+
+		// The last value of each bucket is the one of the entry with the highest time (and identifier)
+		Query insert = em.createNativeQuery("INSERT INTO " + TABLE + " (person_id, measure_name, bucket, "
+				+ "bucket_start, cnt, sum_value, min_value, max_value, first_time, last_value, last_time, last_id) "
+				+ "SELECT a.person_id, a.measure_name, '" + bucket.name() + "', a.bucket_start, a.cnt, a.sum_value, "
+				+ "a.min_value, a.max_value, a.first_time, h.numeric_value, h.time_millis, h.id "
+				+ "FROM (SELECT person_id, measure_name, " + bucketStart + " AS bucket_start, COUNT(*) AS cnt, "
+				+ "SUM(numeric_value) AS sum_value, MIN(numeric_value) AS min_value, MAX(numeric_value) AS max_value, "
+				+ "MIN(time_millis) AS first_time, MAX(time_millis) AS last_time FROM measurement_history "
+				+ "WHERE numeric_value IS NOT NULL AND time_millis IS NOT NULL" + insertScope
+				+ " GROUP BY person_id, measure_name, bucket_start) a "
+				+ "JOIN measurement_history h ON h.id = (SELECT h2.id FROM measurement_history h2 "
+				+ "WHERE h2.person_id = a.person_id AND h2.measure_name = a.measure_name "
+				+ "AND h2.time_millis = a.last_time AND h2.numeric_value IS NOT NULL ORDER BY h2.id DESC LIMIT 1)");
+
+		// The delete has no end bound, so it takes one parameter less
+		for (int i = 0; i < params.size(); i++) {
+			if (start == null || i < params.size() - 1) {
+				delete.setParameter(i + 1, params.get(i));
+			}
+			insert.setParameter(i + 1, params.get(i));
+		}
+
+		delete.executeUpdate();
+		insert.executeUpdate();
+	}
+
+	/**
+	 * An helper method that converts a numeric column returned by a native query.
+	 * @param value: the value of the column (a Number or null)
+	 * @return number: the value as a Double (or null)
+	 */
+	private static Double toDouble(Object value) {
+		return (value != null) ? ((Number) value).doubleValue() : null;
+	}
+
+	/**
+	 * An helper method that converts an integer column returned by a native query.
+	 * @param value: the value of the column (a Number or null)
+	 * @return number: the value as a Long (or null)
+	 */
+	private static Long toLong(Object value) {
+		return (value != null) ? ((Number) value).longValue() : null;
+	}
+
+	/**
+	 * The changes of a single rollup row, collected in memory before writing them.
+	 */
+	private static final class Delta {
+		private final int personId;
+		private final String measureName;
+		private final Bucket bucket;
+		private final long start;
+
+		private long count;
+		private double sum;
+		private double min = Double.POSITIVE_INFINITY;
+		private double max = Double.NEGATIVE_INFINITY;
+		private long firstTime = Long.MAX_VALUE;
+		private double lastValue;
+		private long lastTime = Long.MIN_VALUE;
+		private int lastId = Integer.MIN_VALUE;
+
+		private Delta(int personId, String measureName, Bucket bucket, long start) {
+			this.personId = personId;
+			this.measureName = measureName;
+			this.bucket = bucket;
+			this.start = start;
+		}
+
+		/**
+		 * A method that adds an entry to the changes.
+		 * @param value: the numeric value of the entry
+		 * @param time: the time of the entry
+		 * @param id: the identifier of the entry
+		 */
+		private void add(double value, long time, int id) {
+			count++;
+			sum += value;
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+			firstTime = Math.min(firstTime, time);
+
+			if (time > lastTime || (time == lastTime && id > lastId)) {
+				lastValue = value;
+				lastTime = time;
+				lastId = id;
+			}
+		}
+
+		/**
+		 * A method that adds the changes, as a new row, to a JDBC batch.
+		 * @param st: the statement returned by prepareSeries
+		 */
+		private void bind(PreparedStatement st) throws SQLException {
+			st.setInt(1, personId);
+			st.setString(2, measureName);
+			st.setString(3, bucket.name());
+			st.setLong(4, start);
+			st.setLong(5, count);
+			st.setDouble(6, sum);
+			st.setDouble(7, min);
+			st.setDouble(8, max);
+			st.setLong(9, firstTime);
+			st.setDouble(10, lastValue);
+			st.setLong(11, lastTime);
+			st.setInt(12, lastId);
+			st.addBatch();
+		}
+
+		/**
+		 * A method that writes the changes: the row is created (empty) if it does not exist, then it is
+		 * updated in place (SQLite evaluates all the SET expressions on the old values of the row).
+		 * @param em: the entity manager (with an active transaction)
+		 */
+		private void apply(EntityManager em) {
+			em.createNativeQuery("INSERT OR IGNORE INTO " + TABLE + " (person_id, measure_name, bucket, "
+					+ "bucket_start, cnt, sum_value) VALUES (?1, ?2, ?3, ?4, 0, 0)")
+					.setParameter(1, personId).setParameter(2, measureName).setParameter(3, bucket.name())
+					.setParameter(4, start).executeUpdate();
+
+			String isLast = "(last_time IS NULL OR ?9 > last_time OR (?9 = last_time AND ?10 > last_id))";
+			em.createNativeQuery("UPDATE " + TABLE + " SET cnt = cnt + ?5, sum_value = sum_value + ?6, "
+					+ "min_value = MIN(IFNULL(min_value, ?7), ?7), max_value = MAX(IFNULL(max_value, ?8), ?8), "
+					+ "first_time = MIN(IFNULL(first_time, ?11), ?11), "
+					+ "last_value = CASE WHEN " + isLast + " THEN ?12 ELSE last_value END, "
+					+ "last_id = CASE WHEN " + isLast + " THEN ?10 ELSE last_id END, "
+					+ "last_time = CASE WHEN " + isLast + " THEN ?9 ELSE last_time END "
+					+ "WHERE person_id = ?1 AND measure_name = ?2 AND bucket = ?3 AND bucket_start = ?4")
+					.setParameter(1, personId).setParameter(2, measureName).setParameter(3, bucket.name())
+					.setParameter(4, start).setParameter(5, count).setParameter(6, sum).setParameter(7, min)
+					.setParameter(8, max).setParameter(9, lastTime).setParameter(10, lastId)
+					.setParameter(11, firstTime).setParameter(12, lastValue).executeUpdate();
+		}
+	}
+}
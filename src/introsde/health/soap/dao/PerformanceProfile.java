@@ -0,0 +1,125 @@
+package introsde.health.soap.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.persistence.config.PersistenceUnitProperties;
+import org.eclipse.persistence.internal.databaseaccess.Accessor;
+import org.eclipse.persistence.sessions.SessionEvent;
+import org.eclipse.persistence.sessions.SessionEventAdapter;
+
+import introsde.health.soap.util.AsyncLogger;
+import introsde.health.soap.util.Config;
+
+/**
+ * The "performance" database profile, enabled with db.profile=performance (DB_PROFILE).
+ * It sizes separate read and write connection pools, turns on the statement cache and applies
+ * the following SQLite pragmas on every new pooled connection:
+ * <ul>
+ * <li>journal_mode=WAL, so that readers do not block the writer (and vice versa);</li>
+ * <li>synchronous=NORMAL, which is safe in WAL mode and avoids an fsync per commit;</li>
+ * <li>busy_timeout, to wait for a lock instead of failing at once with SQLITE_BUSY;</li>
+ * <li>mmap_size and cache_size, to keep the hot pages in memory;</li>
+ * <li>temp_store=MEMORY, to keep the temporary tables and indexes (e.g. of an ORDER BY, GROUP BY or
+ * DISTINCT that cannot use an index) in memory instead of a temporary file. They are not bounded by
+ * cache_size: a sort without an index takes as much memory as the rows it sorts, for each connection
+ * that runs one at the same time.</li>
+ * </ul>
+ *
+ * @author alan
+ */
+
+public class PerformanceProfile extends SessionEventAdapter {
+	private static final AsyncLogger LOG = AsyncLogger.getLogger(PerformanceProfile.class);
+	public static final String NAME = "performance";
+
+	private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The empty constructor of the class (instantiated by EclipseLink as a session event listener).
+	 */
+	public PerformanceProfile() {
+		// Empty constructor
+	}
+
+	/**
+	 * A method that tells if the performance profile is the one selected by the configuration.
+	 * @return enabled: true if the performance profile is enabled
+	 */
+	public static boolean isEnabled() {
+		return NAME.equalsIgnoreCase(Config.getString("db.profile", "default"));
+	}
+
+	/**
+	 * A method that returns the persistence unit properties of the profile.
+	 * @return properties: the properties that override the ones in persistence.xml
+	 */
+	public static Map<String, Object> getProperties() {
+		Map<String, Object> properties = new HashMap<String, Object>();
+
+		// SQLite allows a single writer at a time, so the write pool is small by default
+		String writePoolSize = String.valueOf(Config.getInt("db.write-pool.size", 1));
+		String readPoolSize = String.valueOf(Config.getInt("db.read-pool.size", CORES * 2));
+
+		properties.put(PersistenceUnitProperties.CONNECTION_POOL + "default."
+				+ PersistenceUnitProperties.CONNECTION_POOL_INITIAL, writePoolSize);
+		properties.put(PersistenceUnitProperties.CONNECTION_POOL + "default."
+				+ PersistenceUnitProperties.CONNECTION_POOL_MIN, writePoolSize);
+		properties.put(PersistenceUnitProperties.CONNECTION_POOL + "default."
+				+ PersistenceUnitProperties.CONNECTION_POOL_MAX, writePoolSize);
+		properties.put(PersistenceUnitProperties.CONNECTION_POOL_READ
+				+ PersistenceUnitProperties.CONNECTION_POOL_INITIAL, readPoolSize);
+		properties.put(PersistenceUnitProperties.CONNECTION_POOL_READ
+				+ PersistenceUnitProperties.CONNECTION_POOL_MIN, readPoolSize);
+		properties.put(PersistenceUnitProperties.CONNECTION_POOL_READ
+				+ PersistenceUnitProperties.CONNECTION_POOL_MAX, readPoolSize);
+		properties.put(PersistenceUnitProperties.CONNECTION_POOL_READ
+				+ PersistenceUnitProperties.CONNECTION_POOL_SHARED, "true");
+
+		properties.put(PersistenceUnitProperties.CACHE_STATEMENTS, "true");
+		properties.put(PersistenceUnitProperties.CACHE_STATEMENTS_SIZE,
+				String.valueOf(Config.getInt("db.statement-cache.size", 100)));
+
+		properties.put(PersistenceUnitProperties.SESSION_EVENT_LISTENER_CLASS, PerformanceProfile.class.getName());
+
+		return properties;
+	}
+
+	/**
+	 * A method that applies the SQLite pragmas of the profile to a new connection.
+	 * @param connection: the JDBC connection
+	 * @throws SQLException: if a pragma cannot be applied
+	 */
+	public static void applyPragmas(Connection connection) throws SQLException {
+		Statement st = connection.createStatement();
+
+		try {
+			st.execute("PRAGMA journal_mode=WAL");
+			st.execute("PRAGMA synchronous=NORMAL");
+			st.execute("PRAGMA busy_timeout=" + Config.getInt("db.busy-timeout", 5000));
+			st.execute("PRAGMA mmap_size=" + Config.getLong("db.mmap-size", 256L * 1024 * 1024));
+			st.execute("PRAGMA cache_size=" + Config.getInt("db.cache-size", -16000));	// negative = KiB
+			st.execute("PRAGMA temp_store=MEMORY");
+		} finally {
+			st.close();
+		}
+	}
+
+	/**
+	 * A method called by EclipseLink every time a new connection is opened.
+	 * @param event: the session event (its result is the accessor of the connection)
+	 */
+	@Override
+	public void postConnect(SessionEvent event) {
+		Connection connection = ((Accessor) event.getResult()).getConnection();
+
+		try {
+			applyPragmas(connection);
+		} catch (SQLException e) {
+			LOG.warn("pragmas.failed", "error", e.getMessage());
+		}
+	}
+}
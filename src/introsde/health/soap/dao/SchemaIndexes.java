@@ -0,0 +1,60 @@
+package introsde.health.soap.dao;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.metamodel.EntityType;
+
+/**
+ * A class that creates the secondary indexes declared by the entities with @Table(indexes=...).
+ * EclipseLink only creates them together with new tables, while "create-or-extend-tables" leaves
+ * the existing tables (e.g. the ones in ehealth.sqlite) without them: here they are created
+ * with "CREATE INDEX IF NOT EXISTS", so it is safe to run this at every startup.
+ *
+ * @author alan
+ */
+
+public final class SchemaIndexes {
+
+	/**
+	 * The private constructor of the class (it only has static methods).
+	 */
+	private SchemaIndexes() {
+		// Static helper
+	}
+
+	/**
+	 * A method that creates the missing indexes of all the entities of the persistence unit.
+	 * @param em: the entity manager (with an active transaction)
+	 * @return count: the number of indexes declared by the entities
+	 */
+	public static int createIndexes(EntityManager em) {
+		int count = 0;
+
+		for (EntityType<?> entity : em.getMetamodel().getEntities()) {
+			Table table = entity.getJavaType().getAnnotation(Table.class);
+
+			if (table == null) {	// no table annotation, so no index declarations
+				continue;
+			}
+
+			for (Index index : table.indexes()) {
+				em.createNativeQuery(toSql(table.name(), index)).executeUpdate();
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * A method that returns the DDL statement that creates an index (if it does not exist).
+	 * @param tableName: the name of the table
+	 * @param index: the index declaration
+	 * @return sql: the DDL statement
+	 */
+	static String toSql(String tableName, Index index) {
+		return "CREATE " + (index.unique() ? "UNIQUE " : "") + "INDEX IF NOT EXISTS " + index.name()
+				+ " ON " + tableName + " (" + index.columnList() + ")";
+	}
+}
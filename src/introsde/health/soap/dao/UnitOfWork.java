@@ -0,0 +1,22 @@
+package introsde.health.soap.dao;
+
+import javax.persistence.EntityManager;
+
+/**
+ * A unit of work, i.e. a group of database operations executed with the same Entity Manager
+ * inside a single transaction (see {@link EHealthDao#runInTransaction(UnitOfWork)}). It may be
+ * executed more than once, in a new transaction, if the database is locked by another connection.
+ *
+ * @param <T> the type of the result of the unit of work
+ * @author alan
+ */
+
+public interface UnitOfWork<T> {
+
+	/**
+	 * A method that executes the database operations of the unit of work.
+	 * @param em: the entity manager (its transaction is already active)
+	 * @return result: the result of the unit of work
+	 */
+	T execute(EntityManager em);
+}
@@ -0,0 +1,331 @@
+package introsde.health.soap.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.persistence.EntityManager;
+
+import introsde.health.soap.util.AsyncLogger;
+import introsde.health.soap.util.Config;
+
+/**
+ * The optional asynchronous write path of the measures (write.behind.enabled): the units of work are
+ * queued in a bounded lock-free queue and a single writer thread executes many of them in the same
+ * transaction ("group commit"), so that a burst of writes pays one commit (and one sync of the disk)
+ * per batch instead of one per request. A batch is committed as soon as it has write.behind.max-batch
+ * units of work, or write.behind.max-delay-ms after its first unit was queued.
+ * The future of each unit of work is completed only after the commit of its batch; if a batch fails,
+ * its units are executed again one per transaction, so that a bad request does not fail the others.
+ * When the queue is full (or disabled, or the writer is stopping) the units of work are executed by
+ * the caller, in their own transaction.
+ *
+ * @author alan
+ */
+
+public enum WriteBehindQueue {
+	instance;
+
+	// The logger (an instance field, since the static fields are not initialized yet in the constructor)
+	private final AsyncLogger log = AsyncLogger.getLogger(WriteBehindQueue.class);
+
+	private final int capacity = Config.getInt("write.behind.capacity", 4096);
+	private final int maxBatch = Math.max(1, Config.getInt("write.behind.max-batch", 64));
+	private final long maxDelayNanos = Config.getLong("write.behind.max-delay-ms", 5) * 1000 * 1000;
+
+	private final ConcurrentLinkedQueue<Write<?>> queue = new ConcurrentLinkedQueue<Write<?>>();
+	private final AtomicInteger size = new AtomicInteger();		// the bound of the (unbounded) queue above
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder writes = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final Writer writer;		// null if the queue is disabled
+
+	private WriteBehindQueue() {
+		this.writer = Config.getBoolean("write.behind.enabled", false) ? new Writer() : null;
+	}
+
+	/**
+	 * A method that tells if the measures are written by the queue (write.behind.enabled).
+	 * @return enabled: true if the asynchronous write path is enabled
+	 */
+	public static boolean isEnabled() {
+		return instance.writer != null;
+	}
+
+	/**
+	 * A method that queues a unit of work, to execute in the transaction of the next batch.
+	 * @param work: the unit of work (executed by the writer thread)
+	 * @return future: the result of the unit of work, completed after the commit of its batch
+	 */
+	public <T> Future<T> submit(UnitOfWork<T> work) {
+		Write<T> write = new Write<T>(work);
+		boolean alone = (this.writer == null || this.writer.stopping || Thread.currentThread() == this.writer);
+
+		if (!alone && this.size.incrementAndGet() > this.capacity) {
+			this.size.decrementAndGet();
+			this.rejected.increment();
+			alone = true;
+		}
+
+		if (alone) {		// the caller writes (and waits for) its own transaction
+			write.executeAlone();
+			return write.future;
+		}
+
+		this.queue.offer(write);
+		this.writer.wakeUp();
+		if (this.writer.stopping && !this.writer.isAlive() && this.queue.remove(write)) {	// queued too late
+			write.executeAlone();
+		}
+		return write.future;
+	}
+
+	/**
+	 * A method that queues a unit of work and waits for its commit.
+	 * @param work: the unit of work
+	 * @return result: the result of the unit of work
+	 */
+	public <T> T execute(UnitOfWork<T> work) {
+		return await(submit(work));
+	}
+
+	/**
+	 * A method that returns the number of batches committed.
+	 * @return batches: the number of batches
+	 */
+	public long getBatches() {
+		return this.batches.sum();
+	}
+
+	/**
+	 * A method that returns the number of units of work committed by the batches.
+	 * @return writes: the number of units of work
+	 */
+	public long getWrites() {
+		return this.writes.sum();
+	}
+
+	/**
+	 * A method that returns the number of units of work executed again alone after the failure of their batch.
+	 * @return retries: the number of units of work
+	 */
+	public long getRetries() {
+		return this.retries.sum();
+	}
+
+	/**
+	 * A method that returns the number of units of work executed by the caller because the queue was full.
+	 * @return rejected: the number of units of work
+	 */
+	public long getRejected() {
+		return this.rejected.sum();
+	}
+
+	/**
+	 * A method that returns the number of units of work waiting in the queue.
+	 * @return size: the number of units of work
+	 */
+	public int getSize() {
+		return this.size.get();
+	}
+
+
+	/********************************************************************************
+	 * HELPER METHODS USEFUL FOR THE COMPUTATION OF OTHER METHODS IN THIS CLASS		*
+	 ********************************************************************************/
+
+	/**
+	 * A method that commits a batch of units of work in a single transaction (or one per transaction
+	 * if the batch fails).
+	 * @param batch: the units of work
+	 */
+	private void commit(final List<Write<?>> batch) {
+		try {
+			final List<Object> results = new ArrayList<Object>(batch.size());
+			EHealthDao.instance.runInTransaction(new UnitOfWork<Void>() {
+				@Override
+				public Void execute(EntityManager em) {
+					results.clear();	// the unit of work is executed again if the database is locked
+					for (Write<?> write : batch) {
+						results.add(write.work.execute(em));
+					}
+					return null;
+				}
+			});
+
+			this.batches.increment();
+			this.writes.add(batch.size());
+			for (int i = 0; i < batch.size(); i++) {
+				batch.get(i).complete(results.get(i));
+			}
+		} catch (RuntimeException e) {
+			this.log.warn("batch.failed", "size", batch.size(), "error", e.getMessage());
+			if (batch.size() == 1) {
+				batch.get(0).future.completeExceptionally(e);
+				return;
+			}
+
+			for (Write<?> write : batch) {		// find out which units of work fail
+				this.retries.increment();
+				write.executeAlone();
+			}
+		}
+	}
+
+	/**
+	 * An helper method that waits for a unit of work and returns its result, rethrowing its exception.
+	 * @param future: the result of the unit of work
+	 * @return result: the result of the unit of work
+	 */
+	private static <T> T await(Future<T> future) {
+		boolean interrupted = false;
+
+		try {
+			while (true) {
+				try {
+					return future.get();
+				} catch (InterruptedException e) {		// wait anyway: the write cannot be cancelled
+					interrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+
+	/********************************************************************************
+	 * HELPER CLASSES USEFUL FOR THE COMPUTATION OF OTHER METHODS IN THIS CLASS		*
+	 ********************************************************************************/
+
+	/**
+	 * A queued unit of work, with the future of its result.
+	 */
+	private static final class Write<T> {
+		private final UnitOfWork<T> work;
+		private final CompletableFuture<T> future = new CompletableFuture<T>();
+		private final long queued = System.nanoTime();
+
+		private Write(UnitOfWork<T> work) {
+			this.work = work;
+		}
+
+		@SuppressWarnings("unchecked")
+		private void complete(Object result) {
+			this.future.complete((T) result);
+		}
+
+		/**
+		 * A method that executes the unit of work in its own transaction.
+		 */
+		private void executeAlone() {
+			try {
+				this.future.complete(EHealthDao.instance.runInTransaction(this.work));
+			} catch (RuntimeException | Error e) {
+				this.future.completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * The thread that collects the queued units of work in batches and commits them.
+	 */
+	private final class Writer extends Thread {
+		private volatile boolean sleeping;
+		private volatile boolean stopping;
+
+		private Writer() {
+			super("write-behind");
+			setDaemon(true);
+			start();
+
+			Runtime.getRuntime().addShutdownHook(new Thread("write-behind-flush") {
+				@Override
+				public void run() {		// commit the queued units of work before exiting
+					Writer.this.stopping = true;
+					LockSupport.unpark(Writer.this);
+					try {
+						Writer.this.join(10000);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+
+		/**
+		 * A method called by the producers after queuing a unit of work (it only costs a volatile
+		 * read unless the writer is sleeping).
+		 */
+		private void wakeUp() {
+			if (this.sleeping) {
+				this.sleeping = false;
+				LockSupport.unpark(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			List<Write<?>> batch = new ArrayList<Write<?>>(maxBatch);
+
+			while (true) {
+				Write<?> write = queue.poll();
+
+				if (write == null) {
+					if (this.stopping) {
+						return;
+					}
+					this.sleeping = true;
+					if (queue.isEmpty() && !this.stopping) {
+						LockSupport.park(this);
+					}
+					this.sleeping = false;
+					continue;
+				}
+
+				// Wait for more units of work until the batch is full or the first one has waited enough
+				long deadline = write.queued + maxDelayNanos;
+				batch.add(write);
+				while (batch.size() < maxBatch) {
+					Write<?> next = queue.poll();
+					long remaining = deadline - System.nanoTime();
+
+					if (next != null) {
+						batch.add(next);
+					} else if (remaining > 0 && !this.stopping) {
+						LockSupport.parkNanos(this, Math.min(remaining, 100 * 1000));
+					} else {
+						break;
+					}
+				}
+
+				size.addAndGet(-batch.size());
+				try {
+					commit(batch);
+				} catch (Throwable t) {		// never leave the callers waiting
+					for (Write<?> w : batch) {
+						w.future.completeExceptionally(t);
+					}
+				}
+				batch.clear();
+			}
+		}
+	}
+}
@@ -2,10 +2,21 @@ package introsde.health.soap.endpoint;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URISyntaxException;
 
 import javax.xml.ws.Endpoint;
+import javax.xml.ws.spi.Provider;
 
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpServer;
+
+import introsde.health.soap.dao.DataMigration;
+import introsde.health.soap.endpoint.RequestExecutors.BoundedExecutor;
+import introsde.health.soap.metrics.MetricsFilter;
+import introsde.health.soap.metrics.MetricsInvoker;
+import introsde.health.soap.metrics.PrometheusHandler;
+import introsde.health.soap.util.Config;
 import introsde.health.soap.ws.PeopleImplementation;
 
 
@@ -16,11 +27,16 @@ import introsde.health.soap.ws.PeopleImplementation;
  */
 
 public class PeoplePublisher {
+	private static final int STOP_DELAY = 5;	// the seconds given to the requests in flight when stopping
+	private static final boolean EXIT_AFTER_READY = Config.getBoolean("startup.exit-after-ready", false);
+	
 	public static void main(String[] args) throws IllegalArgumentException, IOException, URISyntaxException {
 		String PROTOCOL = "http://";
 		String HOSTNAME = InetAddress.getLocalHost().getHostAddress();
 		String PORT = "5720";
 		String BASE_URL = "/ws/people";
+		String METRICS_URL = "/metrics";
+		String READY_URL = "/ready";
 		
 		if (HOSTNAME.equals("127.0.0.1")) {
 			HOSTNAME = "localhost";
@@ -33,9 +49,56 @@ public class PeoplePublisher {
 		String endpointUrl = PROTOCOL + HOSTNAME + ":" + PORT + BASE_URL;
 		
 		System.out.println("Starting People Service...");
+		
+		// Migrate the data stored by the previous versions of the service (in background)
+		if (DataMigration.startIfNeeded()) {
+			System.out.println("--> Migrating the stored data in background...");
+		}
+		
+		// Create the executor of the requests before publishing the endpoint: it is the executor of
+		// the HTTP server, so that each request is measured on the thread that executes it. The server
+		// is created unbound: binding the port accepts the connections (and the platform considers the
+		// service started), so the port is only bound after the warm-up
+		BoundedExecutor executor = RequestExecutors.fromConfig();
+		final HttpServer server = HttpServer.create();
+		server.setExecutor(executor);
+		
+		HttpContext context = server.createContext(BASE_URL);
+		context.getFilters().add(new MetricsFilter());
+		PeopleImplementation service = new PeopleImplementation();
+		Endpoint endpoint = Provider.provider().createEndpoint(null, PeopleImplementation.class, 
+				new MetricsInvoker(service));
+		endpoint.publish(context);
+		
+		// Initialize everything before accepting the first request (the port is not bound yet)
+		System.out.println("--> Warming up...");
+		Startup.warmUp(service);
+		
+		server.createContext(METRICS_URL, new PrometheusHandler(executor));
+		server.createContext(READY_URL, new Startup.ReadinessHandler());
+		server.bind(new InetSocketAddress(HOSTNAME, Integer.parseInt(PORT)), 0);
+		server.start();
+		Startup.markReady();
+		
+		// Stop accepting requests when the process is stopped, letting the ones in flight complete
+		Runtime.getRuntime().addShutdownHook(new Thread("people-shutdown") {
+			@Override
+			public void run() {
+				Startup.markNotReady();
+				server.stop(STOP_DELAY);
+			}
+		});
+		
+		System.out.println("--> Requests are executed by a " + executor + " executor");
 		System.out.println("--> Service published. Check out at the following endpoint url:\n" 
 				+ endpointUrl + "?wsdl");
+		System.out.println("--> Metrics (Prometheus) and readiness published at the following urls:\n" 
+				+ PROTOCOL + HOSTNAME + ":" + PORT + METRICS_URL + "\n" + PROTOCOL + HOSTNAME + ":" + PORT + READY_URL);
 		
-		Endpoint.publish(endpointUrl, new PeopleImplementation());
+		// Only measure the startup (or record the classes loaded for the class data sharing archive)
+		if (EXIT_AFTER_READY) {
+			System.out.println("--> Exiting after the startup (startup.exit-after-ready)");
+			System.exit(0);
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,204 @@
+package introsde.health.soap.endpoint;
+
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import introsde.health.soap.util.AsyncLogger;
+import introsde.health.soap.util.Config;
+
+/**
+ * A factory of the executors that run the SOAP requests received by the endpoint.
+ * The mode is chosen with the "executor.mode" setting (EXECUTOR_MODE):
+ * <ul>
+ * <li>fixed: a fixed pool of "executor.threads" threads (default);</li>
+ * <li>work-stealing: a fork/join pool with "executor.threads" as parallelism;</li>
+ * <li>virtual: one virtual thread per request (JDK 21+, otherwise a cached pool is used).</li>
+ * </ul>
+ * Whatever the mode, at most "executor.max-in-flight" requests are executed at the same time:
+ * the HTTP dispatcher waits for a free slot before handing over a new request.
+ *
+ * @author alan
+ */
+
+public final class RequestExecutors {
+	private static final AsyncLogger LOG = AsyncLogger.getLogger(RequestExecutors.class);
+
+	/**
+	 * The supported execution modes.
+	 */
+	public enum Mode {
+		FIXED, WORK_STEALING, VIRTUAL;
+
+		/**
+		 * A method that parses a mode name (e.g. "work-stealing").
+		 * @param name: the name of the mode
+		 * @return mode: the corresponding mode
+		 */
+		public static Mode parse(String name) {
+			return Mode.valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+		}
+	}
+
+	/**
+	 * The private constructor of the class (it only has static methods).
+	 */
+	private RequestExecutors() {
+		// Static factory
+	}
+
+	/**
+	 * A method that creates the request executor described by the configuration.
+	 * @return executor: the bounded request executor
+	 */
+	public static BoundedExecutor fromConfig() {
+		int cores = Runtime.getRuntime().availableProcessors();
+		Mode mode = Mode.parse(Config.getString("executor.mode", "fixed"));
+		int threads = Config.getPositiveInt("executor.threads", cores * 4);
+		int maxInFlight = Config.getPositiveInt("executor.max-in-flight", 256);
+
+		return create(mode, threads, maxInFlight);
+	}
+
+	/**
+	 * A method that creates a request executor.
+	 * @param mode: the execution mode
+	 * @param threads: the number of threads (ignored in virtual mode)
+	 * @param maxInFlight: the maximum number of requests executed at the same time
+	 * @return executor: the bounded request executor
+	 * @throws IllegalArgumentException: if threads or maxInFlight is not positive
+	 */
+	public static BoundedExecutor create(Mode mode, int threads, int maxInFlight) {
+		// No slot (or no thread) would block the HTTP dispatcher forever
+		if (threads <= 0 || maxInFlight <= 0) {
+			throw new IllegalArgumentException("The threads (" + threads + ") and the maximum number of requests "
+					+ "in flight (" + maxInFlight + ") must be positive");
+		}
+		ExecutorService delegate;
+
+		switch (mode) {
+			case WORK_STEALING:
+				delegate = Executors.newWorkStealingPool(threads);
+				break;
+			case VIRTUAL:
+				delegate = newVirtualThreadPerTaskExecutor();
+				break;
+			default:
+				delegate = Executors.newFixedThreadPool(threads, new NamedThreadFactory("people-worker-"));
+				break;
+		}
+
+		return new BoundedExecutor(mode, delegate, maxInFlight);
+	}
+
+	/**
+	 * A method that creates an executor with one virtual thread per task. The factory method is
+	 * looked up at runtime, so that the service still compiles and runs on JDKs without virtual threads.
+	 * @return executor: the virtual thread executor (or a cached thread pool as a fallback)
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			LOG.warn("executor.virtual-threads.unavailable", "java", System.getProperty("java.version"), 
+					"fallback", "cached thread pool");
+			return Executors.newCachedThreadPool(new NamedThreadFactory("people-worker-"));
+		}
+	}
+
+
+	/**
+	 * An executor that limits the number of requests executed at the same time.
+	 */
+	public static final class BoundedExecutor implements Executor {
+		private final Mode mode;
+		private final ExecutorService delegate;
+		private final Semaphore permits;
+		private final int maxInFlight;
+
+		/**
+		 * The constructor of the class.
+		 * @param mode: the execution mode
+		 * @param delegate: the executor that runs the requests
+		 * @param maxInFlight: the maximum number of requests executed at the same time
+		 */
+		BoundedExecutor(Mode mode, ExecutorService delegate, int maxInFlight) {
+			this.mode = mode;
+			this.delegate = delegate;
+			this.maxInFlight = maxInFlight;
+			this.permits = new Semaphore(maxInFlight);
+		}
+
+		/**
+		 * A method that executes a request as soon as there is a free slot.
+		 * @param task: the request to execute
+		 */
+		@Override
+		public void execute(final Runnable task) {
+			permits.acquireUninterruptibly();		// wait for a free slot (back-pressure)
+
+			try {
+				delegate.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							task.run();
+						} finally {
+							permits.release();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				permits.release();
+				throw e;
+			}
+		}
+
+		/**
+		 * A method that returns the number of requests being executed.
+		 * @return inFlight: the number of requests being executed
+		 */
+		public int getInFlight() {
+			return maxInFlight - permits.availablePermits();
+		}
+
+		/**
+		 * A method that stops accepting new requests.
+		 */
+		public void shutdown() {
+			delegate.shutdown();
+		}
+
+		@Override
+		public String toString() {
+			return mode.name().toLowerCase(Locale.ROOT).replace('_', '-') + " (max in-flight: " + maxInFlight + ")";
+		}
+	}
+
+
+	/**
+	 * A thread factory that gives a readable name to the worker threads.
+	 */
+	private static final class NamedThreadFactory implements ThreadFactory {
+		private final String prefix;
+		private final AtomicInteger counter = new AtomicInteger();
+
+		NamedThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
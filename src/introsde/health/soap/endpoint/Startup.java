@@ -0,0 +1,258 @@
+package introsde.health.soap.endpoint;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import introsde.health.soap.dao.EHealthDao;
+import introsde.health.soap.metrics.RequestMetrics;
+import introsde.health.soap.model.Measurement;
+import introsde.health.soap.model.Person;
+import introsde.health.soap.util.AsyncLogger;
+import introsde.health.soap.util.Config;
+import introsde.health.soap.ws.People;
+
+/**
+ * The startup phase of the service, executed before the HTTP server accepts the first request so
+ * that no request pays for the lazy initializations: the Entity Manager Factory is deployed (with
+ * the DDL check of the tables), the named queries are prepared, the read operations are executed
+ * on a sample person ("startup.warmup.rounds" times, to load the classes and fill the caches) and
+ * their results are marshalled with JAXB. The warm-up can be disabled with "startup.warmup".
+ * The readiness of the service is exported on a path of the HTTP server (200 when ready, 503 while
+ * starting or stopping), together with the duration of the startup phases.
+ *
+ * @author alan
+ */
+
+public final class Startup {
+	private static final AsyncLogger LOG = AsyncLogger.getLogger(Startup.class);
+	private static final boolean WARMUP = Config.getBoolean("startup.warmup", true);
+	private static final int ROUNDS = Config.getInt("startup.warmup.rounds", 2);
+
+	private static volatile boolean ready;
+	private static volatile long warmupMillis = -1;		// the duration of the warm-up (-1 if not executed)
+	private static volatile long readyMillis;			// the time when the service became ready
+
+	/**
+	 * The private constructor of the class (it only has static methods).
+	 */
+	private Startup() {
+		// Static helper
+	}
+
+
+	/********************************************************************************
+	 * LIST OF ALL THE STARTUP PHASES												*
+	 ********************************************************************************/
+
+	/**
+	 * A method that initializes the persistence layer and warms up the service.
+	 * Any failure of the warm-up is logged: the service starts anyway (cold).
+	 * @param service: the implementation of the service
+	 */
+	public static void warmUp(People service) {
+		long start = System.currentTimeMillis();
+
+		// Deploy the Entity Manager Factory (tables, indexes and sequences) and prepare the queries
+		int queries = EHealthDao.instance.prepareNamedQueries();
+		LOG.info("startup.database", "ms", System.currentTimeMillis() - start, "queries", queries);
+
+		if (!WARMUP) {
+			return;
+		}
+
+		try {
+			List<Object> samples = new ArrayList<Object>();
+			long reads = System.currentTimeMillis();
+			for (int i = 0; i < ROUNDS; i++) {
+				samples.clear();
+				readSamples(service, samples);
+			}
+			LOG.info("startup.reads", "ms", System.currentTimeMillis() - reads, "rounds", ROUNDS);
+
+			long jaxb = System.currentTimeMillis();
+			marshal(samples);
+			LOG.info("startup.jaxb", "ms", System.currentTimeMillis() - jaxb, "objects", samples.size());
+		} catch (Exception e) {
+			LOG.error("startup.warmup.failed", e);
+		}
+
+		warmupMillis = System.currentTimeMillis() - start;
+	}
+
+	/**
+	 * A method called when the HTTP server accepts the requests.
+	 */
+	public static void markReady() {
+		readyMillis = System.currentTimeMillis();
+		ready = true;
+		LOG.info("startup.ready", "ms_since_jvm_start", readyMillis - getJvmStartMillis(), "warmup_ms", warmupMillis);
+	}
+
+	/**
+	 * A method called when the service is stopping (the load balancer should stop sending requests).
+	 */
+	public static void markNotReady() {
+		ready = false;
+	}
+
+	/**
+	 * A method that returns true if the service is ready to serve the requests.
+	 * @return ready: true if the startup phase is completed and the service is not stopping
+	 */
+	public static boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * A method that returns the time when the JVM started.
+	 * @return time: the time in milliseconds since the epoch
+	 */
+	public static long getJvmStartMillis() {
+		return ManagementFactory.getRuntimeMXBean().getStartTime();
+	}
+
+	/**
+	 * A method that returns the duration of the warm-up.
+	 * @return duration: the duration in milliseconds (-1 if the warm-up was not executed)
+	 */
+	public static long getWarmupMillis() {
+		return warmupMillis;
+	}
+
+	/**
+	 * A method that returns the time from the start of the JVM to the readiness of the service.
+	 * @return duration: the duration in milliseconds (-1 if the service is not ready yet)
+	 */
+	public static long getTimeToReadyMillis() {
+		return (readyMillis > 0) ? readyMillis - getJvmStartMillis() : -1;
+	}
+
+	/**
+	 * A method that returns the time from the start of the JVM to the first successful response.
+	 * @return duration: the duration in milliseconds (-1 if no request has succeeded yet)
+	 */
+	public static long getTimeToFirstResponseMillis() {
+		long first = RequestMetrics.getFirstResponseMillis();
+		return (first > 0) ? first - getJvmStartMillis() : -1;
+	}
+
+
+	/********************************************************************************
+	 * HELPER METHODS USEFUL FOR THE COMPUTATION OF OTHER METHODS IN THIS CLASS		*
+	 ********************************************************************************/
+
+	/**
+	 * A method that executes the read operations on the first person of the database.
+	 * @param service: the implementation of the service
+	 * @param samples: the list where the results are added
+	 */
+	private static void readSamples(People service, List<Object> samples) {
+		samples.addAll(service.readMeasureTypes());
+
+		Integer id = firstPersonId();
+		if (id == null) {		// empty database: nothing else to read
+			return;
+		}
+
+		Long personId = Long.valueOf(id);
+		Person person = service.readPerson(personId, null);
+		samples.add(person);
+		samples.add(service.readPerson(personId, "health_profile,goals"));
+		samples.addAll(service.readPeople(Collections.singletonList(personId), null));
+		samples.addAll(service.readPersonGoalList(personId));
+
+		List<Measurement> profile = (person != null) ? person.getHealthProfile() : null;
+		String measure = (profile != null && !profile.isEmpty()) ? profile.get(0).getMeasureName() : "weight";
+		samples.addAll(service.readPersonHistory(personId, measure));
+		samples.add(service.readPersonHistoryPage(personId, measure, null, null, "desc", 10, null));
+		samples.addAll(service.readPersonHistoryStats(personId, measure, null, null, "day"));
+		samples.addAll(service.readPersonHistories(personId, Collections.singletonList(measure)));
+	}
+
+	/**
+	 * A method that returns the identifier of the first person of the database.
+	 * @return id: the lowest identifier (null if there are no people)
+	 */
+	private static Integer firstPersonId() {
+		EntityManager em = EHealthDao.instance.createEntityManager();
+
+		try {
+			return em.createQuery("SELECT MIN(p.id) FROM Person p", Integer.class).getSingleResult();
+		} finally {
+			EHealthDao.instance.closeConnections(em);
+		}
+	}
+
+	/**
+	 * A method that marshals the results of the reads (discarding the XML), so that the JAXB
+	 * classes and accessors of the entities are loaded.
+	 * @param samples: the objects to marshal
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static void marshal(List<Object> samples) throws Exception {
+		List<Class<?>> types = new ArrayList<Class<?>>();
+		for (Object o : samples) {
+			if (o != null && !types.contains(o.getClass())) {
+				types.add(o.getClass());
+			}
+		}
+
+		Marshaller marshaller = JAXBContext.newInstance(types.toArray(new Class<?>[types.size()])).createMarshaller();
+		OutputStream discard = new OutputStream() {
+			@Override
+			public void write(int b) {
+				// Discard
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				// Discard
+			}
+		};
+		for (Object o : samples) {
+			if (o != null) {
+				marshaller.marshal(new JAXBElement(new QName("sample"), o.getClass(), o), discard);
+			}
+		}
+	}
+
+	/**
+	 * The HTTP handler of the readiness path.
+	 */
+	public static final class ReadinessHandler implements HttpHandler {
+		private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+		/**
+		 * A method that returns 200 if the service is ready, 503 otherwise.
+		 * @param exchange: the HTTP exchange
+		 */
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				byte[] body = (ready ? "ready\n" : "not ready\n").getBytes(UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+				exchange.getResponseHeaders().set("Cache-Control", "no-store");
+				exchange.sendResponseHeaders(ready ? 200 : 503, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package introsde.health.soap.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with fixed power of two buckets (from 4.096 microseconds to about 34 seconds,
+ * plus the overflow bucket). Recording a value only computes the index of its bucket from the
+ * leading zeros of the value and increments two striped counters, so it costs a few nanoseconds
+ * and does not contend between the threads.
+ *
+ * @author alan
+ */
+
+public final class LatencyHistogram {
+	static final int MIN_EXPONENT = 12;		// the upper bound of the first bucket is 2^12 ns
+	static final int BUCKETS = 24;			// the last bound is 2^35 ns (the overflow bucket is extra)
+
+	private final LongAdder[] counts = new LongAdder[BUCKETS + 1];
+	private final LongAdder sum = new LongAdder();
+
+	/**
+	 * The constructor of the class.
+	 */
+	public LatencyHistogram() {
+		for (int i = 0; i < this.counts.length; i++) {
+			this.counts[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * A method that records a duration.
+	 * @param nanos: the duration in nanoseconds (negative durations are recorded as 0)
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		this.counts[index(nanos)].increment();
+		this.sum.add(nanos);
+	}
+
+	/**
+	 * A method that returns the number of durations recorded in a bucket.
+	 * @param bucket: the index of the bucket (BUCKETS for the overflow bucket)
+	 * @return count: the number of durations recorded in the bucket (not cumulative)
+	 */
+	public long getCount(int bucket) {
+		return this.counts[bucket].sum();
+	}
+
+	/**
+	 * A method that returns the number of durations recorded.
+	 * @return count: the number of durations recorded
+	 */
+	public long getCount() {
+		long count = 0;
+		for (LongAdder c : this.counts) {
+			count += c.sum();
+		}
+		return count;
+	}
+
+	/**
+	 * A method that returns the sum of the durations recorded.
+	 * @return sum: the sum of the durations in nanoseconds
+	 */
+	public long getSum() {
+		return this.sum.sum();
+	}
+
+	/**
+	 * A method that returns the upper bound of a bucket.
+	 * @param bucket: the index of the bucket (lower than BUCKETS)
+	 * @return bound: the upper bound (inclusive) of the bucket in nanoseconds
+	 */
+	public static long getUpperBound(int bucket) {
+		return 1L << (MIN_EXPONENT + bucket);
+	}
+
+	/**
+	 * A method that returns the bucket of a duration: the durations in (2^(k-1), 2^k] are counted
+	 * in the bucket k - MIN_EXPONENT.
+	 * @param nanos: the duration in nanoseconds
+	 * @return bucket: the index of the bucket
+	 */
+	static int index(long nanos) {
+		int exponent = 64 - Long.numberOfLeadingZeros(nanos - 1);		// ceil(log2(nanos)) for nanos > 0
+		int bucket = exponent - MIN_EXPONENT;
+
+		if (nanos <= 0 || bucket < 0) {
+			return 0;
+		}
+		return (bucket < BUCKETS) ? bucket : BUCKETS;
+	}
+}
@@ -0,0 +1,41 @@
+package introsde.health.soap.metrics;
+
+import java.io.IOException;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * The HTTP filter of the endpoint that measures the total time of the requests (from the reception
+ * of the request to the end of the response) and records the faults (HTTP status 5xx).
+ * It must run on the thread that executes the request, i.e. the executor of the requests has to be
+ * the one of the HTTP server (and not the one of the endpoint).
+ *
+ * @author alan
+ */
+
+public class MetricsFilter extends Filter {
+
+	/**
+	 * A method that executes a request, measuring it.
+	 * @param exchange: the HTTP exchange
+	 * @param chain: the next filters and the handler of the endpoint
+	 */
+	@Override
+	public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+		RequestMetrics.Request request = RequestMetrics.begin();
+		boolean failed = true;
+
+		try {
+			chain.doFilter(exchange);
+			failed = exchange.getResponseCode() >= 500;
+		} finally {
+			RequestMetrics.end(request, failed);
+		}
+	}
+
+	@Override
+	public String description() {
+		return "Measures the SOAP requests";
+	}
+}
@@ -0,0 +1,73 @@
+package introsde.health.soap.metrics;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import javax.jws.WebService;
+import javax.xml.ws.WebServiceContext;
+import javax.xml.ws.spi.Invoker;
+
+/**
+ * The invoker of the web methods of the endpoint (see Provider.createEndpoint), that measures the
+ * time spent in each web method and records the failures, on top of the request measured by
+ * MetricsFilter. All the web methods are registered when the invoker is created.
+ *
+ * @author alan
+ */
+
+public class MetricsInvoker extends Invoker {
+	private final Object implementor;
+
+	/**
+	 * The constructor of the class.
+	 * @param implementor: the implementation of the service (annotated with WebService)
+	 */
+	public MetricsInvoker(Object implementor) {
+		this.implementor = implementor;
+
+		Class<?> type = implementor.getClass();
+		WebService ws = type.getAnnotation(WebService.class);
+		if (ws != null && !ws.endpointInterface().isEmpty()) {
+			try {
+				type = Class.forName(ws.endpointInterface(), false, type.getClassLoader());
+			} catch (ClassNotFoundException e) {
+				// Register the public methods of the implementation instead
+			}
+		}
+		for (Method m : type.getMethods()) {
+			if (m.getDeclaringClass() != Object.class) {
+				RequestMetrics.register(m.getName());
+			}
+		}
+	}
+
+	/**
+	 * A method that injects the context of the requests (not used by the implementation).
+	 * @param context: the context of the requests
+	 */
+	@Override
+	public void inject(WebServiceContext context) {
+		// The implementation has no injected resources
+	}
+
+	/**
+	 * A method that invokes a web method, measuring its execution.
+	 * @param m: the web method
+	 * @param args: the arguments of the request
+	 * @return result: the result of the web method
+	 */
+	@Override
+	public Object invoke(Method m, Object... args) throws IllegalAccessException, InvocationTargetException {
+		RequestMetrics.Operation operation = RequestMetrics.register(m.getName());
+		long start = RequestMetrics.invocationStarted(operation);
+		boolean failed = true;
+
+		try {
+			Object result = m.invoke(this.implementor, args);
+			failed = false;
+			return result;
+		} finally {
+			RequestMetrics.invocationEnded(operation, start, failed);
+		}
+	}
+}
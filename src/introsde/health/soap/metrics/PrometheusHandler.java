@@ -0,0 +1,215 @@
+package introsde.health.soap.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import introsde.health.soap.dao.EHealthDao;
+import introsde.health.soap.dao.EntityCache;
+import introsde.health.soap.dao.WriteBehindQueue;
+import introsde.health.soap.endpoint.RequestExecutors.BoundedExecutor;
+import introsde.health.soap.endpoint.Startup;
+import introsde.health.soap.util.SingleFlight;
+import introsde.health.soap.ws.PeopleImplementation;
+
+/**
+ * The HTTP handler that exports the metrics of the service in the Prometheus text format:
+ * the requests, the errors and the latency histograms of each operation (RequestMetrics), the
+ * requests in flight, the readiness and the startup times, the counters of the shared entity cache,
+ * of the coalesced reads and of the write-behind queue (if enabled).
+ *
+ * @author alan
+ */
+
+public class PrometheusHandler implements HttpHandler {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	// The upper bounds of the buckets in seconds, as written in the "le" labels
+	private static final String[] BOUNDS = new String[LatencyHistogram.BUCKETS + 1];
+	static {
+		for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+			BOUNDS[i] = BigDecimal.valueOf(LatencyHistogram.getUpperBound(i), 9).stripTrailingZeros().toPlainString();
+		}
+		BOUNDS[LatencyHistogram.BUCKETS] = "+Inf";
+	}
+
+	private final BoundedExecutor executor;
+
+	/**
+	 * The constructor of the class.
+	 * @param executor: the executor of the requests (null if it is not exported)
+	 */
+	public PrometheusHandler(BoundedExecutor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * A method that writes the metrics in response to a GET request.
+	 * @param exchange: the HTTP exchange
+	 */
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				exchange.getResponseHeaders().set("Allow", "GET");
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+
+			byte[] body = scrape().getBytes(UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			exchange.sendResponseHeaders(200, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * A method that returns the current value of all the metrics.
+	 * @return text: the metrics in the Prometheus text format
+	 */
+	public String scrape() {
+		StringBuilder sb = new StringBuilder(16 * 1024);
+		Map<String, RequestMetrics.Operation> operations =
+				new TreeMap<String, RequestMetrics.Operation>(RequestMetrics.getOperations());
+
+		header(sb, "people_requests_total", "counter", "The number of requests completed by each operation.");
+		for (RequestMetrics.Operation o : operations.values()) {
+			sample(sb, "people_requests_total", "operation", o.getName(), o.getRequests());
+		}
+		header(sb, "people_errors_total", "counter", "The number of requests of each operation that returned a fault.");
+		for (RequestMetrics.Operation o : operations.values()) {
+			sample(sb, "people_errors_total", "operation", o.getName(), o.getErrors());
+		}
+
+		header(sb, "people_request_duration_seconds", "histogram",
+				"The total time of the requests, from the reception of the request to the end of the response.");
+		for (RequestMetrics.Operation o : operations.values()) {
+			histogram(sb, "people_request_duration_seconds", o.getName(), o.getTotal());
+		}
+		header(sb, "people_database_duration_seconds", "histogram",
+				"The time spent by the requests executing database queries.");
+		for (RequestMetrics.Operation o : operations.values()) {
+			histogram(sb, "people_database_duration_seconds", o.getName(), o.getDatabase());
+		}
+		header(sb, "people_jaxb_duration_seconds", "histogram",
+				"The time spent by the requests reading and writing the SOAP messages (JAXB).");
+		for (RequestMetrics.Operation o : operations.values()) {
+			histogram(sb, "people_jaxb_duration_seconds", o.getName(), o.getJaxb());
+		}
+
+		if (this.executor != null) {
+			header(sb, "people_requests_in_flight", "gauge", "The number of requests being executed.");
+			sb.append("people_requests_in_flight ").append(this.executor.getInFlight()).append('\n');
+		}
+
+		header(sb, "people_ready", "gauge", "1 if the service is ready to serve the requests, 0 otherwise.");
+		sb.append("people_ready ").append(Startup.isReady() ? 1 : 0).append('\n');
+		header(sb, "people_startup_seconds", "gauge",
+				"The duration of the startup phases (warmup, the time from the start of the JVM to the readiness "
+				+ "and to the first successful response); -1 if the phase is not completed.");
+		startup(sb, "warmup", Startup.getWarmupMillis());
+		startup(sb, "ready", Startup.getTimeToReadyMillis());
+		startup(sb, "first_response", Startup.getTimeToFirstResponseMillis());
+
+		header(sb, "people_coalesced_requests_total", "counter",
+				"The number of requests that shared the read of an identical concurrent request.");
+		coalesced(sb, "people_coalesced_requests_total", "readPerson", PeopleImplementation.getPersonReads());
+		coalesced(sb, "people_coalesced_requests_total", "readPersonHistory", PeopleImplementation.getHistoryReads());
+
+		header(sb, "people_person_lock_waiting", "gauge",
+				"The number of writes waiting for a write of the same person (or of a person sharing its lock).");
+		sb.append("people_person_lock_waiting ").append(PeopleImplementation.getPersonLocks().getQueueLength()).append('\n');
+
+		EHealthDao dao = EHealthDao.instance;
+		header(sb, "people_database_busy_retries_total", "counter",
+				"The number of transactions executed again because the database was locked by another connection.");
+		sb.append("people_database_busy_retries_total ").append(dao.getRetries()).append('\n');
+		header(sb, "people_database_busy_transactions_total", "counter",
+				"The number of transactions that found the database locked: committed after a retry, or failed.");
+		sample(sb, "people_database_busy_transactions_total", "outcome", "recovered", dao.getRecovered());
+		sample(sb, "people_database_busy_transactions_total", "outcome", "failed", dao.getExhausted());
+
+		String[] counters = { "hits", "misses", "evictions", "invalidations" };
+		for (String counter : counters) {
+			header(sb, "people_entity_cache_" + counter + "_total", "counter",
+					"The number of " + counter + " of the shared entity cache.");
+			for (Map.Entry<Class<?>, EntityCache.Statistics> e : EntityCache.getStatistics().entrySet()) {
+				EntityCache.Statistics s = e.getValue();
+				long value = counter.equals("hits") ? s.getHits() : counter.equals("misses") ? s.getMisses()
+						: counter.equals("evictions") ? s.getEvictions() : s.getInvalidations();
+				sample(sb, "people_entity_cache_" + counter + "_total", "entity", e.getKey().getSimpleName(), value);
+			}
+		}
+
+		if (WriteBehindQueue.isEnabled()) {
+			WriteBehindQueue queue = WriteBehindQueue.instance;
+			header(sb, "people_write_behind_batches_total", "counter",
+					"The number of transactions committed by the write-behind queue.");
+			sb.append("people_write_behind_batches_total ").append(queue.getBatches()).append('\n');
+			header(sb, "people_write_behind_writes_total", "counter",
+					"The number of writes committed by the write-behind queue (in its batches, "
+					+ "again alone after the failure of their batch, or by the caller when the queue was full).");
+			sample(sb, "people_write_behind_writes_total", "path", "batch", queue.getWrites());
+			sample(sb, "people_write_behind_writes_total", "path", "retry", queue.getRetries());
+			sample(sb, "people_write_behind_writes_total", "path", "caller", queue.getRejected());
+			header(sb, "people_write_behind_queue_size", "gauge", "The number of writes waiting in the write-behind queue.");
+			sb.append("people_write_behind_queue_size ").append(queue.getSize()).append('\n');
+		}
+
+		return sb.toString();
+	}
+
+
+	/********************************************************************************
+	 * HELPER METHODS USEFUL FOR THE COMPUTATION OF OTHER METHODS IN THIS CLASS		*
+	 ********************************************************************************/
+
+	private static void header(StringBuilder sb, String name, String type, String help) {
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(StringBuilder sb, String name, String label, String value, long sample) {
+		sb.append(name).append('{').append(label).append("=\"").append(value).append("\"} ").append(sample).append('\n');
+	}
+
+	private static void startup(StringBuilder sb, String phase, long millis) {
+		sb.append("people_startup_seconds{phase=\"").append(phase).append("\"} ")
+				.append((millis >= 0) ? BigDecimal.valueOf(millis, 3).toPlainString() : "-1").append('\n');
+	}
+
+	private static void coalesced(StringBuilder sb, String name, String operation, SingleFlight<?, ?> reads) {
+		sample(sb, name, "operation", operation, reads.getCoalesced());
+	}
+
+	/**
+	 * A method that writes a histogram (with cumulative buckets, as required by Prometheus).
+	 * @param sb: the output
+	 * @param name: the name of the metric
+	 * @param operation: the operation
+	 * @param h: the histogram
+	 */
+	private static void histogram(StringBuilder sb, String name, String operation, LatencyHistogram h) {
+		long cumulative = 0;
+
+		for (int i = 0; i <= LatencyHistogram.BUCKETS; i++) {
+			cumulative += h.getCount(i);
+			sb.append(name).append("_bucket{operation=\"").append(operation).append("\",le=\"").append(BOUNDS[i])
+					.append("\"} ").append(cumulative).append('\n');
+		}
+		sb.append(name).append("_sum{operation=\"").append(operation).append("\"} ")
+				.append(BigDecimal.valueOf(h.getSum(), 9).toPlainString()).append('\n');
+		sb.append(name).append("_count{operation=\"").append(operation).append("\"} ").append(cumulative).append('\n');
+	}
+}
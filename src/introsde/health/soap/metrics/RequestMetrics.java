@@ -0,0 +1,269 @@
+package introsde.health.soap.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of the SOAP operations: the number of requests and of errors of each operation, and
+ * the histograms of its total time (from the reception of the request to the end of the response),
+ * of its database time (the time spent executing the queries, measured by the EclipseLink profiler)
+ * and of its JAXB time (the time spent reading the request and writing the response outside the web
+ * method and the database, i.e. the (un)marshalling of the SOAP messages).
+ * The state of the request being executed is kept by a thread local, since a request is executed
+ * by a single worker thread from the HTTP filter (MetricsFilter) to the web method (MetricsInvoker).
+ *
+ * @author alan
+ */
+
+public final class RequestMetrics {
+	public static final long NOT_TIMED = Long.MIN_VALUE;
+	static final String UNKNOWN = "unknown";	// the requests that failed before reaching a web method
+
+	private static final ConcurrentMap<String, Operation> OPERATIONS = new ConcurrentHashMap<String, Operation>();
+	private static final ThreadLocal<Request> CURRENT = new ThreadLocal<Request>();
+	private static final AtomicLong FIRST_RESPONSE = new AtomicLong();		// the time of the first good response
+
+	/**
+	 * The private constructor of the class (it only has static methods).
+	 */
+	private RequestMetrics() {
+		// Static helper
+	}
+
+
+	/********************************************************************************
+	 * LIST OF ALL THE METHODS THAT RECORD THE REQUESTS								*
+	 ********************************************************************************/
+
+	/**
+	 * A method that registers an operation, so that it is exported even before its first request.
+	 * @param name: the name of the operation
+	 * @return operation: the metrics of the operation
+	 */
+	public static Operation register(String name) {
+		Operation operation = OPERATIONS.get(name);
+
+		if (operation == null) {
+			Operation created = new Operation(name);
+			operation = OPERATIONS.putIfAbsent(name, created);
+			if (operation == null) {
+				operation = created;
+			}
+		}
+
+		return operation;
+	}
+
+	/**
+	 * A method called when a request is received by the current thread.
+	 * @return request: the state of the request
+	 */
+	static Request begin() {
+		Request request = new Request(System.nanoTime());
+		CURRENT.set(request);
+		return request;
+	}
+
+	/**
+	 * A method called when the response of a request has been written.
+	 * @param request: the state of the request
+	 * @param failed: true if the request failed (e.g. a SOAP fault was returned)
+	 */
+	static void end(Request request, boolean failed) {
+		long total = System.nanoTime() - request.start;
+		CURRENT.remove();
+
+		if (request.operation == null) {
+			if (!failed) {		// e.g. the WSDL: not an operation
+				return;
+			}
+			request.operation = register(UNKNOWN);
+		}
+
+		Operation operation = request.operation;
+		operation.requests.increment();
+		if (failed || request.failed) {
+			operation.errors.increment();
+		}
+		operation.total.record(total);
+		operation.database.record(request.databaseNanos);
+		operation.jaxb.record(total - request.invocationNanos - (request.databaseNanos - request.invocationDatabaseNanos));
+
+		if (FIRST_RESPONSE.get() == 0 && !failed && !request.failed) {
+			FIRST_RESPONSE.compareAndSet(0, System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * A method called when the web method of the current request is invoked.
+	 * @param operation: the metrics of the operation
+	 * @return start: the start time of the invocation in nanoseconds
+	 */
+	static long invocationStarted(Operation operation) {
+		Request request = CURRENT.get();
+
+		if (request != null) {
+			request.operation = operation;
+			request.invocationDatabaseNanos = request.databaseNanos;
+		}
+
+		return System.nanoTime();
+	}
+
+	/**
+	 * A method called when the web method of the current request returns.
+	 * @param operation: the metrics of the operation
+	 * @param start: the start time of the invocation in nanoseconds
+	 * @param failed: true if the web method threw an exception
+	 */
+	static void invocationEnded(Operation operation, long start, boolean failed) {
+		long elapsed = System.nanoTime() - start;
+		Request request = CURRENT.get();
+
+		if (request != null) {
+			request.invocationNanos += elapsed;
+			request.invocationDatabaseNanos = request.databaseNanos - request.invocationDatabaseNanos;
+			request.failed |= failed;
+		} else {		// invoked without the HTTP filter: only the web method can be measured
+			operation.requests.increment();
+			if (failed) {
+				operation.errors.increment();
+			}
+			operation.total.record(elapsed);
+		}
+	}
+
+	/**
+	 * A method called by the database profiler before the execution of a query.
+	 * @return start: the start time in nanoseconds (NOT_TIMED if the thread is not executing a request,
+	 * or if the query is executed by another query already timed)
+	 */
+	public static long databaseStarted() {
+		Request request = CURRENT.get();
+
+		if (request == null || request.databaseDepth++ > 0) {
+			return NOT_TIMED;
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * A method called by the database profiler after the execution of a query.
+	 * @param start: the value returned by databaseStarted
+	 */
+	public static void databaseEnded(long start) {
+		Request request = CURRENT.get();
+
+		if (request != null) {
+			request.databaseDepth--;
+			if (start != NOT_TIMED) {
+				request.databaseNanos += System.nanoTime() - start;
+			}
+		}
+	}
+
+	/**
+	 * A method that returns the time of the first successful response of an operation.
+	 * @return time: the time in milliseconds since the epoch (0 if no request has succeeded yet)
+	 */
+	public static long getFirstResponseMillis() {
+		return FIRST_RESPONSE.get();
+	}
+
+	/**
+	 * A method that returns the metrics of all the operations.
+	 * @return operations: the metrics of the operations by name
+	 */
+	public static Map<String, Operation> getOperations() {
+		return OPERATIONS;
+	}
+
+
+	/********************************************************************************
+	 * HELPER CLASSES USEFUL FOR THE COMPUTATION OF OTHER METHODS IN THIS CLASS		*
+	 ********************************************************************************/
+
+	/**
+	 * The metrics of an operation.
+	 */
+	public static final class Operation {
+		private final String name;
+		private final LongAdder requests = new LongAdder();
+		private final LongAdder errors = new LongAdder();
+		private final LatencyHistogram total = new LatencyHistogram();
+		private final LatencyHistogram database = new LatencyHistogram();
+		private final LatencyHistogram jaxb = new LatencyHistogram();
+
+		private Operation(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * A method that returns the name of the operation.
+		 * @return name: the name of the web method
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * A method that returns the number of requests of the operation.
+		 * @return requests: the number of requests completed
+		 */
+		public long getRequests() {
+			return this.requests.sum();
+		}
+
+		/**
+		 * A method that returns the number of requests of the operation that failed.
+		 * @return errors: the number of requests that returned a fault
+		 */
+		public long getErrors() {
+			return this.errors.sum();
+		}
+
+		/**
+		 * A method that returns the histogram of the total time of the requests.
+		 * @return histogram: the histogram of the total time
+		 */
+		public LatencyHistogram getTotal() {
+			return this.total;
+		}
+
+		/**
+		 * A method that returns the histogram of the database time of the requests.
+		 * @return histogram: the histogram of the database time
+		 */
+		public LatencyHistogram getDatabase() {
+			return this.database;
+		}
+
+		/**
+		 * A method that returns the histogram of the JAXB time of the requests.
+		 * @return histogram: the histogram of the JAXB time
+		 */
+		public LatencyHistogram getJaxb() {
+			return this.jaxb;
+		}
+	}
+
+	/**
+	 * The state of a request being executed (only used by its worker thread).
+	 */
+	static final class Request {
+		private final long start;
+		private Operation operation;
+		private boolean failed;
+		private int databaseDepth;
+		private long databaseNanos;
+		private long invocationNanos;
+		private long invocationDatabaseNanos;		// the database time of the web method, once it returns
+
+		private Request(long start) {
+			this.start = start;
+		}
+	}
+}
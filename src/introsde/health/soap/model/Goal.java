@@ -10,7 +10,11 @@ import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlTransient;
 import javax.xml.bind.annotation.XmlType;
 
+import org.eclipse.persistence.config.QueryHints;
+
 import introsde.health.soap.dao.EHealthDao;
+import introsde.health.soap.dao.EntityCache;
+import introsde.health.soap.dao.UnitOfWork;
 import introsde.health.soap.model.Person;
 
 
@@ -21,7 +25,8 @@ import introsde.health.soap.model.Person;
  */
 
 @Entity							// this class is an entity to persist in DB
-@Table(name="goal")				// the table used to persist the entity in the DB
+@Table(name="goal",				// the table used to persist the entity in the DB
+	indexes={@Index(name="idx_goal_person_title_achieved", columnList="person_id, title, achieved")})
 @XmlRootElement(name="goal")	// make it the root element
 
 //The content order in the generated schema type
@@ -29,7 +34,10 @@ import introsde.health.soap.model.Person;
 
 //Statically defined queries with predefined unchangeable query strings
 @NamedQueries({
-	@NamedQuery(name="Goal.findAll", query="SELECT g FROM Goal g"),
+	@NamedQuery(name="Goal.findAll", query="SELECT g FROM Goal g",		// the people with one IN query
+		hints={@QueryHint(name=QueryHints.BATCH, value="g.person"),
+			@QueryHint(name=QueryHints.BATCH_TYPE, value="IN"),
+			@QueryHint(name=QueryHints.BATCH_SIZE, value="500")}),
 	@NamedQuery(name="Goal.findAllForPerson", 
 		query="SELECT g FROM Goal g WHERE g.person = :person"),
 	@NamedQuery(name="Goal.findPersonGoalByName",
@@ -51,7 +59,7 @@ public class Goal implements Serializable {
 	
 	@Id													// this attribute identifies the entity
 	@TableGenerator(name="GOAL_ID_GENERATOR", table="GOAL_SEQUENCES", pkColumnName="GOAL_SEQ_NAME",
-    valueColumnName="GOAL_SEQ_NUMBER", pkColumnValue = "GOAL_SEQUENCE", allocationSize=1)
+    valueColumnName="GOAL_SEQ_NUMBER", pkColumnValue = "GOAL_SEQUENCE", allocationSize=50)
 	@GeneratedValue(strategy=GenerationType.TABLE, generator="GOAL_ID_GENERATOR")
 	
 	@Column(name="id")									// map the following attribute to a column
@@ -75,6 +83,10 @@ public class Goal implements Serializable {
 	@Column(name="achieved")
 	private String achieved;
 
+	// The foreign key as a read-only attribute (used by the projected reads, to avoid a join with person)
+	@Column(name="person_id", insertable=false, updatable=false)
+	private Integer personId;
+	
 	@ManyToOne	// Person contains one or more Goal
 	@JoinColumn(name="person_id", referencedColumnName="id")
 	private Person person;
@@ -86,6 +98,27 @@ public class Goal implements Serializable {
 		// Empty constructor
 	}
 	
+	/**
+	 * The constructor of the class used by the projected reads (i.e. an unmanaged copy of the columns
+	 * marshalled in the goals of a person).
+	 * @param id: the goal identifier
+	 * @param title: the title
+	 * @param initValue: the initial value
+	 * @param finalValue: the final value
+	 * @param deadline: the deadline
+	 * @param time: the time of creation
+	 * @param achieved: the status (YES/NO)
+	 */
+	Goal(int id, String title, String initValue, String finalValue, String deadline, String time, String achieved) {
+		this.id = id;
+		this.title = title;
+		this.initValue = initValue;
+		this.finalValue = finalValue;
+		this.deadline = deadline;
+		this.time = time;
+		this.achieved = achieved;
+	}
+	
 	
 	/********************************************************************************
 	 * LIST OF ALL THE GETTERS AND SETTERS OF ALL THE PRIVATE ATTRIBUTES			*
@@ -244,7 +277,18 @@ public class Goal implements Serializable {
 		if (g.time != null) this.setTime(g.getTime());
 		if (g.achieved != null) this.setAchieved(g.getAchieved());
 	}
-	
+
+	/**
+	 * A method that removes the person of a goal from the shared cache, since the list of its goals
+	 * is not updated when a goal is created, updated or deleted on its own.
+	 * @param g: the goal
+	 */
+	private static void evictOwner(Goal g) {
+		if (g.getPerson() != null) {
+			EntityCache.evict(Person.class, g.getPerson().getId());
+		}
+	}
+
 	
 	/********************************************************************************
 	 * LIST OF ALL THE DATABASE OPERATIONS FOR THIS CLASS							*
@@ -280,13 +324,15 @@ public class Goal implements Serializable {
 	 * @param g: a goal to save
 	 * @return g: the saved goal
 	 */
-	public static Goal saveGoal(Goal g) {
-		EntityManager em = EHealthDao.instance.createEntityManager();
-		EntityTransaction tx = em.getTransaction();
-		tx.begin();
-		em.persist(g);
-		tx.commit();
-		EHealthDao.instance.closeConnections(em);
+	public static Goal saveGoal(final Goal g) {
+		EHealthDao.instance.runInTransaction(new UnitOfWork<Void>() {
+			@Override
+			public Void execute(EntityManager em) {
+				em.persist(g);
+				return null;
+			}
+		});
+		evictOwner(g);		// the goals of the cached person are changed
 		
 		return g;
 	}
@@ -299,19 +345,21 @@ public class Goal implements Serializable {
 	public Goal updateGoal(Goal g) {
 		setGoalAttributes(g);
 		
-		EntityManager em = EHealthDao.instance.createEntityManager();
-		EntityTransaction tx = em.getTransaction();
+		g = EHealthDao.instance.runInTransaction(new UnitOfWork<Goal>() {
+			@Override
+			public Goal execute(EntityManager em) {
+				if (em.find(Goal.class, (int)id) != null) {		// if the goal exists, update it
+					return em.merge(Goal.this);
+				}
+				return null;
+			}
+		});
 		
-		if (em.find(Goal.class, (int)id) != null) {		// if the goal exists, update it
-			tx.begin();
-			g=em.merge(this);
-			tx.commit();
-		} else {
-			g = null;
+		if (g != null) {	// invalidate the cached goal and its person
+			EntityCache.evict(Goal.class, g.getId());
+			evictOwner(g);
 		}
 		
-		EHealthDao.instance.closeConnections(em);
-		
 		return g;
 	}
 	
@@ -319,14 +367,16 @@ public class Goal implements Serializable {
 	 * A method that removes a particular goal.
 	 * @param g: a goal to remove
 	 */
-	public static void deleteGoal(Goal g) {
-		EntityManager em = EHealthDao.instance.createEntityManager();
-		EntityTransaction tx = em.getTransaction();
-		tx.begin();
-		g=em.merge(g);
-		em.remove(g);
-		tx.commit();
-		EHealthDao.instance.closeConnections(em);
+	public static void deleteGoal(final Goal g) {
+		EHealthDao.instance.runInTransaction(new UnitOfWork<Void>() {
+			@Override
+			public Void execute(EntityManager em) {
+				em.remove(em.merge(g));
+				return null;
+			}
+		});
+		EntityCache.evict(Goal.class, g.getId());	// invalidate the cached goal and its person
+		evictOwner(g);
 	}
 	
 	/**
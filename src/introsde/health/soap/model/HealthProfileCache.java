@@ -0,0 +1,241 @@
+package introsde.health.soap.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.persistence.EntityManager;
+
+import introsde.health.soap.dao.EHealthDao;
+import introsde.health.soap.util.Config;
+
+/**
+ * An in-memory copy of the current health profile of the people (person -> measure -> latest value).
+ * The profile of a person is loaded from the database the first time it is needed, then it is
+ * updated write-through by Measurement.updateMeasurement when its transaction is committed, so the
+ * reads of the current profile and the existence check of the upserts do not query SQLite.
+ * At most cache.health-profile.max-people profiles are kept (0 disables the cache).
+ *
+ * @author alan
+ */
+
+public final class HealthProfileCache {
+	private static final int MAX_PEOPLE = Config.getInt("cache.health-profile.max-people", 10000);
+
+	private static final ConcurrentMap<Integer, ConcurrentMap<String, Entry>> PROFILES =
+			new ConcurrentHashMap<Integer, ConcurrentMap<String, Entry>>();
+
+	// The number of writes of the people (striped by identifier), used to detect the loads that
+	// may have read the database before a write whose update found no profile to update
+	private static final int STRIPES = 1024;
+	private static final AtomicLongArray WRITES = new AtomicLongArray(STRIPES);
+
+	/**
+	 * The private constructor of the class (it only has static methods).
+	 */
+	private HealthProfileCache() {
+		// Static helper
+	}
+
+	/**
+	 * A method that returns the current health profile of a person.
+	 * @param personId: the identifier of the person (it must exist)
+	 * @param measures: the names of the measures to return (null or empty for all the measures)
+	 * @return profile: unmanaged copies of the current measurements, sorted by identifier
+	 */
+	public static List<Measurement> getProfile(int personId, Collection<String> measures) {
+		List<Entry> entries = new ArrayList<Entry>(getEntries(personId).values());
+		Collections.sort(entries, BY_ID);
+
+		List<Measurement> profile = new ArrayList<Measurement>(entries.size());
+		for (Entry e : entries) {
+			if (measures == null || measures.isEmpty() || measures.contains(e.measureName)) {
+				profile.add(e.toMeasurement());
+			}
+		}
+
+		return profile;
+	}
+
+	/**
+	 * A method that returns the current measurement of a measure for a person.
+	 * @param personId: the identifier of the person (it must exist)
+	 * @param mName: the measure
+	 * @return m: an unmanaged copy of the current measurement (null if the person has no such measure)
+	 */
+	public static Measurement getMeasure(int personId, String mName) {
+		Entry e = getEntries(personId).get(mName);
+
+		return (e != null) ? e.toMeasurement() : null;
+	}
+
+	/**
+	 * A method that updates the copy of a measurement when the unit of work that changed it is
+	 * committed (if no unit of work is running, the profile of the person is reloaded when needed).
+	 * @param m: the measurement created or updated (with its person)
+	 */
+	static void put(Measurement m) {
+		if (m.getPerson() == null) {
+			return;
+		}
+
+		final int personId = m.getPerson().getId();
+		final Entry entry = new Entry(m.getId(), m.getMeasureName(), m.getMeasureValue(),
+				m.getMeasureValueType(), m.getTime(), m.getTimeMillis());
+
+		boolean registered = EHealthDao.instance.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				WRITES.incrementAndGet(stripe(personId));
+				ConcurrentMap<String, Entry> profile = PROFILES.get(personId);
+				if (profile == null) {		// not loaded yet: it will be read from the database
+					return;
+				}
+
+				// Keep the latest value if the commits of concurrent updates are applied out of order
+				Entry current = profile.putIfAbsent(entry.measureName, entry);
+				while (current != null && current.timeMillis <= entry.timeMillis
+						&& !profile.replace(entry.measureName, current, entry)) {
+					current = profile.putIfAbsent(entry.measureName, entry);
+				}
+			}
+		});
+
+		if (!registered) {
+			invalidate(personId);
+		}
+	}
+
+	/**
+	 * A method that removes the profile of a person (e.g. when the person is deleted).
+	 * @param personId: the identifier of the person
+	 */
+	public static void invalidate(int personId) {
+		WRITES.incrementAndGet(stripe(personId));
+		PROFILES.remove(personId);
+	}
+
+	/**
+	 * A method that removes all the profiles (e.g. when the database is reinitialized).
+	 */
+	public static void clear() {
+		for (int i = 0; i < STRIPES; i++) {
+			WRITES.incrementAndGet(i);
+		}
+		PROFILES.clear();
+	}
+
+
+	/********************************************************************************
+	 * HELPER METHODS USEFUL FOR THE COMPUTATION OF OTHER METHODS IN THIS CLASS		*
+	 ********************************************************************************/
+
+	/**
+	 * A method that returns the profile of a person, loading it from the database if it is missing.
+	 * @param personId: the identifier of the person
+	 * @return profile: the current measurements of the person by measure
+	 */
+	private static Map<String, Entry> getEntries(int personId) {
+		ConcurrentMap<String, Entry> profile = PROFILES.get(personId);
+
+		if (profile == null) {
+			long writes = WRITES.get(stripe(personId));
+			profile = load(personId);
+			if (MAX_PEOPLE <= 0) {
+				return profile;
+			}
+
+			if (PROFILES.size() >= MAX_PEOPLE) {	// make room by dropping any other profile
+				Iterator<Integer> it = PROFILES.keySet().iterator();
+				if (it.hasNext()) {
+					it.next();
+					it.remove();
+				}
+			}
+			ConcurrentMap<String, Entry> loaded = PROFILES.putIfAbsent(personId, profile);
+			if (loaded != null) {		// loaded (and maybe updated) by another thread in the meantime
+				profile = loaded;
+			} else if (WRITES.get(stripe(personId)) != writes) {	// maybe stale: load it again next time
+				PROFILES.remove(personId, profile);
+			}
+		}
+
+		return profile;
+	}
+
+	/**
+	 * A method that reads the current health profile of a person (with a separate entity manager,
+	 * so only the committed measurements are read).
+	 * @param personId: the identifier of the person
+	 * @return profile: the current measurements of the person by measure
+	 */
+	private static ConcurrentMap<String, Entry> load(int personId) {
+		EntityManager em = EHealthDao.instance.createEntityManager();
+		ConcurrentMap<String, Entry> profile = new ConcurrentHashMap<String, Entry>();
+
+		try {
+			List<Object[]> rows = em.createQuery("SELECT m.id, m.measureName, m.measureValue, m.measureValueType, "
+					+ "m.time, m.timeMillis FROM Measurement m WHERE m.personId = :id ORDER BY m.id", Object[].class)
+					.setParameter("id", personId).getResultList();
+
+			for (Object[] row : rows) {		// the last one wins if a measure has more rows
+				Entry e = new Entry((Integer) row[0], (String) row[1], (String) row[2], (String) row[3],
+						(String) row[4], (Long) row[5]);
+				profile.put(e.measureName, e);
+			}
+		} finally {
+			EHealthDao.instance.closeConnections(em);
+		}
+
+		return profile;
+	}
+
+	/**
+	 * A method that returns the stripe of the write counters of a person.
+	 * @param personId: the identifier of the person
+	 * @return stripe: the index of the counter
+	 */
+	private static int stripe(int personId) {
+		return personId & (STRIPES - 1);
+	}
+
+	private static final Comparator<Entry> BY_ID = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b) {
+			return (a.id < b.id) ? -1 : ((a.id == b.id) ? 0 : 1);
+		}
+	};
+
+	/**
+	 * The (immutable) copy of a current measurement.
+	 */
+	private static final class Entry {
+		private final int id;
+		private final String measureName;
+		private final String measureValue;
+		private final String measureValueType;
+		private final String time;
+		private final long timeMillis;
+
+		private Entry(int id, String measureName, String measureValue, String measureValueType, String time,
+				Long timeMillis) {
+			this.id = id;
+			this.measureName = measureName;
+			this.measureValue = measureValue;
+			this.measureValueType = measureValueType;
+			this.time = time;
+			this.timeMillis = (timeMillis != null) ? timeMillis : Long.MIN_VALUE;
+		}
+
+		private Measurement toMeasurement() {
+			return new Measurement(this.id, this.measureName, this.measureValue, this.measureValueType, this.time);
+		}
+	}
+}
@@ -8,6 +8,8 @@ import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
 import introsde.health.soap.dao.EHealthDao;
+import introsde.health.soap.dao.UnitOfWork;
+import introsde.health.soap.util.AsyncLogger;
 
 
 /**
@@ -25,6 +27,7 @@ import introsde.health.soap.dao.EHealthDao;
 
 public class Measure implements Serializable {
 	private static final long serialVersionUID = 1L;
+	private static final AsyncLogger LOG = AsyncLogger.getLogger(Measure.class);
 
 	/********************************************************************************
 	 * DEFINITION OF ALL THE PRIVATE ATTRIBUTES OF THE CLASS AND THEIR MAPPING		*
@@ -32,7 +35,7 @@ public class Measure implements Serializable {
 	
 	@Id													// this attribute identifies the entity
 	@TableGenerator(name="MEASURE_ID_GENERATOR", table="MEASURE_SEQUENCES", pkColumnName="MEASURE_SEQ_NAME",
-    valueColumnName="MEASURE_SEQ_NUMBER", pkColumnValue = "MEASURE_SEQUENCE", allocationSize=1)
+    valueColumnName="MEASURE_SEQ_NUMBER", pkColumnValue = "MEASURE_SEQUENCE", allocationSize=50)
 	@GeneratedValue(strategy=GenerationType.TABLE, generator="MEASURE_ID_GENERATOR")
 	@Column(name="id")									// map the following attribute to a column
 	private int id;
@@ -107,17 +110,15 @@ public class Measure implements Serializable {
 	 * @param p: a person to save
 	 * @return p: the saved person
 	 */
-	public static Measure saveMeasure(Measure m) {
-		System.out.println(m.measureName);
-		System.out.println(m.id);
+	public static Measure saveMeasure(final Measure m) {
+		LOG.debug("saveMeasure", "measure", m.measureName);
 		
-		EntityManager em = EHealthDao.instance.createEntityManager();
-		EntityTransaction tx = em.getTransaction();
-		tx.begin();
-		em.persist(m);
-		tx.commit();
-		EHealthDao.instance.closeConnections(em);
-		
-		return m;
+		return EHealthDao.instance.runInTransaction(new UnitOfWork<Measure>() {
+			@Override
+			public Measure execute(EntityManager em) {
+				em.persist(m);
+				return m;
+			}
+		});
 	}
 }
\ No newline at end of file
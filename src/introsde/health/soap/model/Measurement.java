@@ -1,7 +1,11 @@
 package introsde.health.soap.model;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.persistence.*;
 import javax.xml.bind.annotation.XmlElement;
@@ -9,7 +13,10 @@ import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlTransient;
 
 import introsde.health.soap.dao.EHealthDao;
+import introsde.health.soap.dao.MeasurementRollups;
+import introsde.health.soap.dao.UnitOfWork;
 import introsde.health.soap.model.Person;
+import introsde.health.soap.util.Values;
 
 
 /**
@@ -19,12 +26,17 @@ import introsde.health.soap.model.Person;
  */
 
 @Entity							// this class is an entity to persist in DB
-@Table(name="measurement")		// the table used to persist the entity in the DB
+@Table(name="measurement",		// the table used to persist the entity in the DB
+	indexes={@Index(name="idx_measurement_person_measure", columnList="person_id, measure_name")})
 @XmlRootElement(name="measure")	// make it the root element
 
-// A statically defined query with a predefined unchangeable query string
-@NamedQuery(name="Measurement.findMeasure",
-	query="SELECT m FROM Measurement m WHERE m.measureName = :measureName AND m.person = :person")
+// Statically defined queries with predefined unchangeable query strings
+@NamedQueries({
+	@NamedQuery(name="Measurement.findMeasure",
+		query="SELECT m FROM Measurement m WHERE m.measureName = :measureName AND m.person = :person"),
+	@NamedQuery(name="Measurement.findAllForPerson",
+		query="SELECT m FROM Measurement m WHERE m.person = :person")
+})
 
 public class Measurement implements Serializable {
 	private static final long serialVersionUID = 1L;
@@ -35,7 +47,7 @@ public class Measurement implements Serializable {
 	
 	@Id													// this attribute identifies the entity
 	@TableGenerator(name="MEASUREMENT_ID_GENERATOR", table="MEASUREMENT_SEQUENCES", pkColumnName="MEASUREMENT_SEQ_NAME",
-    valueColumnName="MEASUREMENT_SEQ_NUMBER", pkColumnValue = "MEASUREMENT_SEQUENCE", allocationSize=1)
+    valueColumnName="MEASUREMENT_SEQ_NUMBER", pkColumnValue = "MEASUREMENT_SEQUENCE", allocationSize=50)
 	@GeneratedValue(strategy=GenerationType.TABLE, generator="MEASUREMENT_ID_GENERATOR")
 	
 	@Column(name="id")									// map the following attribute to a column
@@ -52,7 +64,17 @@ public class Measurement implements Serializable {
 
 	@Column(name="time")
 	private String time;
+	
+	@Column(name="numeric_value")			// the value as a number (null if it is not numeric)
+	private Double numericValue;
+	
+	@Column(name="time_millis")				// the time in milliseconds since the epoch
+	private Long timeMillis;
 
+	// The foreign key as a read-only attribute (used by the projected reads, to avoid a join with person)
+	@Column(name="person_id", insertable=false, updatable=false)
+	private Integer personId;
+	
 	@ManyToOne	// Person contains one or more Measurement
 	@JoinColumn(name="person_id", referencedColumnName="id")
 	private Person person;
@@ -64,6 +86,23 @@ public class Measurement implements Serializable {
 		// Empty constructor
 	}
 	
+	/**
+	 * The constructor of the class used by the projected reads (i.e. an unmanaged copy of the columns
+	 * marshalled in the health profile).
+	 * @param id: the health profile identifier
+	 * @param measureName: the measure name
+	 * @param measureValue: the measure value
+	 * @param measureValueType: the measure value type
+	 * @param time: the time
+	 */
+	Measurement(int id, String measureName, String measureValue, String measureValueType, String time) {
+		this.id = id;
+		this.measureName = measureName;
+		this.measureValue = measureValue;
+		this.measureValueType = measureValueType;
+		this.time = time;
+	}
+	
 	
 	/********************************************************************************
 	 * LIST OF ALL THE GETTERS AND SETTERS OF ALL THE PRIVATE ATTRIBUTES			*
@@ -119,6 +158,7 @@ public class Measurement implements Serializable {
 	 */
 	public void setMeasureValue(String measureValue) {
 		this.measureValue = measureValue;
+		this.numericValue = Values.parseNumber(measureValue);
 	}
 	
 	/**
@@ -153,6 +193,34 @@ public class Measurement implements Serializable {
 	 */
 	public void setTime(String time) {
 		this.time = time;
+		this.timeMillis = Values.parseTime(time);
+	}
+	
+	/**
+	 * A method that sets the time of creation (both its string and its numeric representation).
+	 * @param date: the time of creation
+	 */
+	public void setCreated(Date date) {
+		this.time = date.toString();
+		this.timeMillis = date.getTime();
+	}
+	
+	/**
+	 * A method that returns the measure value as a number.
+	 * @return numericValue: the measure value (null if it is not numeric)
+	 */
+	@XmlTransient						// only stored in the database (the XML has the value)
+	public Double getNumericValue() {
+		return this.numericValue;
+	}
+	
+	/**
+	 * A method that returns the time in milliseconds since the epoch.
+	 * @return timeMillis: the time in milliseconds since the epoch
+	 */
+	@XmlTransient						// only stored in the database (the XML has the time)
+	public Long getTimeMillis() {
+		return this.timeMillis;
 	}
 	
 	/**
@@ -185,20 +253,27 @@ public class Measurement implements Serializable {
 	 */
 	public static Measurement getMeasure(Person p, String mName) {
 		EntityManager em = EHealthDao.instance.createEntityManager();
-		Measurement m = new Measurement();
-		
-		try {
-			m = em.createNamedQuery("Measurement.findMeasure", Measurement.class)
-					.setParameter("person", p).setParameter("measureName", mName).getSingleResult();
-		} catch (Exception e) {
-			return null;
-		}
-		
+		Measurement m = getMeasure(em, p, mName);
 		EHealthDao.instance.closeConnections(em);
 		
 		return m;
 	}
 	
+	/**
+	 * A method that allows to retrieve a measure given a measure name and a person
+	 * using an existing entity manager (e.g. inside a unit of work). The existence of the measure
+	 * is checked in the in-memory health profile, so the measure is only read by identifier.
+	 * @param em: the entity manager
+	 * @param p: the person
+	 * @param mName: the measure
+	 * @return m: the measure (null if the person has no such measure)
+	 */
+	public static Measurement getMeasure(EntityManager em, Person p, String mName) {
+		Measurement cached = HealthProfileCache.getMeasure(p.getId(), mName);
+		
+		return (cached != null) ? em.find(Measurement.class, cached.getId()) : null;
+	}
+	
 	/**
 	 * A method that updates a particular measurement (health profile with a new one, checking
 	 * if it exists or not in order to update it or simply create a new one.
@@ -206,33 +281,116 @@ public class Measurement implements Serializable {
 	 * @param measure: the new measure
 	 * @return newM: the updated measurement (health profile) with the new measure
 	 */
-	public static Measurement updateMeasurement(Integer mId, Measurement measure) {
-		Date date = new Date();						// get the current time
-		String date_string = date.toString();		// store its string representation
-		Measurement newM = new Measurement();		// the new measurement (health profile)
+	public static Measurement updateMeasurement(final Integer mId, final Measurement measure) {
+		return EHealthDao.instance.runInTransaction(new UnitOfWork<Measurement>() {
+			@Override
+			public Measurement execute(EntityManager em) {
+				Measurement current = (mId != null) ? em.find(Measurement.class, (int)mId) : null;
+				return updateMeasurement(em, current, measure);
+			}
+		});
+	}
+	
+	/**
+	 * A method that updates the current measurement (health profile) of a person with a new
+	 * measure or, if there is no current measurement, creates it (in the given entity manager).
+	 * @param em: the entity manager (with an active transaction)
+	 * @param current: the current measurement (null if it does not exist yet)
+	 * @param measure: the new measure
+	 * @return newM: the updated measurement (health profile) with the new measure
+	 */
+	public static Measurement updateMeasurement(EntityManager em, Measurement current, Measurement measure) {
+		Date date = new Date();		// get the current time
 		
-		EntityManager em = EHealthDao.instance.createEntityManager();
-		EntityTransaction tx = em.getTransaction();
-
-		if (mId != null) {		// if the health profile exists, update it
-			Measurement m = em.find(Measurement.class, (int)mId);
+		Measurement newM;
+		
+		if (current != null) {		// if the health profile exists, update it
+			current.setMeasureValue(measure.getMeasureValue());
+			current.setCreated(date);
+			newM = current;
+		} else {					// otherwise, create a new one
+			measure.setCreated(date);
+			em.persist(measure);
+			newM = measure;
+		}
+		HealthProfileCache.put(newM);	// update the in-memory health profile after the commit
+		
+		return newM;
+	}
+	
+	/**
+	 * A method that saves a new measure for a person: the health profile is updated (or created)
+	 * and the measure is added to the history, all in the unit of work of the given entity manager.
+	 * @param em: the entity manager (with an active transaction)
+	 * @param p: the person (managed by the entity manager)
+	 * @param measure: the new measure
+	 * @return newM: the updated measurement (health profile)
+	 */
+	public static Measurement saveMeasurementWithHistory(EntityManager em, Person p, Measurement measure) {
+		measure.setPerson(p);
+		Measurement current = getMeasure(em, p, measure.getMeasureName());
+		Measurement newM = updateMeasurement(em, current, measure);
+		MeasurementHistory.addMeasurementToHistory(em, newM);
+		
+		return newM;
+	}
+	
+	/**
+	 * A method that saves a batch of new measures for a person: for each measure the health profile
+	 * is updated (or created) and a new entry is added to the history. All the changes are made in
+	 * the unit of work of the given entity manager, so they are written with JDBC batching at commit.
+	 * @param em: the entity manager (with an active transaction)
+	 * @param p: the person (managed by the entity manager)
+	 * @param measures: the new measures
+	 * @param results: the results of the measures, in the same order (updated by this method)
+	 */
+	public static void saveMeasurementsWithHistory(EntityManager em, Person p, List<Measurement> measures,
+			List<MeasurementResult> results) {
+		saveMeasurementsWithHistory(em, p, measures, results, new HashMap<String, Measurement>());
+	}
+	
+	/**
+	 * A method that saves a batch of new measures for a person, as the one above, in a unit of work
+	 * that may save other batches of the same person: the in-memory health profile is only updated
+	 * after the commit, so the current measurements written by the previous batches are given by
+	 * {profile} instead (otherwise a new measure saved twice would be created twice).
+	 * @param em: the entity manager (with an active transaction)
+	 * @param p: the person (managed by the entity manager)
+	 * @param measures: the new measures
+	 * @param results: the results of the measures, in the same order (updated by this method)
+	 * @param profile: the current measurements of the person read or written in the unit of work,
+	 * by measure name (updated by this method)
+	 */
+	public static void saveMeasurementsWithHistory(EntityManager em, Person p, List<Measurement> measures,
+			List<MeasurementResult> results, Map<String, Measurement> profile) {
+		// The current measurements already read or written by the unit of work are in profile (the
+		// others are looked up in the in-memory health profile, without querying and flushing for each measure)
+		List<MeasurementHistory> entries = new ArrayList<MeasurementHistory>(measures.size());
+		for (int i = 0; i < measures.size(); i++) {
+			Measurement measure = measures.get(i);
+			MeasurementResult result = results.get(i);
+			
+			if (measure == null || measure.getMeasureName() == null || measure.getMeasureValue() == null) {
+				result.error("The measure name and value are mandatory");
+				continue;
+			}
 			
-			tx.begin();
-			m.setMeasureValue(measure.getMeasureValue());
-			m.setTime(date_string);
-			tx.commit();
+			Measurement newM = new Measurement();		// copy it, so that the request is not modified
+			newM.setPerson(p);
+			newM.setMeasureName(measure.getMeasureName());
+			newM.setMeasureValue(measure.getMeasureValue());
+			newM.setMeasureValueType(measure.getMeasureValueType());
 			
-			newM = m;
-		} else {				// otherwise, create a new one
-			measure.setTime(date_string);
+			Measurement current = profile.containsKey(newM.getMeasureName()) 
+					? profile.get(newM.getMeasureName()) : getMeasure(em, p, newM.getMeasureName());
+			newM = updateMeasurement(em, current, newM);
+			profile.put(newM.getMeasureName(), newM);
 			
-			tx.begin();
-			newM = em.merge(measure);
-			tx.commit();
+			MeasurementHistory mHistory = MeasurementHistory.persistHistory(em, newM);
+			entries.add(mHistory);
+			result.ok(mHistory);
 		}
 		
-		EHealthDao.instance.closeConnections(em);
-		
-		return newM;
-	}	
-}
\ No newline at end of file
+		MeasurementRollups.add(em, entries);	// update each daily/weekly rollup once for the whole batch
+	}
+}
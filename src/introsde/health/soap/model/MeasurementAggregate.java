@@ -0,0 +1,285 @@
+package introsde.health.soap.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+
+
+/**
+ * The aggregates (count, min, max, mean and last value) of the numeric values of a measure
+ * in a time bucket (not persisted). The buckets are aligned to UTC: hours and days start at
+ * the epoch, weeks start on Monday.
+ *
+ * @author alan
+ */
+
+@XmlRootElement(name="aggregate")	// make it the root element
+
+// The content order in the generated schema type
+@XmlType(propOrder={"start","end","count","min","max","mean","firstTime","last","lastTime"})
+
+public class MeasurementAggregate implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The supported time buckets.
+	 */
+	public enum Bucket {
+		HOUR(3600000L, 0L),
+		DAY(24 * 3600000L, 0L),
+		WEEK(7 * 24 * 3600000L, -3 * 24 * 3600000L);	// the epoch is a Thursday: start from Monday 29/12/1969
+
+		private final long size;
+		private final long origin;
+
+		private Bucket(long size, long origin) {
+			this.size = size;
+			this.origin = origin;
+		}
+
+		/**
+		 * A method that returns the length of the bucket.
+		 * @return size: the length of the bucket in milliseconds
+		 */
+		public long getSize() {
+			return this.size;
+		}
+
+		/**
+		 * A method that returns the start of the first bucket.
+		 * @return origin: the start of the first bucket in milliseconds since the epoch
+		 */
+		public long getOrigin() {
+			return this.origin;
+		}
+
+		/**
+		 * A method that returns the bucket with a given name.
+		 * @param name: the name of the bucket ("hour", "day" or "week"; empty for the whole window)
+		 * @return bucket: the bucket (null for the whole window)
+		 * @throws IllegalArgumentException: if the name is not valid
+		 */
+		public static Bucket fromName(String name) {
+			return (name == null || name.trim().isEmpty()) ? null : valueOf(name.trim().toUpperCase());
+		}
+	}
+
+	private long start;
+	private long end;
+	private long count;
+	private Double min;
+	private Double max;
+	private Double mean;
+	private Long firstTime;
+	private Double last;
+	private Long lastTime;
+
+	/**
+	 * The empty constructor of the class.
+	 */
+	public MeasurementAggregate() {
+		// Empty constructor
+	}
+
+
+	/********************************************************************************
+	 * LIST OF ALL THE GETTERS AND SETTERS OF ALL THE PRIVATE ATTRIBUTES			*
+	 ********************************************************************************/
+
+	/**
+	 * A method that returns the start of the bucket.
+	 * @return start: the start of the bucket in milliseconds since the epoch (inclusive)
+	 */
+	@XmlElement(name="start")
+	public long getStart() {
+		return this.start;
+	}
+
+	/**
+	 * A method that sets the start of the bucket.
+	 * @param start: the start of the bucket in milliseconds since the epoch
+	 */
+	public void setStart(long start) {
+		this.start = start;
+	}
+
+	/**
+	 * A method that returns the end of the bucket.
+	 * @return end: the end of the bucket in milliseconds since the epoch (exclusive)
+	 */
+	@XmlElement(name="end")
+	public long getEnd() {
+		return this.end;
+	}
+
+	/**
+	 * A method that sets the end of the bucket.
+	 * @param end: the end of the bucket in milliseconds since the epoch
+	 */
+	public void setEnd(long end) {
+		this.end = end;
+	}
+
+	/**
+	 * A method that returns the number of values in the bucket.
+	 * @return count: the number of values in the bucket
+	 */
+	@XmlElement(name="count")
+	public long getCount() {
+		return this.count;
+	}
+
+	/**
+	 * A method that sets the number of values in the bucket.
+	 * @param count: the number of values in the bucket
+	 */
+	public void setCount(long count) {
+		this.count = count;
+	}
+
+	/**
+	 * A method that returns the minimum value in the bucket.
+	 * @return min: the minimum value
+	 */
+	@XmlElement(name="min")
+	public Double getMin() {
+		return this.min;
+	}
+
+	/**
+	 * A method that sets the minimum value in the bucket.
+	 * @param min: the minimum value
+	 */
+	public void setMin(Double min) {
+		this.min = min;
+	}
+
+	/**
+	 * A method that returns the maximum value in the bucket.
+	 * @return max: the maximum value
+	 */
+	@XmlElement(name="max")
+	public Double getMax() {
+		return this.max;
+	}
+
+	/**
+	 * A method that sets the maximum value in the bucket.
+	 * @param max: the maximum value
+	 */
+	public void setMax(Double max) {
+		this.max = max;
+	}
+
+	/**
+	 * A method that returns the mean of the values in the bucket.
+	 * @return mean: the mean value
+	 */
+	@XmlElement(name="mean")
+	public Double getMean() {
+		return this.mean;
+	}
+
+	/**
+	 * A method that sets the mean of the values in the bucket.
+	 * @param mean: the mean value
+	 */
+	public void setMean(Double mean) {
+		this.mean = mean;
+	}
+
+	/**
+	 * A method that returns the time of the oldest value in the bucket.
+	 * @return firstTime: the time of the oldest value in milliseconds since the epoch
+	 */
+	@XmlElement(name="first_time")
+	public Long getFirstTime() {
+		return this.firstTime;
+	}
+
+	/**
+	 * A method that sets the time of the oldest value in the bucket.
+	 * @param firstTime: the time of the oldest value in milliseconds since the epoch
+	 */
+	public void setFirstTime(Long firstTime) {
+		this.firstTime = firstTime;
+	}
+
+	/**
+	 * A method that returns the most recent value in the bucket.
+	 * @return last: the most recent value
+	 */
+	@XmlElement(name="last")
+	public Double getLast() {
+		return this.last;
+	}
+
+	/**
+	 * A method that sets the most recent value in the bucket.
+	 * @param last: the most recent value
+	 */
+	public void setLast(Double last) {
+		this.last = last;
+	}
+
+	/**
+	 * A method that returns the time of the most recent value in the bucket.
+	 * @return lastTime: the time of the most recent value in milliseconds since the epoch
+	 */
+	@XmlElement(name="last_time")
+	public Long getLastTime() {
+		return this.lastTime;
+	}
+
+	/**
+	 * A method that sets the time of the most recent value in the bucket.
+	 * @param lastTime: the time of the most recent value in milliseconds since the epoch
+	 */
+	public void setLastTime(Long lastTime) {
+		this.lastTime = lastTime;
+	}
+
+
+	/********************************************************************************
+	 * HELPER METHODS USEFUL FOR THE COMPUTATION OF OTHER METHODS IN THIS CLASS		*
+	 ********************************************************************************/
+
+	/**
+	 * A method that combines the aggregates of adjacent time ranges into the aggregate of the whole range.
+	 * @param parts: the aggregates to combine (the empty ones are not included)
+	 * @param start: the start of the whole range
+	 * @param end: the end of the whole range
+	 * @return aggregate: the aggregate of the whole range (null if there are no parts)
+	 */
+	public static MeasurementAggregate merge(List<MeasurementAggregate> parts, long start, long end) {
+		if (parts.isEmpty()) {
+			return null;
+		}
+
+		MeasurementAggregate a = new MeasurementAggregate();
+		double sum = 0;
+
+		a.setStart(start);
+		a.setEnd(end);
+		for (MeasurementAggregate part : parts) {
+			sum += part.getMean() * part.getCount();
+			a.setCount(a.getCount() + part.getCount());
+			a.setMin((a.getMin() == null) ? part.getMin() : Math.min(a.getMin(), part.getMin()));
+			a.setMax((a.getMax() == null) ? part.getMax() : Math.max(a.getMax(), part.getMax()));
+
+			if (a.getFirstTime() == null || part.getFirstTime() < a.getFirstTime()) {
+				a.setFirstTime(part.getFirstTime());
+			}
+			if (a.getLastTime() == null || part.getLastTime() >= a.getLastTime()) {	// the parts are sorted by time
+				a.setLast(part.getLast());
+				a.setLastTime(part.getLastTime());
+			}
+		}
+		a.setMean(sum / a.getCount());
+
+		return a;
+	}
+}
@@ -1,7 +1,12 @@
 package introsde.health.soap.model;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.*;
 import javax.xml.bind.annotation.XmlElement;
@@ -9,8 +14,11 @@ import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlTransient;
 
 import introsde.health.soap.dao.EHealthDao;
+import introsde.health.soap.dao.MeasurementRollups;
+import introsde.health.soap.dao.UnitOfWork;
 import introsde.health.soap.model.Measurement;
 import introsde.health.soap.model.Person;
+import introsde.health.soap.util.Values;
 
 
 /**
@@ -20,15 +28,29 @@ import introsde.health.soap.model.Person;
  */
 
 @Entity									// this class is an entity to persist in DB
-@Table(name="measurement_history")		// the table used to persist the entity in the DB
+@Table(name="measurement_history",		// the table used to persist the entity in the DB
+	indexes={@Index(name="idx_measurement_history_person_measure_millis", columnList="person_id, measure_name, time_millis, id")})
 @XmlRootElement(name="measure")			// make it the root element
 
 // Statically defined queries with predefined unchangeable query strings
 @NamedQueries({
 	@NamedQuery(name="MeasurementHistory.findMeasureHistory",
 			query="SELECT m FROM MeasurementHistory m WHERE m.person = :person AND m.measureName = :measureName"),
+	@NamedQuery(name="MeasurementHistory.findMeasureHistories",
+			query="SELECT m FROM MeasurementHistory m WHERE m.person = :person AND m.measureName IN :measureNames "
+				+ "ORDER BY m.id"),
+	@NamedQuery(name="MeasurementHistory.findAllMeasureHistories",
+			query="SELECT m FROM MeasurementHistory m WHERE m.person = :person ORDER BY m.id"),
 	@NamedQuery(name="MeasurementHistory.findMeasureHistoryById",
-			query="SELECT m FROM MeasurementHistory m WHERE m.person = :person AND m.id = :mid AND m.measureName = :measureName")
+			query="SELECT m FROM MeasurementHistory m WHERE m.person = :person AND m.id = :mid AND m.measureName = :measureName"),
+	@NamedQuery(name="MeasurementHistory.findMeasureHistoryPageAsc",
+			query="SELECT m FROM MeasurementHistory m WHERE m.person = :person AND m.measureName = :measureName "
+				+ "AND m.timeMillis >= :from AND m.timeMillis < :to AND m.timeMillis >= :lastTime "
+				+ "AND (m.timeMillis > :lastTime OR m.id > :lastId) ORDER BY m.timeMillis ASC, m.id ASC"),
+	@NamedQuery(name="MeasurementHistory.findMeasureHistoryPageDesc",
+			query="SELECT m FROM MeasurementHistory m WHERE m.person = :person AND m.measureName = :measureName "
+				+ "AND m.timeMillis >= :from AND m.timeMillis < :to AND m.timeMillis <= :lastTime "
+				+ "AND (m.timeMillis < :lastTime OR m.id < :lastId) ORDER BY m.timeMillis DESC, m.id DESC")
 })
 
 public class MeasurementHistory implements Serializable {
@@ -36,7 +58,7 @@ public class MeasurementHistory implements Serializable {
 	
 	@Id															// this attribute identifies the entity
 	@TableGenerator(name="MEASUREMENTH_ID_GENERATOR", table="MEASUREMENTH_SEQUENCES", pkColumnName="MEASUREMENTH_SEQ_NAME",
-    valueColumnName="MEASUREMENTH_SEQ_NUMBER", pkColumnValue = "MEASUREMENTH_SEQUENCE", allocationSize=1)
+    valueColumnName="MEASUREMENTH_SEQ_NUMBER", pkColumnValue = "MEASUREMENTH_SEQUENCE", allocationSize=500)
 	@GeneratedValue(strategy=GenerationType.TABLE, generator="MEASUREMENTH_ID_GENERATOR")
 	@Column(name="id")											// map the following attribute to a column
 	private int id;
@@ -53,6 +75,12 @@ public class MeasurementHistory implements Serializable {
 	@Column(name="time")
 	private String time;
 	
+	@Column(name="numeric_value")			// the value as a number (null if it is not numeric)
+	private Double numericValue;
+	
+	@Column(name="time_millis")				// the time in milliseconds since the epoch
+	private Long timeMillis;
+	
 	@ManyToOne	// Person contains one or more MeasurementHistory
 	@JoinColumn(name="person_id", referencedColumnName="id")
 	private Person person;
@@ -119,6 +147,7 @@ public class MeasurementHistory implements Serializable {
 	 */
 	public void setMeasureValue(String measureValue) {
 		this.measureValue = measureValue;
+		this.numericValue = Values.parseNumber(measureValue);
 	}
 	
 	/**
@@ -153,6 +182,34 @@ public class MeasurementHistory implements Serializable {
 	 */
 	public void setTime(String time) {
 		this.time = time;
+		this.timeMillis = Values.parseTime(time);
+	}
+	
+	/**
+	 * A method that sets the time of creation (both its string and its numeric representation).
+	 * @param date: the time of creation
+	 */
+	public void setCreated(Date date) {
+		this.time = date.toString();
+		this.timeMillis = date.getTime();
+	}
+	
+	/**
+	 * A method that returns the measure value as a number.
+	 * @return numericValue: the measure value (null if it is not numeric)
+	 */
+	@XmlTransient						// only stored in the database (the XML has the value)
+	public Double getNumericValue() {
+		return this.numericValue;
+	}
+	
+	/**
+	 * A method that returns the time in milliseconds since the epoch.
+	 * @return timeMillis: the time in milliseconds since the epoch
+	 */
+	@XmlTransient						// only stored in the database (the XML has the time)
+	public Long getTimeMillis() {
+		return this.timeMillis;
 	}
 	
 	/**
@@ -195,6 +252,235 @@ public class MeasurementHistory implements Serializable {
 		return mhList;
 	}
 	
+	/**
+	 * A method that allows to retrieve the histories of some measures for a particular person, with a
+	 * single IN query, grouped by measure.
+	 * @param p: the person
+	 * @param mNames: the measures (empty for all the measures of the person)
+	 * @return groups: the history of each measure, in the requested order (the measures without
+	 * entries have an empty history; if all the measures are requested, only the recorded ones)
+	 */
+	public static List<MeasurementHistoryGroup> getHistoriesOfMeasures(Person p, List<String> mNames) {
+		EntityManager em = EHealthDao.instance.createEntityManager();
+		List<MeasurementHistory> mhList;
+		
+		if (mNames.isEmpty()) {
+			mhList = em.createNamedQuery("MeasurementHistory.findAllMeasureHistories", MeasurementHistory.class)
+					.setParameter("person", p).getResultList();
+		} else {
+			mhList = em.createNamedQuery("MeasurementHistory.findMeasureHistories", MeasurementHistory.class)
+					.setParameter("person", p).setParameter("measureNames", mNames).getResultList();
+		}
+		
+		EHealthDao.instance.closeConnections(em);
+		
+		// Group the entries by measure (preserving the order of the request)
+		Map<String, MeasurementHistoryGroup> groups = new LinkedHashMap<String, MeasurementHistoryGroup>();
+		for (String mName : mNames) {
+			if (!groups.containsKey(mName)) groups.put(mName, new MeasurementHistoryGroup(mName));
+		}
+		for (MeasurementHistory mh : mhList) {
+			MeasurementHistoryGroup group = groups.get(mh.getMeasureName());
+			if (group == null) {	// all the measures are requested
+				group = new MeasurementHistoryGroup(mh.getMeasureName());
+				groups.put(mh.getMeasureName(), group);
+			}
+			group.getMeasurements().add(mh);
+		}
+		
+		return new ArrayList<MeasurementHistoryGroup>(groups.values());
+	}
+	
+	/**
+	 * A method that allows to retrieve a page of the history of a particular measure for a particular
+	 * person in a time window. The pages are sorted by time (and identifier, for entries with the same
+	 * time) and are read with an indexed range query starting after the entry encoded in the cursor.
+	 * @param p: the person
+	 * @param mName: the measure
+	 * @param from: the beginning of the time window in milliseconds since the epoch (inclusive, or null)
+	 * @param to: the end of the time window in milliseconds since the epoch (exclusive, or null)
+	 * @param descending: true to return the most recent entries first
+	 * @param limit: the maximum number of entries of the page
+	 * @param cursor: the cursor returned with the previous page (null for the first page)
+	 * @return page: the page of the history of a measure
+	 */
+	public static MeasurementHistoryPage getHistoryPage(Person p, String mName, Long from, Long to,
+			boolean descending, int limit, String cursor) {
+		long lastTime = descending ? Long.MAX_VALUE : Long.MIN_VALUE;
+		int lastId = descending ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+		
+		if (cursor != null) {		// continue after the last entry of the previous page
+			long[] key = MeasurementHistoryPage.decodeCursor(cursor, descending);
+			lastTime = key[0];
+			lastId = (int) key[1];
+		}
+		
+		String queryName = descending ? "MeasurementHistory.findMeasureHistoryPageDesc"
+				: "MeasurementHistory.findMeasureHistoryPageAsc";
+		
+		EntityManager em = EHealthDao.instance.createEntityManager();
+		List<MeasurementHistory> mhList = em.createNamedQuery(queryName, MeasurementHistory.class)
+				.setParameter("person", p).setParameter("measureName", mName)
+				.setParameter("from", (from != null) ? from : Long.MIN_VALUE)
+				.setParameter("to", (to != null) ? to : Long.MAX_VALUE)
+				.setParameter("lastTime", lastTime).setParameter("lastId", lastId)
+				.setMaxResults(limit + 1).getResultList();		// one more, to know if there is a next page
+		EHealthDao.instance.closeConnections(em);
+		
+		String nextCursor = null;
+		if (mhList.size() > limit) {
+			mhList = new ArrayList<MeasurementHistory>(mhList.subList(0, limit));
+			nextCursor = MeasurementHistoryPage.encodeCursor(descending, mhList.get(limit - 1));
+		}
+		
+		return new MeasurementHistoryPage(mhList, nextCursor);
+	}
+	
+	/**
+	 * A method that allows to compute the aggregates of the numeric values of a particular measure
+	 * for a particular person in a time window, grouped by time bucket (the entries whose value is not
+	 * numeric are ignored). When the daily and weekly rollups are available, they answer the aligned
+	 * windows (and the whole days of a long window) without reading the entries; otherwise the aggregates
+	 * are computed by the database with an indexed range query, still without loading the entries.
+	 * @param personId: the identifier of the person
+	 * @param mName: the measure
+	 * @param from: the beginning of the time window in milliseconds since the epoch (inclusive, or null)
+	 * @param to: the end of the time window in milliseconds since the epoch (exclusive, or null)
+	 * @param bucket: the time bucket (null to aggregate the whole window)
+	 * @return aggregates: the aggregates of each non-empty bucket, sorted by time
+	 */
+	public static List<MeasurementAggregate> getHistoryAggregates(int personId, String mName, Long from, Long to,
+			MeasurementAggregate.Bucket bucket) {
+		EntityManager em = EHealthDao.instance.createEntityManager();
+		List<MeasurementAggregate> aggregates;
+		
+		try {
+			if (bucket == null) {
+				aggregates = new ArrayList<MeasurementAggregate>();
+				MeasurementAggregate a = MeasurementAggregate.merge(
+						getWindowParts(em, personId, mName, from, to), 0, 0);
+				
+				if (a != null) {
+					a.setStart((from != null) ? from : a.getFirstTime());
+					a.setEnd((to != null) ? to : a.getLastTime() + 1);
+					aggregates.add(a);
+				}
+			} else if (MeasurementRollups.isReady() && MeasurementRollups.isRolledUp(bucket) 
+					&& isAligned(bucket, from) && isAligned(bucket, to)) {
+				aggregates = MeasurementRollups.getAggregates(em, personId, mName, bucket, from, to);
+			} else {
+				aggregates = computeAggregates(em, personId, mName, from, to, bucket);
+			}
+		} finally {
+			EHealthDao.instance.closeConnections(em);
+		}
+		
+		return aggregates;
+	}
+	
+	/**
+	 * An helper method of the one above that splits a time window in the parts to aggregate: the whole
+	 * days are read from the daily rollups (if available), the partial days at the edges from the history.
+	 * @param em: the entity manager
+	 * @param personId: the identifier of the person
+	 * @param mName: the measure
+	 * @param from: the beginning of the time window in milliseconds since the epoch (inclusive, or null)
+	 * @param to: the end of the time window in milliseconds since the epoch (exclusive, or null)
+	 * @return parts: the aggregates of the non-empty parts, sorted by time
+	 */
+	private static List<MeasurementAggregate> getWindowParts(EntityManager em, int personId, String mName,
+			Long from, Long to) {
+		MeasurementAggregate.Bucket day = MeasurementAggregate.Bucket.DAY;
+		Long daysFrom = (from != null && !isAligned(day, from)) 
+				? Long.valueOf(MeasurementRollups.startOf(day, from) + day.getSize()) : from;
+		Long daysTo = (to != null) ? Long.valueOf(MeasurementRollups.startOf(day, to)) : null;
+		
+		if (!MeasurementRollups.isReady() || (daysFrom != null && daysTo != null && daysFrom >= daysTo)) {
+			return computeAggregates(em, personId, mName, from, to, null);
+		}
+		
+		List<MeasurementAggregate> parts = new ArrayList<MeasurementAggregate>();
+		if (from != null && from < daysFrom) {
+			parts.addAll(computeAggregates(em, personId, mName, from, daysFrom, null));
+		}
+		parts.addAll(MeasurementRollups.getAggregates(em, personId, mName, day, daysFrom, daysTo));
+		if (to != null && daysTo < to) {
+			parts.addAll(computeAggregates(em, personId, mName, daysTo, to, null));
+		}
+		
+		return parts;
+	}
+	
+	/**
+	 * An helper method that computes the aggregates of a time window from the history, with a single
+	 * GROUP BY query on the typed columns (and the index on them).
+	 * @param em: the entity manager
+	 * @param personId: the identifier of the person
+	 * @param mName: the measure
+	 * @param from: the beginning of the time window in milliseconds since the epoch (inclusive, or null)
+	 * @param to: the end of the time window in milliseconds since the epoch (exclusive, or null)
+	 * @param bucket: the time bucket (null to aggregate the whole window)
+	 * @return aggregates: the aggregates of each non-empty bucket (or of the window), sorted by time
+	 */
+	private static List<MeasurementAggregate> computeAggregates(EntityManager em, int personId, String mName,
+			Long from, Long to, MeasurementAggregate.Bucket bucket) {
+		// The bucket bounds are constants of the enum, so they can be safely inlined
+		String bucketKey = (bucket != null) 
+				? "(time_millis - (" + bucket.getOrigin() + ")) / " + bucket.getSize() : "0";
+		
+		// The last value of each bucket is looked up by its time, with the same index of the range query
+		String sql = "SELECT a.bucket, a.cnt, a.min_value, a.max_value, a.mean_value, a.first_time, a.last_time, "
+				+ "(SELECT h.numeric_value FROM measurement_history h WHERE h.person_id = ?1 AND h.measure_name = ?2 "
+				+ "AND h.time_millis = a.last_time AND h.numeric_value IS NOT NULL ORDER BY h.id DESC LIMIT 1) "
+				+ "FROM (SELECT " + bucketKey + " AS bucket, COUNT(*) AS cnt, MIN(numeric_value) AS min_value, "
+				+ "MAX(numeric_value) AS max_value, AVG(numeric_value) AS mean_value, "
+				+ "MIN(time_millis) AS first_time, MAX(time_millis) AS last_time "
+				+ "FROM measurement_history WHERE person_id = ?1 AND measure_name = ?2 "
+				+ "AND time_millis >= ?3 AND time_millis < ?4 AND numeric_value IS NOT NULL "
+				+ "GROUP BY bucket) a ORDER BY a.bucket";
+		
+		@SuppressWarnings("unchecked")
+		List<Object[]> rows = em.createNativeQuery(sql)
+				.setParameter(1, personId).setParameter(2, mName)
+				.setParameter(3, (from != null) ? from : Long.MIN_VALUE)
+				.setParameter(4, (to != null) ? to : Long.MAX_VALUE).getResultList();
+		
+		List<MeasurementAggregate> aggregates = new ArrayList<MeasurementAggregate>(rows.size());
+		for (Object[] row : rows) {
+			MeasurementAggregate a = new MeasurementAggregate();
+			long firstTime = ((Number) row[5]).longValue();
+			long lastTime = ((Number) row[6]).longValue();
+			
+			if (bucket != null) {
+				a.setStart(bucket.getOrigin() + ((Number) row[0]).longValue() * bucket.getSize());
+				a.setEnd(a.getStart() + bucket.getSize());
+			} else {				// the span of the entries
+				a.setStart(firstTime);
+				a.setEnd(lastTime + 1);
+			}
+			a.setCount(((Number) row[1]).longValue());
+			a.setMin(toDouble(row[2]));
+			a.setMax(toDouble(row[3]));
+			a.setMean(toDouble(row[4]));
+			a.setFirstTime(firstTime);
+			a.setLast(toDouble(row[7]));
+			a.setLastTime(lastTime);
+			aggregates.add(a);
+		}
+		
+		return aggregates;
+	}
+	
+	/**
+	 * An helper method that tells if a time is the start of a bucket.
+	 * @param bucket: the bucket
+	 * @param time: the time in milliseconds since the epoch (or null, i.e. unbounded)
+	 * @return aligned: true if the time is null or the start of a bucket
+	 */
+	private static boolean isAligned(MeasurementAggregate.Bucket bucket, Long time) {
+		return time == null || MeasurementRollups.startOf(bucket, time) == time;
+	}
+	
 	/**
 	 * A method that allows to retrieve a measure given a measure type, a person and a measure identifier.
 	 * @param p: the person
@@ -229,14 +515,42 @@ public class MeasurementHistory implements Serializable {
 	 * @return mHistory: the measurement history
 	 */
 	public static MeasurementHistory addMeasurementToHistory(Measurement m) {
-		MeasurementHistory mHistory = createNewHealthProfileHistory(m);
+		final MeasurementHistory newHistory = createNewHealthProfileHistory(m);
 		
-		EntityManager em = EHealthDao.instance.createEntityManager();
-		EntityTransaction tx = em.getTransaction();
-		tx.begin();
-		mHistory = em.merge(mHistory);
-		tx.commit();
-		EHealthDao.instance.closeConnections(em);
+		return EHealthDao.instance.runInTransaction(new UnitOfWork<MeasurementHistory>() {
+			@Override
+			public MeasurementHistory execute(EntityManager em) {
+				MeasurementHistory mHistory = em.merge(newHistory);
+				MeasurementRollups.add(em, Collections.singletonList(mHistory));
+				return mHistory;
+			}
+		});
+	}
+	
+	/**
+	 * A method that allows to add the measurement to the history in the unit of work
+	 * of the given entity manager.
+	 * @param em: the entity manager (with an active transaction)
+	 * @param m: the measurement (its person must be managed by the entity manager)
+	 * @return mHistory: the measurement history
+	 */
+	public static MeasurementHistory addMeasurementToHistory(EntityManager em, Measurement m) {
+		MeasurementHistory mHistory = persistHistory(em, m);
+		MeasurementRollups.add(em, Collections.singletonList(mHistory));
+		
+		return mHistory;
+	}
+	
+	/**
+	 * An helper method of the one above that persists the new entry of the history, without updating
+	 * the rollups (the callers that add many entries update them once, see {@link MeasurementRollups#add}).
+	 * @param em: the entity manager (with an active transaction)
+	 * @param m: the measurement (its person must be managed by the entity manager)
+	 * @return mHistory: the measurement history
+	 */
+	static MeasurementHistory persistHistory(EntityManager em, Measurement m) {
+		MeasurementHistory mHistory = createNewHealthProfileHistory(m);
+		em.persist(mHistory);
 		
 		return mHistory;
 	}
@@ -246,15 +560,29 @@ public class MeasurementHistory implements Serializable {
 	 * @param mh: the measurement history
 	 * @return mHistory: the measurement history
 	 */
-	public static MeasurementHistory updateMeasurementHistory(MeasurementHistory mh) {
-		EntityManager em = EHealthDao.instance.createEntityManager();
-		EntityTransaction tx = em.getTransaction();
-		tx.begin();
-		mh = em.merge(mh);
-		tx.commit();
-		EHealthDao.instance.closeConnections(em);
+	public static MeasurementHistory updateMeasurementHistory(final MeasurementHistory mh) {
+		// Update the entry and recompute its daily/weekly rollups in a single transaction
+		return EHealthDao.instance.runInTransaction(new UnitOfWork<MeasurementHistory>() {
+			@Override
+			public MeasurementHistory execute(EntityManager em) {
+				return updateMeasurementHistory(em, mh);
+			}
+		});
+	}
+	
+	/**
+	 * A method that updates the measurement of the history, and its rollups, in the unit of work of
+	 * the given entity manager.
+	 * @param em: the entity manager (with an active transaction)
+	 * @param mh: the measurement history
+	 * @return mHistory: the measurement history
+	 */
+	public static MeasurementHistory updateMeasurementHistory(EntityManager em, MeasurementHistory mh) {
+		MeasurementHistory merged = em.merge(mh);
+		em.flush();						// the rollups are recomputed from the stored entries
+		MeasurementRollups.recompute(em, merged);
 		
-		return mh;
+		return merged;
 	}
 	
 	/**
@@ -267,10 +595,29 @@ public class MeasurementHistory implements Serializable {
 		MeasurementHistory mHistory = new MeasurementHistory();
 		
 		mHistory.setPerson(m.getPerson());
-    	mHistory.setTime(m.getTime());
-		mHistory.setMeasureName(m.getMeasureName());
-		mHistory.setMeasureValue(m.getMeasureValue());
+		mHistory.copyValues(m);
 		
 		return mHistory;
 	}
+	
+	/**
+	 * An helper method that converts a numeric column returned by a native query.
+	 * @param value: the value of the column (a Number or null)
+	 * @return number: the value as a Double (or null)
+	 */
+	private static Double toDouble(Object value) {
+		return (value != null) ? ((Number) value).doubleValue() : null;
+	}
+	
+	/**
+	 * A method that copies the measure name, value and time of a measurement (health profile).
+	 * @param m: the measurement
+	 */
+	void copyValues(Measurement m) {
+		this.measureName = m.getMeasureName();
+		this.measureValue = m.getMeasureValue();
+		this.numericValue = m.getNumericValue();
+		this.time = m.getTime();
+		this.timeMillis = m.getTimeMillis();
+	}
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+package introsde.health.soap.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+
+
+/**
+ * The history of a measure of a person, returned by the multi-get of the histories
+ * (not persisted): it groups the entries of a single measure.
+ *
+ * @author alan
+ */
+
+@XmlRootElement(name="history")	// make it the root element
+
+// The content order in the generated schema type
+@XmlType(propOrder={"measureType","measurements"})
+
+public class MeasurementHistoryGroup implements Serializable {
+	private static final long serialVersionUID = 1L;
+	
+	private String measureType;
+	private List<MeasurementHistory> measurements;
+	
+	/**
+	 * The empty constructor of the class.
+	 */
+	public MeasurementHistoryGroup() {
+		// Empty constructor
+	}
+	
+	/**
+	 * The constructor of the class.
+	 * @param measureType: the measure
+	 */
+	public MeasurementHistoryGroup(String measureType) {
+		this.measureType = measureType;
+		this.measurements = new ArrayList<MeasurementHistory>();
+	}
+	
+	
+	/********************************************************************************
+	 * LIST OF ALL THE GETTERS AND SETTERS OF ALL THE PRIVATE ATTRIBUTES			*
+	 ********************************************************************************/
+	
+	/**
+	 * A method that returns the measure of the history.
+	 * @return measureType: the measure
+	 */
+	@XmlElement(name="measure_type")
+	public String getMeasureType() {
+		return this.measureType;
+	}
+	
+	/**
+	 * A method that sets the measure of the history.
+	 * @param measureType: the measure
+	 */
+	public void setMeasureType(String measureType) {
+		this.measureType = measureType;
+	}
+	
+	/**
+	 * A method that returns the entries of the history.
+	 * @return measurements: the entries of the history (empty if there are none)
+	 */
+	@XmlElement(name="measurement")
+	public List<MeasurementHistory> getMeasurements() {
+		return this.measurements;
+	}
+	
+	/**
+	 * A method that sets the entries of the history.
+	 * @param measurements: the entries of the history
+	 */
+	public void setMeasurements(List<MeasurementHistory> measurements) {
+		this.measurements = measurements;
+	}
+}
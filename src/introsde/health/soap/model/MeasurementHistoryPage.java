@@ -0,0 +1,129 @@
+package introsde.health.soap.model;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+
+
+/**
+ * A page of the history of a measure (not persisted). The next page is requested by passing
+ * {nextCursor} back: the cursor is opaque for the clients, but it simply encodes the sort order
+ * and the time and identifier of the last entry returned (keyset pagination, so no rows are
+ * skipped with OFFSET).
+ * 
+ * @author alan
+ */
+
+@XmlRootElement(name="history")	// make it the root element
+
+// The content order in the generated schema type
+@XmlType(propOrder={"measurements","nextCursor"})
+
+public class MeasurementHistoryPage implements Serializable {
+	private static final long serialVersionUID = 1L;
+	
+	private static final String CURSOR_VERSION = "v2";
+	
+	private List<MeasurementHistory> measurements;
+	private String nextCursor;
+	
+	/**
+	 * The empty constructor of the class.
+	 */
+	public MeasurementHistoryPage() {
+		// Empty constructor
+	}
+	
+	/**
+	 * The constructor of the class.
+	 * @param measurements: the entries of the page
+	 * @param nextCursor: the cursor of the next page (null if this is the last one)
+	 */
+	public MeasurementHistoryPage(List<MeasurementHistory> measurements, String nextCursor) {
+		this.measurements = measurements;
+		this.nextCursor = nextCursor;
+	}
+	
+	
+	/********************************************************************************
+	 * LIST OF ALL THE GETTERS AND SETTERS OF ALL THE PRIVATE ATTRIBUTES			*
+	 ********************************************************************************/
+	
+	/**
+	 * A method that returns the entries of the page.
+	 * @return measurements: the entries of the page
+	 */
+	@XmlElement(name="measurement")
+	public List<MeasurementHistory> getMeasurements() {
+		return this.measurements;
+	}
+	
+	/**
+	 * A method that sets the entries of the page.
+	 * @param measurements: the entries of the page
+	 */
+	public void setMeasurements(List<MeasurementHistory> measurements) {
+		this.measurements = measurements;
+	}
+	
+	/**
+	 * A method that returns the cursor of the next page.
+	 * @return nextCursor: the cursor of the next page (null if this is the last one)
+	 */
+	@XmlElement(name="next_cursor")
+	public String getNextCursor() {
+		return this.nextCursor;
+	}
+	
+	/**
+	 * A method that sets the cursor of the next page.
+	 * @param nextCursor: the cursor of the next page
+	 */
+	public void setNextCursor(String nextCursor) {
+		this.nextCursor = nextCursor;
+	}
+	
+	
+	/********************************************************************************
+	 * HELPER METHODS USEFUL FOR THE COMPUTATION OF OTHER METHODS IN THIS CLASS		*
+	 ********************************************************************************/
+	
+	/**
+	 * A method that encodes the position of the last entry of a page into a cursor.
+	 * @param descending: the sort order of the pages
+	 * @param last: the last entry of the page
+	 * @return cursor: the opaque cursor
+	 */
+	static String encodeCursor(boolean descending, MeasurementHistory last) {
+		String key = CURSOR_VERSION + ":" + (descending ? "desc" : "asc") + ":" 
+				+ last.getTimeMillis() + ":" + last.getId();
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * A method that decodes a cursor into the time and the identifier of the last entry of the previous page.
+	 * @param cursor: the opaque cursor
+	 * @param descending: the sort order of the pages (it must be the one of the cursor)
+	 * @return key: the time and the identifier of the last entry of the previous page
+	 * @throws IllegalArgumentException: if the cursor is not valid
+	 */
+	static long[] decodeCursor(String cursor, boolean descending) {
+		try {
+			String[] key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+			
+			if (key.length != 4 || !CURSOR_VERSION.equals(key[0]) 
+					|| !key[1].equals(descending ? "desc" : "asc")) {
+				throw new IllegalArgumentException("The cursor does not match the requested order");
+			}
+			
+			return new long[] {Long.parseLong(key[2]), Long.parseLong(key[3])};
+		} catch (IllegalArgumentException e) {	// also thrown by the decoder and by parseInt
+			throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package introsde.health.soap.model;
+
+import java.io.Serializable;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+
+
+/**
+ * The result of the ingestion of a single measure in a batch (not persisted).
+ * 
+ * @author alan
+ */
+
+@XmlRootElement(name="result")	// make it the root element
+
+// The content order in the generated schema type
+@XmlType(propOrder={"personId","index","status","message","measurement"})
+
+public class MeasurementResult implements Serializable {
+	private static final long serialVersionUID = 1L;
+	
+	public static final String OK = "OK";
+	public static final String ERROR = "ERROR";
+	
+	private long personId;
+	private int index;
+	private String status;
+	private String message;
+	private MeasurementHistory measurement;
+	
+	/**
+	 * The empty constructor of the class.
+	 */
+	public MeasurementResult() {
+		// Empty constructor
+	}
+	
+	/**
+	 * The constructor of the class.
+	 * @param personId: the identifier of the person
+	 * @param index: the position of the measure in the request
+	 */
+	public MeasurementResult(long personId, int index) {
+		this.personId = personId;
+		this.index = index;
+	}
+	
+	
+	/********************************************************************************
+	 * LIST OF ALL THE GETTERS AND SETTERS OF ALL THE PRIVATE ATTRIBUTES			*
+	 ********************************************************************************/
+	
+	/**
+	 * A method that returns the identifier of the person.
+	 * @return personId: the identifier of the person
+	 */
+	@XmlElement(name="id")
+	public long getPersonId() {
+		return this.personId;
+	}
+	
+	/**
+	 * A method that sets the identifier of the person.
+	 * @param personId: the identifier of the person
+	 */
+	public void setPersonId(long personId) {
+		this.personId = personId;
+	}
+	
+	/**
+	 * A method that returns the position of the measure in the request.
+	 * @return index: the position of the measure in the request (starting from 0)
+	 */
+	@XmlElement(name="index")
+	public int getIndex() {
+		return this.index;
+	}
+	
+	/**
+	 * A method that sets the position of the measure in the request.
+	 * @param index: the position of the measure in the request
+	 */
+	public void setIndex(int index) {
+		this.index = index;
+	}
+	
+	/**
+	 * A method that returns the status of the ingestion (OK/ERROR).
+	 * @return status: the status of the ingestion
+	 */
+	@XmlElement(name="status")
+	public String getStatus() {
+		return this.status;
+	}
+	
+	/**
+	 * A method that sets the status of the ingestion.
+	 * @param status: the status of the ingestion
+	 */
+	public void setStatus(String status) {
+		this.status = status;
+	}
+	
+	/**
+	 * A method that returns the error message (if any).
+	 * @return message: the error message
+	 */
+	@XmlElement(name="message")
+	public String getMessage() {
+		return this.message;
+	}
+	
+	/**
+	 * A method that sets the error message.
+	 * @param message: the error message
+	 */
+	public void setMessage(String message) {
+		this.message = message;
+	}
+	
+	/**
+	 * A method that returns the history entry created for the measure.
+	 * @return measurement: the history entry created for the measure
+	 */
+	@XmlElement(name="measure")
+	public MeasurementHistory getMeasurement() {
+		return this.measurement;
+	}
+	
+	/**
+	 * A method that sets the history entry created for the measure.
+	 * @param measurement: the history entry created for the measure
+	 */
+	public void setMeasurement(MeasurementHistory measurement) {
+		this.measurement = measurement;
+	}
+	
+	
+	/********************************************************************************
+	 * HELPER METHODS USEFUL FOR THE COMPUTATION OF OTHER METHODS IN THIS CLASS		*
+	 ********************************************************************************/
+	
+	/**
+	 * A method that marks the measure as saved.
+	 * @param mHistory: the history entry created for the measure
+	 * @return this: the result
+	 */
+	public MeasurementResult ok(MeasurementHistory mHistory) {
+		this.status = OK;
+		this.message = null;
+		this.measurement = mHistory;
+		return this;
+	}
+	
+	/**
+	 * A method that marks the measure as not saved.
+	 * @param message: the reason of the error
+	 * @return this: the result
+	 */
+	public MeasurementResult error(String message) {
+		this.status = ERROR;
+		this.message = message;
+		this.measurement = null;
+		return this;
+	}
+}
@@ -3,7 +3,9 @@ package introsde.health.soap.model;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.*;
 import javax.xml.bind.annotation.XmlElement;
@@ -12,7 +14,12 @@ import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlTransient;
 import javax.xml.bind.annotation.XmlType;
 
+import org.eclipse.persistence.config.QueryHints;
+
 import introsde.health.soap.dao.EHealthDao;
+import introsde.health.soap.dao.EntityCache;
+import introsde.health.soap.dao.MeasurementRollups;
+import introsde.health.soap.dao.UnitOfWork;
 import introsde.health.soap.model.Measurement;
 import introsde.health.soap.model.MeasurementHistory;
 
@@ -30,11 +37,33 @@ import introsde.health.soap.model.MeasurementHistory;
 // The content order in the generated schema type
 @XmlType(propOrder={"id","firstname","lastname","birthdate","healthProfile","goals"})
 
-// A statically defined query with a predefined unchangeable query string
-@NamedQuery(name="Person.findAll", query="SELECT p FROM Person p")
+// Statically defined queries with predefined unchangeable query strings
+@NamedQueries({
+	// The health profiles and the goals of all the people are loaded with one IN query each
+	// (in chunks of 500 people), instead of one query per person when they are marshalled
+	@NamedQuery(name="Person.findAll", query="SELECT p FROM Person p",
+		hints={@QueryHint(name=QueryHints.BATCH, value="p.measurement"),
+			@QueryHint(name=QueryHints.BATCH, value="p.goal"),
+			@QueryHint(name=QueryHints.BATCH_TYPE, value="IN"),
+			@QueryHint(name=QueryHints.BATCH_SIZE, value="500")}),
+	// Only the columns of the person (the nested collections are left out)
+	@NamedQuery(name="Person.findAllSummaries",
+		query="SELECT NEW introsde.health.soap.model.Person(p.id, p.firstname, p.lastname, p.birthdate) FROM Person p"),
+	@NamedQuery(name="Person.findSummariesByIds",
+		query="SELECT NEW introsde.health.soap.model.Person(p.id, p.firstname, p.lastname, p.birthdate) FROM Person p "
+			+ "WHERE p.id IN :ids"),
+	@NamedQuery(name="Person.findByIds", query="SELECT p FROM Person p WHERE p.id IN :ids",
+		hints={@QueryHint(name=QueryHints.BATCH, value="p.measurement"),
+			@QueryHint(name=QueryHints.BATCH, value="p.goal"),
+			@QueryHint(name=QueryHints.BATCH_TYPE, value="IN"),
+			@QueryHint(name=QueryHints.BATCH_SIZE, value="500")})
+})
 
 public class Person implements Serializable {
 	private static final long serialVersionUID = 1L;
+	
+	// The maximum number of identifiers in an IN list (SQLite binds at most 999 parameters)
+	private static final int MAX_IN_LIST = 500;
 
 	/********************************************************************************
 	 * DEFINITION OF ALL THE PRIVATE ATTRIBUTES OF THE CLASS AND THEIR MAPPING		*
@@ -42,7 +71,7 @@ public class Person implements Serializable {
 	
 	@Id											// this attribute identifies the entity
 	@TableGenerator(name="PERSON_ID_GENERATOR", table="PERSON_SEQUENCES", pkColumnName="PERSON_SEQ_NAME",
-    valueColumnName="PERSON_SEQ_NUMBER", pkColumnValue = "PERSON_SEQUENCE", allocationSize=1)
+    valueColumnName="PERSON_SEQ_NUMBER", pkColumnValue = "PERSON_SEQUENCE", allocationSize=50)
 	@GeneratedValue(strategy=GenerationType.TABLE, generator="PERSON_ID_GENERATOR")
 	
 	@Column(name="id")							// map the following attribute to a column
@@ -78,6 +107,20 @@ public class Person implements Serializable {
 	public Person() {
 		// Empty constructor
 	}
+	
+	/**
+	 * The constructor of the class used by the summary queries (i.e. without the nested collections).
+	 * @param id: the person identifier
+	 * @param firstname: the firstname of the person
+	 * @param lastname: the lastname of the person
+	 * @param birthdate: the birthdate of the person
+	 */
+	public Person(int id, String firstname, String lastname, String birthdate) {
+		this.id = id;
+		this.firstname = firstname;
+		this.lastname = lastname;
+		this.birthdate = birthdate;
+	}
 
 	
 	/********************************************************************************
@@ -223,11 +266,10 @@ public class Person implements Serializable {
 	 */
 	private static Person updateMeasurement(Person p) {
 		Date date = new Date();						// get the current time
-		String date_string = date.toString();		// store its string representation
 		
 		for (Measurement m : p.measurement) {		// iterate through each measure
 			m.setPerson(p);							// set the person ID
-			m.setTime(date_string);					// set the current time
+			m.setCreated(date);						// set the current time
 		}
 		
 		return p;
@@ -261,9 +303,7 @@ public class Person implements Serializable {
 		MeasurementHistory mHistory = new MeasurementHistory();
 		
 		mHistory.setPerson(p);
-		mHistory.setTime(m.getTime());
-		mHistory.setMeasureName(m.getMeasureName());
-		mHistory.setMeasureValue(m.getMeasureValue());
+		mHistory.copyValues(m);
 		
 		return mHistory;
 	}
@@ -285,6 +325,123 @@ public class Person implements Serializable {
 		return list;
 	}
 	
+	/**
+	 * A method that queries the database to find all the people in it, without their health profile
+	 * and goals (a single query, and no entities are loaded in the cache).
+	 * @return list: a list of all the people (summaries)
+	 */
+	public static List<Person> getAllPeopleSummaries() {
+		EntityManager em = EHealthDao.instance.createEntityManager();
+		List<Person> list = em.createNamedQuery("Person.findAllSummaries", Person.class).getResultList();
+		EHealthDao.instance.closeConnections(em);
+		
+		return list;
+	}
+	
+	/**
+	 * A method that queries the database to find some people by identifier, with their health profile
+	 * and goals. The people are read with a single IN query (per 500 identifiers), and so are their
+	 * health profiles and goals when they are marshalled.
+	 * @param ids: the identifiers of the people
+	 * @return list: the people found (the identifiers that do not exist are skipped)
+	 */
+	public static List<Person> getPeopleByIds(List<Integer> ids) {
+		EntityManager em = EHealthDao.instance.createEntityManager();
+		List<Person> list = new ArrayList<Person>();
+		
+		for (int i = 0; i < ids.size(); i += MAX_IN_LIST) {
+			list.addAll(em.createNamedQuery("Person.findByIds", Person.class)
+					.setParameter("ids", ids.subList(i, Math.min(i + MAX_IN_LIST, ids.size()))).getResultList());
+		}
+		EHealthDao.instance.closeConnections(em);
+		
+		return list;
+	}
+	
+	/**
+	 * A method that queries the database to find some (or all) the people, including only the sub-trees
+	 * of a projection. The people are read with a constructor query (only their columns), and each
+	 * included sub-tree with a single query on the needed columns (per 500 identifiers): the results
+	 * are unmanaged copies, whose excluded sub-trees are null (so they are not marshalled either).
+	 * @param ids: the identifiers of the people (null for all the people)
+	 * @param projection: the projection
+	 * @return list: the (projected) people found
+	 */
+	public static List<Person> getPeople(List<Integer> ids, PersonProjection projection) {
+		EntityManager em = EHealthDao.instance.createEntityManager();
+		
+		try {
+			if (ids == null) {
+				return getPeople(em, null, projection);
+			}
+			
+			List<Person> list = new ArrayList<Person>();
+			for (int i = 0; i < ids.size(); i += MAX_IN_LIST) {
+				list.addAll(getPeople(em, ids.subList(i, Math.min(i + MAX_IN_LIST, ids.size())), projection));
+			}
+			
+			return list;
+		} finally {
+			EHealthDao.instance.closeConnections(em);
+		}
+	}
+	
+	/**
+	 * An helper method of the one above that reads the projected people of a chunk of identifiers.
+	 * @param em: the entity manager
+	 * @param ids: the identifiers of the people (null for all the people)
+	 * @param projection: the projection
+	 * @return list: the (projected) people found
+	 */
+	private static List<Person> getPeople(EntityManager em, List<Integer> ids, PersonProjection projection) {
+		List<Person> list = (ids == null) 
+				? em.createNamedQuery("Person.findAllSummaries", Person.class).getResultList()
+				: em.createNamedQuery("Person.findSummariesByIds", Person.class).setParameter("ids", ids).getResultList();
+		
+		Map<Integer, Person> people = new HashMap<Integer, Person>();
+		for (Person p : list) {
+			people.put(p.getId(), p);
+			if (projection.includesHealthProfile()) p.setHealthProfile(new ArrayList<Measurement>());
+			if (projection.includesGoals()) p.setGoals(new ArrayList<Goal>());
+		}
+		
+		if (!list.isEmpty() && projection.includesHealthProfile()) {
+			String jpql = "SELECT m.personId, m.id, m.measureName, m.measureValue, m.measureValueType, m.time "
+					+ "FROM Measurement m WHERE " + ((ids != null) ? "m.personId IN :ids" : "m.personId IS NOT NULL")
+					+ (projection.getMeasures().isEmpty() ? "" : " AND m.measureName IN :measures")
+					+ " ORDER BY m.id";
+			TypedQuery<Object[]> query = em.createQuery(jpql, Object[].class);
+			if (ids != null) query.setParameter("ids", ids);
+			if (!projection.getMeasures().isEmpty()) query.setParameter("measures", projection.getMeasures());
+			
+			for (Object[] row : query.getResultList()) {
+				Person p = people.get(row[0]);
+				if (p != null) {
+					p.measurement.add(new Measurement((Integer) row[1], (String) row[2], (String) row[3], 
+							(String) row[4], (String) row[5]));
+				}
+			}
+		}
+		
+		if (!list.isEmpty() && projection.includesGoals()) {
+			String jpql = "SELECT g.personId, g.id, g.title, g.initValue, g.finalValue, g.deadline, g.time, "
+					+ "g.achieved FROM Goal g WHERE " + ((ids != null) ? "g.personId IN :ids" : "g.personId IS NOT NULL")
+					+ " ORDER BY g.id";
+			TypedQuery<Object[]> query = em.createQuery(jpql, Object[].class);
+			if (ids != null) query.setParameter("ids", ids);
+			
+			for (Object[] row : query.getResultList()) {
+				Person p = people.get(row[0]);
+				if (p != null) {
+					p.goal.add(new Goal((Integer) row[1], (String) row[2], (String) row[3], (String) row[4], 
+							(String) row[5], (String) row[6], (String) row[7]));
+				}
+			}
+		}
+		
+		return list;
+	}
+	
 	/**
 	 * A method that queries the database to find a person with a particular identifier.
 	 * @param id: the univocal identifier of the person
@@ -303,20 +460,22 @@ public class Person implements Serializable {
 	 * @param p: a person to save
 	 * @return p: the saved person
 	 */
-	public static Person savePerson(Person p) {
+	public static Person savePerson(final Person p) {
 		if (p.measurement != null) {				// check if the measurement exists
 			Person.updateMeasurement(p);			// if so, update it
 			Person.addMeasurementToHistory(p);		// and update also the history
 		}
 		
-		EntityManager em = EHealthDao.instance.createEntityManager();
-		EntityTransaction tx = em.getTransaction();
-		tx.begin();
-		em.persist(p);
-		tx.commit();
-		EHealthDao.instance.closeConnections(em);
-		
-		return p;
+		return EHealthDao.instance.runInTransaction(new UnitOfWork<Person>() {
+			@Override
+			public Person execute(EntityManager em) {
+				em.persist(p);
+				if (p.mHistory != null) {			// roll up the history of the new health profile
+					MeasurementRollups.add(em, p.mHistory);
+				}
+				return p;
+			}
+		});
 	}
 	
 	/**
@@ -327,12 +486,13 @@ public class Person implements Serializable {
 	public Person updatePerson(Person p) {	
 		setPersonAttributes(p);
 		
-		EntityManager em = EHealthDao.instance.createEntityManager();
-		EntityTransaction tx = em.getTransaction();
-		tx.begin();
-		p=em.merge(this);
-		tx.commit();
-		EHealthDao.instance.closeConnections(em);
+		p = EHealthDao.instance.runInTransaction(new UnitOfWork<Person>() {
+			@Override
+			public Person execute(EntityManager em) {
+				return em.merge(Person.this);
+			}
+		});
+		EntityCache.evict(Person.class, p.getId());	// invalidate the cached person
 		
 		return p;
 	}
@@ -341,13 +501,16 @@ public class Person implements Serializable {
 	 * A method that removes a particular person.
 	 * @param p: a person to remove
 	 */
-	public static void deletePerson(Person p) {
-		EntityManager em = EHealthDao.instance.createEntityManager();
-		EntityTransaction tx = em.getTransaction();
-		tx.begin();
-		p=em.merge(p);
-		em.remove(p);
-		tx.commit();
-		EHealthDao.instance.closeConnections(em);
+	public static void deletePerson(final Person p) {
+		EHealthDao.instance.runInTransaction(new UnitOfWork<Void>() {
+			@Override
+			public Void execute(EntityManager em) {
+				em.remove(em.merge(p));
+				MeasurementRollups.deleteForPerson(em, p.getId());
+				return null;
+			}
+		});
+		EntityCache.evict(Person.class, p.getId());	// invalidate the cached person
+		HealthProfileCache.invalidate(p.getId());		// and its health profile
 	}
 }
\ No newline at end of file
@@ -0,0 +1,68 @@
+package introsde.health.soap.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+
+
+/**
+ * A group of new measures for a particular person, used by the batch ingestion (not persisted).
+ * 
+ * @author alan
+ */
+
+@XmlRootElement(name="person")	// make it the root element
+
+// The content order in the generated schema type
+@XmlType(propOrder={"id","measurements"})
+
+public class PersonMeasurements implements Serializable {
+	private static final long serialVersionUID = 1L;
+	
+	private Long id;
+	private List<Measurement> measurements;
+	
+	/**
+	 * The empty constructor of the class.
+	 */
+	public PersonMeasurements() {
+		// Empty constructor
+	}
+	
+	/**
+	 * A method that returns the identifier of the person.
+	 * @return id: the identifier of the person
+	 */
+	@XmlElement(name="id")
+	public Long getId() {
+		return this.id;
+	}
+	
+	/**
+	 * A method that sets the identifier of the person.
+	 * @param id: the identifier of the person
+	 */
+	public void setId(Long id) {
+		this.id = id;
+	}
+	
+	/**
+	 * A method that returns the new measures of the person.
+	 * @return measurements: the new measures of the person
+	 */
+	@XmlElement(name="measure_type")
+	public List<Measurement> getMeasurements() {
+		return this.measurements;
+	}
+	
+	/**
+	 * A method that sets the new measures of the person.
+	 * @param measurements: the new measures of the person
+	 */
+	public void setMeasurements(List<Measurement> measurements) {
+		this.measurements = measurements;
+	}
+}
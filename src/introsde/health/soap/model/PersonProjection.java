@@ -0,0 +1,115 @@
+package introsde.health.soap.model;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+
+/**
+ * The projection of a person read, i.e. the sub-trees of the person to include in the response
+ * besides its personal information (not persisted). It is written as a comma separated list of:
+ * <ul>
+ * <li>"health_profile": the whole health profile;</li>
+ * <li>"health_profile.{measure}" (e.g. "health_profile.weight"): a single measure of the health profile;</li>
+ * <li>"goals": the goals of the person;</li>
+ * <li>"none": only the personal information.</li>
+ * </ul>
+ * The sub-trees that are not included are neither read from the database nor marshalled.
+ *
+ * @author alan
+ */
+
+public final class PersonProjection {
+	public static final String NONE = "none";
+	public static final String HEALTH_PROFILE = "health_profile";
+	public static final String GOALS = "goals";
+
+	private boolean healthProfile;
+	private final Set<String> measures = new LinkedHashSet<String>();	// empty = all the measures
+	private boolean goals;
+
+	/**
+	 * The private constructor of the class (use parse).
+	 */
+	private PersonProjection() {
+		// Built by parse
+	}
+
+	/**
+	 * A method that parses a projection.
+	 * @param projection: the comma separated list of sub-trees (e.g. "health_profile.weight,goals")
+	 * @return projection: the projection (null if it is empty, i.e. the whole person is requested)
+	 * @throws IllegalArgumentException: if a sub-tree is not valid
+	 */
+	public static PersonProjection parse(String projection) {
+		if (projection == null || projection.trim().isEmpty()) {
+			return null;
+		}
+
+		PersonProjection p = new PersonProjection();
+		boolean allMeasures = false;
+
+		for (String token : projection.split(",")) {
+			String subTree = token.trim();
+
+			if (subTree.isEmpty() || subTree.equalsIgnoreCase(NONE)) {
+				continue;
+			} else if (subTree.equalsIgnoreCase(GOALS)) {
+				p.goals = true;
+			} else if (subTree.equalsIgnoreCase(HEALTH_PROFILE)) {
+				p.healthProfile = true;
+				allMeasures = true;
+			} else if (subTree.toLowerCase().startsWith(HEALTH_PROFILE + ".")
+					&& subTree.length() > HEALTH_PROFILE.length() + 1) {
+				p.healthProfile = true;
+				p.measures.add(subTree.substring(HEALTH_PROFILE.length() + 1));
+			} else {
+				throw new IllegalArgumentException("Invalid projection: " + subTree
+						+ " (expected " + HEALTH_PROFILE + ", " + HEALTH_PROFILE + ".{measure}, " + GOALS
+						+ " or " + NONE + ")");
+			}
+		}
+
+		if (allMeasures) {		// the whole health profile wins over the single measures
+			p.measures.clear();
+		}
+
+		return p;
+	}
+
+	/**
+	 * A method that tells if the health profile is included.
+	 * @return healthProfile: true if (part of) the health profile is included
+	 */
+	public boolean includesHealthProfile() {
+		return this.healthProfile;
+	}
+
+	/**
+	 * A method that returns the measures of the health profile to include.
+	 * @return measures: the names of the measures (empty if all of them are included)
+	 */
+	public Set<String> getMeasures() {
+		return Collections.unmodifiableSet(this.measures);
+	}
+
+	/**
+	 * A method that returns a copy of the projection without the health profile
+	 * (e.g. when it is read from the in-memory health profile).
+	 * @return projection: the projection without the health profile
+	 */
+	public PersonProjection withoutHealthProfile() {
+		PersonProjection p = new PersonProjection();
+		p.goals = this.goals;
+
+		return p;
+	}
+
+	/**
+	 * A method that tells if the goals are included.
+	 * @return goals: true if the goals are included
+	 */
+	public boolean includesGoals() {
+		return this.goals;
+	}
+}
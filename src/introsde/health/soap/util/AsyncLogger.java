@@ -0,0 +1,468 @@
+package introsde.health.soap.util;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An asynchronous, level-gated structured logger. An event is a name and up to three key/value
+ * pairs: the calling thread only checks the level and copies the references of its arguments in a
+ * pre-allocated slot of a bounded lock-free ring buffer, while a single background thread formats
+ * the events (one "key=value" line each) and writes them to the console in batches.
+ * When the level of an event is disabled nothing is allocated (the values should not be computed
+ * by the caller either, e.g. with isDebugEnabled()); when the buffer is full the event is dropped
+ * and counted, so that the requests never wait for the console.
+ * The level is set with "log.level" (debug, info, warn, error or off, default info) and the size
+ * of the buffer with "log.buffer-size" (rounded up to a power of two, default 8192).
+ *
+ * @author alan
+ */
+
+public final class AsyncLogger {
+
+	/**
+	 * The levels of the events.
+	 */
+	public enum Level {
+		DEBUG, INFO, WARN, ERROR, OFF;
+
+		/**
+		 * A method that parses a level name (e.g. "debug").
+		 * @param name: the name of the level
+		 * @param defaultLevel: the level returned if the name is not valid
+		 * @return level: the corresponding level
+		 */
+		public static Level parse(String name, Level defaultLevel) {
+			try {
+				return Level.valueOf(name.trim().toUpperCase(Locale.ROOT));
+			} catch (RuntimeException e) {
+				return defaultLevel;
+			}
+		}
+	}
+
+	private static volatile Level level = Level.parse(Config.getString("log.level", "info"), Level.INFO);
+	private static final RingBuffer BUFFER = new RingBuffer(Config.getInt("log.buffer-size", 8192));
+	private static final Writer WRITER = new Writer(System.out);
+
+	private final String name;
+
+	/**
+	 * The private constructor of the class.
+	 * @param name: the name of the logger (written with each event)
+	 */
+	private AsyncLogger(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * A method that returns the logger of a class.
+	 * @param type: the class that logs the events
+	 * @return logger: the logger named after the class
+	 */
+	public static AsyncLogger getLogger(Class<?> type) {
+		return new AsyncLogger(type.getSimpleName());
+	}
+
+	/**
+	 * A method that changes the level of all the loggers.
+	 * @param newLevel: the lowest level of the events written
+	 */
+	public static void setLevel(Level newLevel) {
+		level = newLevel;
+	}
+
+	/**
+	 * A method that returns the number of events dropped because the buffer was full.
+	 * @return dropped: the number of events dropped
+	 */
+	public static long getDropped() {
+		return BUFFER.dropped.sum();
+	}
+
+	/**
+	 * A method that waits until the events logged so far have been written.
+	 */
+	public static void flush() {
+		long target = BUFFER.tail.get();
+
+		while (BUFFER.head.get() < target && WRITER.isAlive()) {
+			LockSupport.unpark(WRITER);
+			LockSupport.parkNanos(100000L);
+		}
+	}
+
+
+	/********************************************************************************
+	 * LIST OF ALL THE LOGGING METHODS												*
+	 ********************************************************************************/
+
+	/**
+	 * A method that returns true if the debug events are written.
+	 * @return enabled: true if the level is debug
+	 */
+	public boolean isDebugEnabled() {
+		return Level.DEBUG.compareTo(level) >= 0;
+	}
+
+	/**
+	 * A method that returns true if the info events are written.
+	 * @return enabled: true if the level is debug or info
+	 */
+	public boolean isInfoEnabled() {
+		return Level.INFO.compareTo(level) >= 0;
+	}
+
+	/**
+	 * A method that logs a debug event (e.g. the details of a response).
+	 * @param event: the name of the event
+	 */
+	public void debug(String event) {
+		if (isDebugEnabled()) log(Level.DEBUG, event, null, null, null, null, null, null, null);
+	}
+
+	/**
+	 * A method that logs a debug event with a key/value pair (the same holds for two and three pairs).
+	 * @param event: the name of the event
+	 * @param k1: the key of the value
+	 * @param v1: the value (formatted by the writer thread with String.valueOf)
+	 */
+	public void debug(String event, String k1, Object v1) {
+		if (isDebugEnabled()) log(Level.DEBUG, event, k1, v1, null, null, null, null, null);
+	}
+
+	public void debug(String event, String k1, Object v1, String k2, Object v2) {
+		if (isDebugEnabled()) log(Level.DEBUG, event, k1, v1, k2, v2, null, null, null);
+	}
+
+	public void debug(String event, String k1, Object v1, String k2, Object v2, String k3, Object v3) {
+		if (isDebugEnabled()) log(Level.DEBUG, event, k1, v1, k2, v2, k3, v3, null);
+	}
+
+	/**
+	 * A method that logs an info event (e.g. the execution of an operation).
+	 * @param event: the name of the event
+	 */
+	public void info(String event) {
+		if (isInfoEnabled()) log(Level.INFO, event, null, null, null, null, null, null, null);
+	}
+
+	/**
+	 * A method that logs an info event with a key/value pair (the same holds for two and three pairs).
+	 * @param event: the name of the event
+	 * @param k1: the key of the value
+	 * @param v1: the value (formatted by the writer thread with String.valueOf)
+	 */
+	public void info(String event, String k1, Object v1) {
+		if (isInfoEnabled()) log(Level.INFO, event, k1, v1, null, null, null, null, null);
+	}
+
+	public void info(String event, String k1, Object v1, String k2, Object v2) {
+		if (isInfoEnabled()) log(Level.INFO, event, k1, v1, k2, v2, null, null, null);
+	}
+
+	public void info(String event, String k1, Object v1, String k2, Object v2, String k3, Object v3) {
+		if (isInfoEnabled()) log(Level.INFO, event, k1, v1, k2, v2, k3, v3, null);
+	}
+
+	/**
+	 * A method that logs a warning with a key/value pair (the same holds for two pairs).
+	 * @param event: the name of the event
+	 * @param k1: the key of the value
+	 * @param v1: the value (formatted by the writer thread with String.valueOf)
+	 */
+	public void warn(String event, String k1, Object v1) {
+		if (Level.WARN.compareTo(level) >= 0) log(Level.WARN, event, k1, v1, null, null, null, null, null);
+	}
+
+	public void warn(String event, String k1, Object v1, String k2, Object v2) {
+		if (Level.WARN.compareTo(level) >= 0) log(Level.WARN, event, k1, v1, k2, v2, null, null, null);
+	}
+
+	/**
+	 * A method that logs an error with its exception (written with its stack trace).
+	 * @param event: the name of the event
+	 * @param t: the exception
+	 */
+	public void error(String event, Throwable t) {
+		if (Level.ERROR.compareTo(level) >= 0) log(Level.ERROR, event, null, null, null, null, null, null, t);
+	}
+
+	public void error(String event, String k1, Object v1, Throwable t) {
+		if (Level.ERROR.compareTo(level) >= 0) log(Level.ERROR, event, k1, v1, null, null, null, null, t);
+	}
+
+	/**
+	 * A method that publishes an event in the ring buffer (the level has already been checked).
+	 * @param l: the level of the event
+	 * @param event: the name of the event
+	 * @param t: the exception of the event (null if there is none)
+	 */
+	private void log(Level l, String event, String k1, Object v1, String k2, Object v2, String k3, Object v3,
+			Throwable t) {
+		long pos = BUFFER.claim();
+		if (pos < 0) {		// full: drop it
+			return;
+		}
+
+		Slot s = BUFFER.slots[BUFFER.index(pos)];
+		s.time = System.currentTimeMillis();
+		s.level = l;
+		s.thread = Thread.currentThread().getName();
+		s.logger = this.name;
+		s.event = event;
+		s.k1 = k1;
+		s.v1 = v1;
+		s.k2 = k2;
+		s.v2 = v2;
+		s.k3 = k3;
+		s.v3 = v3;
+		s.error = t;
+		BUFFER.publish(pos);
+
+		WRITER.wakeUp();
+	}
+
+
+	/********************************************************************************
+	 * HELPER CLASSES USEFUL FOR THE COMPUTATION OF OTHER METHODS IN THIS CLASS		*
+	 ********************************************************************************/
+
+	/**
+	 * A pre-allocated event of the ring buffer.
+	 */
+	private static final class Slot {
+		private long time;
+		private Level level;
+		private String thread;
+		private String logger;
+		private String event;
+		private String k1, k2, k3;
+		private Object v1, v2, v3;
+		private Throwable error;
+
+		private void clear() {		// do not retain the values once they are written
+			this.v1 = null;
+			this.v2 = null;
+			this.v3 = null;
+			this.error = null;
+		}
+	}
+
+	/**
+	 * A bounded multi-producer ring buffer with a single consumer: each slot has a sequence number
+	 * telling whether it is free for the position being claimed or published for the consumer.
+	 */
+	private static final class RingBuffer {
+		private final Slot[] slots;
+		private final AtomicLongArray sequences;
+		private final int mask;
+		private final AtomicLong tail = new AtomicLong();		// the next position to claim
+		private final AtomicLong head = new AtomicLong();		// the next position to write (consumer)
+		private final LongAdder dropped = new LongAdder();
+
+		private RingBuffer(int size) {
+			int capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+
+			this.slots = new Slot[capacity];
+			this.sequences = new AtomicLongArray(capacity);
+			this.mask = capacity - 1;
+			for (int i = 0; i < capacity; i++) {
+				this.slots[i] = new Slot();
+				this.sequences.set(i, i);
+			}
+		}
+
+		private int index(long pos) {
+			return (int) (pos & this.mask);
+		}
+
+		/**
+		 * A method that claims the next free position.
+		 * @return pos: the position claimed (-1 if the buffer is full)
+		 */
+		private long claim() {
+			long pos = this.tail.get();
+
+			while (true) {
+				long diff = this.sequences.get(index(pos)) - pos;
+				if (diff == 0) {
+					if (this.tail.compareAndSet(pos, pos + 1)) {
+						return pos;
+					}
+					pos = this.tail.get();
+				} else if (diff < 0) {		// the slot has not been written yet by the consumer
+					this.dropped.increment();
+					return -1;
+				} else {		// claimed by another producer in the meantime
+					pos = this.tail.get();
+				}
+			}
+		}
+
+		private void publish(long pos) {
+			this.sequences.lazySet(index(pos), pos + 1);
+		}
+
+		/**
+		 * A method that returns the next published slot (consumer only).
+		 * @return slot: the slot at the head of the buffer (null if it is not published yet)
+		 */
+		private Slot peek() {
+			long pos = this.head.get();
+			return (this.sequences.get(index(pos)) == pos + 1) ? this.slots[index(pos)] : null;
+		}
+
+		/**
+		 * A method that frees the slot at the head of the buffer (consumer only).
+		 */
+		private void release() {
+			long pos = this.head.get();
+			this.slots[index(pos)].clear();
+			this.sequences.lazySet(index(pos), pos + this.slots.length);
+			this.head.lazySet(pos + 1);
+		}
+	}
+
+	/**
+	 * The background thread that formats the events and writes them in batches.
+	 */
+	private static final class Writer extends Thread {
+		private static final int BATCH = 256;
+		private static final long IDLE_NANOS = 100 * 1000 * 1000L;
+
+		private final PrintStream out;
+		private final StringBuilder line = new StringBuilder(64 * 1024);
+		private final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		private volatile boolean sleeping;
+		private volatile boolean stopping;
+		private long droppedReported;
+
+		private Writer(PrintStream out) {
+			super("log-writer");
+			this.out = out;
+			this.format.setTimeZone(TimeZone.getTimeZone("UTC"));
+			setDaemon(true);
+			start();
+
+			Runtime.getRuntime().addShutdownHook(new Thread("log-flush") {
+				@Override
+				public void run() {		// write the remaining events before exiting
+					Writer.this.stopping = true;
+					LockSupport.unpark(Writer.this);
+					try {
+						Writer.this.join(1000);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+
+		/**
+		 * A method called by the producers after publishing an event (it only costs a volatile
+		 * read unless the writer is sleeping).
+		 */
+		private void wakeUp() {
+			if (this.sleeping) {
+				this.sleeping = false;
+				LockSupport.unpark(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				if (drain() > 0) {
+					continue;
+				} else if (this.stopping) {
+					return;
+				}
+
+				this.sleeping = true;
+				if (BUFFER.peek() == null && !this.stopping) {
+					LockSupport.parkNanos(this, IDLE_NANOS);
+				}
+				this.sleeping = false;
+			}
+		}
+
+		/**
+		 * A method that writes a batch of events.
+		 * @return count: the number of events written
+		 */
+		private int drain() {
+			int count = 0;
+			Slot s;
+
+			while (count < BATCH && (s = BUFFER.peek()) != null) {
+				format(s);
+				BUFFER.release();
+				count++;
+			}
+
+			long dropped = BUFFER.dropped.sum();
+			if (dropped != this.droppedReported) {
+				this.line.append(this.format.format(new Date())).append(" WARN  [log-writer] AsyncLogger dropped count=")
+						.append(dropped - this.droppedReported).append('\n');
+				this.droppedReported = dropped;
+			}
+
+			if (this.line.length() > 0) {
+				this.out.print(this.line);
+				this.out.flush();
+				this.line.setLength(0);
+			}
+
+			return count;
+		}
+
+		/**
+		 * A method that formats an event, e.g.
+		 * 2016-01-20T10:15:30.123Z INFO  [people-worker-1] PeopleImplementation readPerson id=1
+		 * @param s: the event
+		 */
+		private void format(Slot s) {
+			StringBuilder sb = this.line;
+
+			sb.append(this.format.format(new Date(s.time))).append(' ').append(s.level.name());
+			for (int i = s.level.name().length(); i < 6; i++) {
+				sb.append(' ');
+			}
+			sb.append('[').append(s.thread).append("] ").append(s.logger).append(' ').append(s.event);
+			pair(sb, s.k1, s.v1);
+			pair(sb, s.k2, s.v2);
+			pair(sb, s.k3, s.v3);
+			if (s.error != null) {
+				pair(sb, "error", s.error.toString());
+				StringWriter trace = new StringWriter();
+				s.error.printStackTrace(new PrintWriter(trace));
+				sb.append('\n').append(trace.toString().trim());
+			}
+			sb.append('\n');
+		}
+
+		private static void pair(StringBuilder sb, String key, Object value) {
+			if (key == null) {
+				return;
+			}
+
+			String text = String.valueOf(value);
+			sb.append(' ').append(key).append('=');
+			if (text.isEmpty() || text.indexOf(' ') >= 0 || text.indexOf('"') >= 0 || text.indexOf('=') >= 0
+					|| text.indexOf('\n') >= 0) {
+				sb.append('"').append(text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+			} else {
+				sb.append(text);
+			}
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package introsde.health.soap.util;
+
+import java.util.Locale;
+
+/**
+ * A class that reads the service configuration. Every setting is looked up first as a JAVA system
+ * property (e.g. -Dexecutor.mode=fixed) and then as an environment variable with the same name in
+ * upper case and with dots replaced by underscores (e.g. EXECUTOR_MODE=fixed), as Heroku does with PORT.
+ *
+ * @author alan
+ */
+
+public final class Config {
+
+	/**
+	 * The private constructor of the class (it only has static methods).
+	 */
+	private Config() {
+		// Static helper
+	}
+
+	/**
+	 * A method that returns the value of a setting as a string.
+	 * @param key: the name of the setting (e.g. "executor.mode")
+	 * @param defaultValue: the value returned if the setting is not defined
+	 * @return value: the value of the setting
+	 */
+	public static String getString(String key, String defaultValue) {
+		String value = System.getProperty(key);
+
+		if (value == null) {	// fall back to the environment variable
+			value = System.getenv(key.toUpperCase(Locale.ROOT).replace('.', '_').replace('-', '_'));
+		}
+
+		return (value != null && !value.trim().isEmpty()) ? value.trim() : defaultValue;
+	}
+
+	/**
+	 * A method that returns the value of a setting as an integer.
+	 * @param key: the name of the setting
+	 * @param defaultValue: the value returned if the setting is not defined or not valid
+	 * @return value: the value of the setting
+	 */
+	public static int getInt(String key, int defaultValue) {
+		String value = getString(key, null);
+
+		try {
+			return (value != null) ? Integer.parseInt(value) : defaultValue;
+		} catch (NumberFormatException e) {
+			System.out.println("WARNING! Invalid value \"" + value + "\" for " + key + ", using " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * A method that returns the value of a setting as a positive integer (e.g. a size).
+	 * @param key: the name of the setting
+	 * @param defaultValue: the value returned if the setting is not defined or not valid (e.g. 0)
+	 * @return value: the value of the setting
+	 */
+	public static int getPositiveInt(String key, int defaultValue) {
+		int value = getInt(key, defaultValue);
+
+		if (value <= 0) {
+			System.out.println("WARNING! Invalid value \"" + value + "\" for " + key + ", using " + defaultValue);
+			return defaultValue;
+		}
+		return value;
+	}
+
+	/**
+	 * A method that returns the value of a setting as a long.
+	 * @param key: the name of the setting
+	 * @param defaultValue: the value returned if the setting is not defined or not valid
+	 * @return value: the value of the setting
+	 */
+	public static long getLong(String key, long defaultValue) {
+		String value = getString(key, null);
+
+		try {
+			return (value != null) ? Long.parseLong(value) : defaultValue;
+		} catch (NumberFormatException e) {
+			System.out.println("WARNING! Invalid value \"" + value + "\" for " + key + ", using " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * A method that returns the value of a setting as a boolean.
+	 * @param key: the name of the setting
+	 * @param defaultValue: the value returned if the setting is not defined
+	 * @return value: the value of the setting
+	 */
+	public static boolean getBoolean(String key, boolean defaultValue) {
+		String value = getString(key, null);
+		return (value != null) ? Boolean.parseBoolean(value) : defaultValue;
+	}
+}
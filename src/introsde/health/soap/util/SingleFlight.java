@@ -0,0 +1,104 @@
+package introsde.health.soap.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A class that coalesces identical concurrent loads ("single flight"): the first caller of a key
+ * runs the load, while the callers that ask for the same key before it completes wait for it and
+ * share its result (or its exception). Nothing is cached once the load has completed.
+ *
+ * @param <K> the type of the keys identifying the loads
+ * @param <V> the type of the results
+ * @author alan
+ */
+
+public final class SingleFlight<K, V> {
+	private final ConcurrentMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<K, FutureTask<V>>();
+	private final AtomicLong loads = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	/**
+	 * A method that returns the result of the load of a key, running the load only if there is
+	 * no load of the same key in flight.
+	 * @param key: the key of the load (e.g. the parameters of the request)
+	 * @param loader: the load to run
+	 * @return result: the result of the load
+	 */
+	public V execute(K key, Callable<V> loader) {
+		FutureTask<V> task = new FutureTask<V>(loader);
+		FutureTask<V> current = this.inFlight.putIfAbsent(key, task);
+
+		if (current != null) {		// share the load in flight
+			this.coalesced.incrementAndGet();
+			return await(current);
+		}
+
+		this.loads.incrementAndGet();
+		try {
+			task.run();
+			return await(task);
+		} finally {
+			this.inFlight.remove(key, task);
+		}
+	}
+
+	/**
+	 * A method that returns the number of loads executed.
+	 * @return loads: the number of loads executed
+	 */
+	public long getLoads() {
+		return this.loads.get();
+	}
+
+	/**
+	 * A method that returns the number of requests that shared the load of another request.
+	 * @return coalesced: the number of coalesced requests
+	 */
+	public long getCoalesced() {
+		return this.coalesced.get();
+	}
+
+	/**
+	 * A method that returns the number of loads in flight.
+	 * @return inFlight: the number of loads in flight
+	 */
+	public int getInFlight() {
+		return this.inFlight.size();
+	}
+
+	/**
+	 * An helper method that waits for a load and returns its result, rethrowing its exception.
+	 * @param task: the load
+	 * @return result: the result of the load
+	 */
+	private static <V> V await(FutureTask<V> task) {
+		boolean interrupted = false;
+
+		try {
+			while (true) {
+				try {
+					return task.get();
+				} catch (InterruptedException e) {		// wait anyway: the load is not ours to cancel
+					interrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package introsde.health.soap.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A class that serializes the operations on the same key (e.g. the writes of the same person) without
+ * a global lock: the keys are mapped to a fixed number of locks ("stripes"), so that the operations on
+ * different keys only wait for each other if their keys share a stripe. Since the keys are sequential
+ * identifiers, they are mapped by their remainder: up to [stripes] consecutive identifiers never
+ * share a stripe. The locks of many keys are always taken in the order of their stripes, so two
+ * operations locking the same keys in a different order cannot deadlock.
+ *
+ * @author alan
+ */
+
+public final class StripedLock {
+	private final ReentrantLock[] stripes;
+	private final int mask;
+
+	/**
+	 * The constructor of the class.
+	 * @param stripes: the number of locks (rounded up to a power of two)
+	 */
+	public StripedLock(int stripes) {
+		int capacity = Integer.highestOneBit(Math.max(2, stripes - 1)) << 1;
+
+		this.stripes = new ReentrantLock[capacity];
+		this.mask = capacity - 1;
+		for (int i = 0; i < capacity; i++) {
+			this.stripes[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * A method that takes the lock of a key, waiting for the operations of the same stripe.
+	 * @param key: the key (e.g. the identifier of a person)
+	 */
+	public void lock(long key) {
+		this.stripes[index(key)].lock();
+	}
+
+	/**
+	 * A method that releases the lock of a key (taken by the current thread).
+	 * @param key: the key
+	 */
+	public void unlock(long key) {
+		this.stripes[index(key)].unlock();
+	}
+
+	/**
+	 * A method that takes the locks of many keys, in the order of their stripes.
+	 * @param keys: the keys (null keys are ignored)
+	 * @return locks: the locks taken, to pass to unlockAll
+	 */
+	public List<ReentrantLock> lockAll(Collection<? extends Number> keys) {
+		TreeSet<Integer> indexes = new TreeSet<Integer>();
+		for (Number key : keys) {
+			if (key != null) {
+				indexes.add(Integer.valueOf(index(key.longValue())));
+			}
+		}
+
+		List<ReentrantLock> locks = new ArrayList<ReentrantLock>(indexes.size());
+		try {
+			for (Integer i : indexes) {
+				this.stripes[i].lock();
+				locks.add(this.stripes[i]);
+			}
+		} catch (RuntimeException | Error e) {		// do not keep the locks already taken
+			unlockAll(locks);
+			throw e;
+		}
+		return locks;
+	}
+
+	/**
+	 * A method that releases the locks taken by lockAll, in the reverse order.
+	 * @param locks: the locks
+	 */
+	public void unlockAll(List<ReentrantLock> locks) {
+		for (int i = locks.size() - 1; i >= 0; i--) {
+			locks.get(i).unlock();
+		}
+	}
+
+	/**
+	 * A method that returns the number of locks.
+	 * @return stripes: the number of locks
+	 */
+	public int getStripes() {
+		return this.stripes.length;
+	}
+
+	/**
+	 * A method that returns the number of threads waiting for the locks (an estimate of the contention).
+	 * @return waiting: the number of threads waiting
+	 */
+	public int getQueueLength() {
+		int waiting = 0;
+		for (ReentrantLock lock : this.stripes) {
+			waiting += lock.getQueueLength();
+		}
+		return waiting;
+	}
+
+
+	/********************************************************************************
+	 * HELPER METHODS USEFUL FOR THE COMPUTATION OF OTHER METHODS IN THIS CLASS		*
+	 ********************************************************************************/
+
+	/**
+	 * A method that returns the stripe of a key.
+	 * @param key: the key
+	 * @return index: the index of the lock of the key
+	 */
+	private int index(long key) {
+		return (int) (key & this.mask);
+	}
+}
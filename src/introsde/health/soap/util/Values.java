@@ -0,0 +1,75 @@
+package introsde.health.soap.util;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * A class that converts the values exchanged as strings by the SOAP interface (e.g. "78.5" and
+ * "Tue Jan 31 22:34:24 CET 2017") into the typed values stored in the database, and vice versa.
+ *
+ * @author alan
+ */
+
+public final class Values {
+
+	// The format of Date.toString(), used by the service for the "created" elements
+	private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			return new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US);
+		}
+	};
+
+	/**
+	 * The private constructor of the class (it only has static methods).
+	 */
+	private Values() {
+		// Static helper
+	}
+
+	/**
+	 * A method that parses a measure value.
+	 * @param value: the string representation of the value (e.g. "78.5")
+	 * @return number: the numeric value (null if the value is not a number)
+	 */
+	public static Double parseNumber(String value) {
+		if (value == null) {
+			return null;
+		}
+
+		try {
+			double number = Double.parseDouble(value.trim().replace(',', '.'));
+			return (Double.isNaN(number) || Double.isInfinite(number)) ? null : number;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * A method that parses a time written by the service (i.e. with Date.toString()).
+	 * @param time: the string representation of the time (e.g. "Tue Jan 31 22:34:24 CET 2017")
+	 * @return millis: the time in milliseconds since the epoch (null if the time is not valid)
+	 */
+	public static Long parseTime(String time) {
+		if (time == null) {
+			return null;
+		}
+
+		try {
+			return DATE_FORMAT.get().parse(time.trim()).getTime();
+		} catch (ParseException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * A method that returns the string representation of a time, as written by the service.
+	 * @param millis: the time in milliseconds since the epoch
+	 * @return time: the string representation of the time
+	 */
+	public static String formatTime(long millis) {
+		return new Date(millis).toString();
+	}
+}
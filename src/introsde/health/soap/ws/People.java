@@ -13,8 +13,13 @@ import javax.jws.soap.SOAPBinding.Use;
 import introsde.health.soap.model.Goal;
 import introsde.health.soap.model.Measure;
 import introsde.health.soap.model.Measurement;
+import introsde.health.soap.model.MeasurementAggregate;
 import introsde.health.soap.model.MeasurementHistory;
+import introsde.health.soap.model.MeasurementHistoryGroup;
+import introsde.health.soap.model.MeasurementHistoryPage;
+import introsde.health.soap.model.MeasurementResult;
 import introsde.health.soap.model.Person;
+import introsde.health.soap.model.PersonMeasurements;
 
 /**
  * The service endpoint interface.
@@ -28,21 +33,47 @@ public interface People {
 	
 	/***
 	 * A method that lists all the people in the database.
+	 * @param projection: the sub-trees to include, e.g. "health_profile.weight,goals" (optional, default: all)
 	 * @return all the people in the database
 	 */
 	@WebMethod(operationName="readPersonList")
 	@WebResult(name="person")				// the root of the result
-	public List<Person> readPersonList();
+	public List<Person> readPersonList(
+			@WebParam(name="projection") String projection
+	);
+	
+	/***
+	 * A method that lists all the people in the database, without their health profile and goals.
+	 * @return all the people in the database (only their personal information)
+	 */
+	@WebMethod(operationName="readPersonSummaryList")
+	@WebResult(name="person")
+	public List<Person> readPersonSummaryList();
 	
 	/***
 	 * A method that gives all the information of a person identified by {id}.
 	 * @param id: the identifier
+	 * @param projection: the sub-trees to include, e.g. "health_profile.weight,goals" (optional, default: all)
 	 * @return the person identified by {id}
 	 */
 	@WebMethod(operationName="readPerson")
 	@WebResult(name="person")
 	public Person readPerson(
-			@WebParam(name="id") Long id
+			@WebParam(name="id") Long id,
+			@WebParam(name="projection") String projection
+	);
+	
+	/***
+	 * A method that gives all the information of the people identified by {ids}, with a single request.
+	 * @param ids: the identifiers
+	 * @param projection: the sub-trees to include, e.g. "health_profile.weight,goals" (optional, default: all)
+	 * @return the people identified by {ids}, in the requested order (the ones that don't exist are skipped)
+	 */
+	@WebMethod(operationName="readPeople")
+	@WebResult(name="person")
+	public List<Person> readPeople(
+			@WebParam(name="id") List<Long> ids,
+			@WebParam(name="projection") String projection
 	);
 	
 	/***
@@ -93,6 +124,64 @@ public interface People {
 			@WebParam(name="measure_type") String measureType
 	);
 	
+	/***
+	 * A method that returns the histories of some measures {measureTypes} (e.g. weight and height)
+	 * for a person identified by {id}, with a single request.
+	 * @param id: the identifier of the person
+	 * @param measureTypes: the measures of interest (empty for all the measures recorded)
+	 * @return the history of each measure, in the requested order
+	 */
+	@WebMethod(operationName="readPersonHistories")
+	@WebResult(name="history")
+	public List<MeasurementHistoryGroup> readPersonHistories(
+			@WebParam(name="id") Long id,
+			@WebParam(name="measure_type") List<String> measureTypes
+	);
+	
+	/***
+	 * A method that returns a page of the history of {measureType} (e.g. weight)
+	 * for a person identified by {id}.
+	 * @param id: the identifier of the person
+	 * @param measureType: the measure of interest
+	 * @param from: the beginning of the time window in milliseconds since the epoch (inclusive, optional)
+	 * @param to: the end of the time window in milliseconds since the epoch (exclusive, optional)
+	 * @param order: "asc" (oldest entries first, the default) or "desc" (most recent entries first)
+	 * @param limit: the maximum number of entries of the page (default: 100)
+	 * @param cursor: the cursor returned with the previous page (empty for the first page)
+	 * @return a page of the measurements of a particular measure relative to a person
+	 */
+	@WebMethod(operationName="readPersonHistoryPage")
+	@WebResult(name="history")
+	public MeasurementHistoryPage readPersonHistoryPage(
+			@WebParam(name="id") Long id,
+			@WebParam(name="measure_type") String measureType,
+			@WebParam(name="from") Long from,
+			@WebParam(name="to") Long to,
+			@WebParam(name="order") String order,
+			@WebParam(name="limit") Integer limit,
+			@WebParam(name="cursor") String cursor
+	);
+	
+	/***
+	 * A method that returns the aggregates (count, min, max, mean and last value) of {measureType}
+	 * (e.g. weight) for a person identified by {id} in a time window, optionally grouped by time bucket.
+	 * @param id: the identifier of the person
+	 * @param measureType: the measure of interest
+	 * @param from: the beginning of the time window in milliseconds since the epoch (inclusive, optional)
+	 * @param to: the end of the time window in milliseconds since the epoch (exclusive, optional)
+	 * @param bucket: "hour", "day" or "week" (empty to aggregate the whole window)
+	 * @return the aggregates of each non-empty bucket, sorted by time
+	 */
+	@WebMethod(operationName="readPersonHistoryStats")
+	@WebResult(name="aggregate")
+	public List<MeasurementAggregate> readPersonHistoryStats(
+			@WebParam(name="id") Long id,
+			@WebParam(name="measure_type") String measureType,
+			@WebParam(name="from") Long from,
+			@WebParam(name="to") Long to,
+			@WebParam(name="bucket") String bucket
+	);
+	
 	/***
 	 * A method that returns the list of all the measures supported by the service.
 	 * @return the list of all the measures supported by the service
@@ -131,6 +220,32 @@ public interface People {
 			@WebParam(name="measure_type") Measurement m
 	);
 	
+	/***
+	 * A method that saves a batch of new measure objects (e.g. weight) for a person identified
+	 * by {id}, updating the health profile and the history in a single transaction.
+	 * @param id: the identifier of the person
+	 * @param measurements: the measurements of interest
+	 * @return the result of each measurement, in the same order of the request
+	 */
+	@WebMethod(operationName="savePersonMeasures")
+	@WebResult(name="result")
+	public List<MeasurementResult> savePersonMeasures(
+			@WebParam(name="id") Long id,
+			@WebParam(name="measure_type") List<Measurement> measurements
+	);
+	
+	/***
+	 * A method that saves a batch of new measure objects for many people,
+	 * updating the health profiles and the histories in a single transaction.
+	 * @param people: the people with their measurements of interest
+	 * @return the result of each measurement, in the same order of the request
+	 */
+	@WebMethod(operationName="savePeopleMeasures")
+	@WebResult(name="result")
+	public List<MeasurementResult> savePeopleMeasures(
+			@WebParam(name="person") List<PersonMeasurements> people
+	);
+	
 	/***
 	 * A method that updates the measure (e.g. weight) identified
 	 * with {m.mid} for a person identified by {id}.
@@ -270,8 +385,16 @@ public interface People {
 	);
 	
 	/***
-	 * An accessory method used to reset the database and that populates it with sample data.
+	 * An accessory method used to reset the database and that populates it with sample data or,
+	 * if {people} is given, with generated data of that size (see DataGenerator).
+	 * @param people: the number of people to generate (none for the sample data)
+	 * @param days: the number of days of measures of each person
+	 * @param seed: the seed of the generated values (the same seed gives the same data)
 	 */
 	@WebMethod
-	void initializeDatabase();
+	void initializeDatabase(
+			@WebParam(name="people") Integer people,
+			@WebParam(name="days") Integer days,
+			@WebParam(name="seed") Long seed
+	);
 }
\ No newline at end of file
@@ -1,15 +1,38 @@
 package introsde.health.soap.ws;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.jws.WebService;
+import javax.persistence.EntityManager;
 
 import introsde.health.soap.dao.EHealthDao;
+import introsde.health.soap.dao.EntityCache;
+import introsde.health.soap.dao.UnitOfWork;
+import introsde.health.soap.dao.WriteBehindQueue;
 import introsde.health.soap.model.Goal;
+import introsde.health.soap.model.HealthProfileCache;
 import introsde.health.soap.model.Measure;
 import introsde.health.soap.model.Measurement;
+import introsde.health.soap.model.MeasurementAggregate;
 import introsde.health.soap.model.MeasurementHistory;
+import introsde.health.soap.model.MeasurementHistoryGroup;
+import introsde.health.soap.model.MeasurementHistoryPage;
+import introsde.health.soap.model.MeasurementResult;
 import introsde.health.soap.model.Person;
+import introsde.health.soap.model.PersonMeasurements;
+import introsde.health.soap.model.PersonProjection;
+import introsde.health.soap.util.AsyncLogger;
+import introsde.health.soap.util.Config;
+import introsde.health.soap.util.SingleFlight;
+import introsde.health.soap.util.StripedLock;
 
 /**
  * The service implementation.
@@ -19,34 +42,155 @@ import introsde.health.soap.model.Person;
 
 @WebService(endpointInterface="introsde.health.soap.ws.People", serviceName="People")
 public class PeopleImplementation implements People {
+	private static final AsyncLogger LOG = AsyncLogger.getLogger(PeopleImplementation.class);
+	private static final int DEFAULT_PAGE_SIZE = 100;
+	private static final int MAX_PAGE_SIZE = Config.getInt("history.page.max-size", 1000);
+	private static final long MAX_GENERATED_ROWS = Config.getLong("generator.max-history-rows", 10000000L);
+	
+	// The writes of the measures of the same person are serialized (read the profile, then insert or update)
+	private static final StripedLock PERSON_LOCKS = new StripedLock(Config.getInt("lock.person.stripes", 1024));
+	
+	// The reads in flight of readPerson and readPersonHistory, shared by the identical concurrent requests
+	private static final SingleFlight<String, Person> PERSON_READS = new SingleFlight<String, Person>();
+	private static final SingleFlight<String, List<MeasurementHistory>> HISTORY_READS = 
+			new SingleFlight<String, List<MeasurementHistory>>();
 
+	/**
+	 * A method that returns the coalescing of the readPerson requests.
+	 * @return reads: the reads in flight (with the number of loads and of coalesced requests)
+	 */
+	public static SingleFlight<String, Person> getPersonReads() {
+		return PERSON_READS;
+	}
+	
+	/**
+	 * A method that returns the locks that serialize the writes of the measures of each person.
+	 * @return locks: the locks striped by the identifier of the person
+	 */
+	public static StripedLock getPersonLocks() {
+		return PERSON_LOCKS;
+	}
+	
+	/**
+	 * A method that returns the coalescing of the readPersonHistory requests.
+	 * @return reads: the reads in flight (with the number of loads and of coalesced requests)
+	 */
+	public static SingleFlight<String, List<MeasurementHistory>> getHistoryReads() {
+		return HISTORY_READS;
+	}
+	
 	/***
 	 * A method that lists all the people in the database.
+	 * @param projection: the sub-trees to include, e.g. "health_profile.weight,goals" (optional, default: all)
 	 * @return all the people in the database
 	 */
 	@Override
-	public List<Person> readPersonList() {
-		System.out.println("Executing readPersonList()...");
-		List<Person> people = Person.getAllPeople();
+	public List<Person> readPersonList(String projection) {
+		LOG.info("readPersonList", "projection", projection);
+		PersonProjection p = PersonProjection.parse(projection);
+		List<Person> people = (p != null) ? Person.getPeople(null, p) : Person.getAllPeople();
+		
+		if (LOG.isDebugEnabled()) LOG.debug("readPersonList.returned", "people", people.size());
+		return people;
+	}
+	
+	/***
+	 * A method that lists all the people in the database, without their health profile and goals.
+	 * @return all the people in the database (only their personal information)
+	 */
+	@Override
+	public List<Person> readPersonSummaryList() {
+		LOG.info("readPersonSummaryList");
+		List<Person> people = Person.getAllPeopleSummaries();
 		
-		System.out.println("\tReturning the whole list of people...");
+		if (LOG.isDebugEnabled()) LOG.debug("readPersonSummaryList.returned", "people", people.size());
 		return people;
 	}
 	
 	/***
 	 * A method that gives all the information of a person identified by {id}.
 	 * @param id: the identifier
+	 * @param projection: the sub-trees to include, e.g. "health_profile.weight,goals" (optional, default: all)
 	 * @return the person identified by {id}
 	 */
 	@Override
-	public Person readPerson(Long id) {
-		System.out.println("Executing readPerson()...");
-		Person person = Person.getPersonById(id.intValue());
+	public Person readPerson(final Long id, final String projection) {
+		LOG.info("readPerson", "id", id, "projection", projection);
+		final PersonProjection p = PersonProjection.parse(projection);
+		
+		// The identical requests in flight share the same read
+		Person person = PERSON_READS.execute(id + "|" + ((projection != null) ? projection.trim() : ""), 
+				new Callable<Person>() {
+					@Override
+					public Person call() {
+						return readPerson(id.intValue(), p);
+					}
+				});
+		
+		LOG.debug("readPerson.returned", "id", id, "found", (person != null));
+		return person;
+	}
+	
+	/**
+	 * An helper method of the one above that reads a person from the database (and its current
+	 * health profile from the in-memory one).
+	 * @param id: the identifier
+	 * @param p: the projection (null for the whole person)
+	 * @return person: the person (null if it doesn't exist)
+	 */
+	private Person readPerson(int id, PersonProjection p) {
+		Person person;
+		
+		if (p != null) {		// only the columns and the sub-trees of the projection
+			List<Person> people = Person.getPeople(Collections.singletonList(id), p.withoutHealthProfile());
+			person = people.isEmpty() ? null : people.get(0);
+		} else {
+			person = Person.getPersonById(id);
+		}
+		
+		if (person != null && (p == null || p.includesHealthProfile())) {	// from the in-memory health profile
+			person.setHealthProfile(HealthProfileCache.getProfile(person.getId(), (p != null) ? p.getMeasures() : null));
+		}
 		
-		System.out.println("\tReturning the person with ID " + id.toString() + "...");
 		return person;
 	}
 	
+	/***
+	 * A method that gives all the information of the people identified by {ids}, with a single request.
+	 * @param ids: the identifiers
+	 * @param projection: the sub-trees to include, e.g. "health_profile.weight,goals" (optional, default: all)
+	 * @return the people identified by {ids}, in the requested order (the ones that don't exist are skipped)
+	 */
+	@Override
+	public List<Person> readPeople(List<Long> ids, String projection) {
+		LOG.info("readPeople", "ids", ids, "projection", projection);
+		PersonProjection p = PersonProjection.parse(projection);
+		
+		Set<Integer> idSet = new LinkedHashSet<Integer>();	// the distinct identifiers, in the requested order
+		if (ids != null) {
+			for (Long id : ids) {
+				if (id != null) idSet.add(id.intValue());
+			}
+		}
+		List<Integer> distinctIds = new ArrayList<Integer>(idSet);
+		
+		List<Person> found = distinctIds.isEmpty() ? new ArrayList<Person>() 
+				: (p != null) ? Person.getPeople(distinctIds, p) : Person.getPeopleByIds(distinctIds);
+		
+		// Return the people in the requested order
+		Map<Integer, Person> byId = new HashMap<Integer, Person>();
+		for (Person person : found) {
+			byId.put(person.getId(), person);
+		}
+		List<Person> people = new ArrayList<Person>();
+		for (Integer id : distinctIds) {
+			if (byId.containsKey(id)) people.add(byId.get(id));
+		}
+		
+		if (LOG.isDebugEnabled()) LOG.debug("readPeople.returned", "people", people.size(), "requested", distinctIds.size());
+		return people;
+	}
+	
 	/***
 	 * A method that updates the information of a person identified by {id}
 	 * (i.e. only the person's information, not the measures of the health profile).
@@ -55,11 +199,11 @@ public class PeopleImplementation implements People {
 	 */
 	@Override
 	public Person updatePerson(Person p) {
-		System.out.println("Executing updatePerson()...");
+		if (LOG.isInfoEnabled()) LOG.info("updatePerson", "id", p.getId());
 		p.setHealthProfile(null);	// prevent updates on the person's health profile
 		p.updatePerson(p);			// update data (without updating the health profile)
 		
-		System.out.println("\tReturning the person updated (ID: " + p.getId() + ")...");
+		if (LOG.isDebugEnabled()) LOG.debug("updatePerson.returned", "id", p.getId());
 		return p;
 	}
 	
@@ -71,10 +215,10 @@ public class PeopleImplementation implements People {
 	 */
 	@Override
 	public Person createPerson(Person p) {
-		System.out.println("Executing createPerson()...");
+		LOG.info("createPerson");
 		Person person = Person.savePerson(p);	// create person and its health profile
 		
-		System.out.println("\tReturning the person created (ID: " + person.getId() + ")...");
+		if (LOG.isDebugEnabled()) LOG.debug("createPerson.returned", "id", person.getId());
 		return person;
 	}
 	
@@ -84,14 +228,19 @@ public class PeopleImplementation implements People {
 	 */
 	@Override
 	public void deletePerson(Long id) {
-		System.out.println("Executing deletePerson()...");
-		Person person = Person.getPersonById(id.intValue());
-		
-		if (person != null) {					// check if the person exists
-			Person.deletePerson(person);		// if yes, delete it
-			System.out.println("\tDeleting the person with ID " + person.getId() + "...");
-		} else {								// o.w., print an error message
-			System.out.println("\tERROR! The person with ID " + id + " doesn't exist!");
+		LOG.info("deletePerson", "id", id);
+		PERSON_LOCKS.lock(id);
+		try {
+			Person person = Person.getPersonById(id.intValue());
+			
+			if (person != null) {					// check if the person exists
+				Person.deletePerson(person);		// if yes, delete it
+				LOG.debug("deletePerson.deleted", "id", id);
+			} else {								// o.w., print an error message
+				LOG.warn("deletePerson.not_found", "id", id);
+			}
+		} finally {
+			PERSON_LOCKS.unlock(id);
 		}
 	}
 	
@@ -103,25 +252,104 @@ public class PeopleImplementation implements People {
 	 * @return the list of all the measurements of a particular measure relative to a person
 	 */
 	@Override
-	public List<MeasurementHistory> readPersonHistory(Long id, String measureType) {
-		System.out.println("Executing readPersonHistory()...");
-		Person person = Person.getPersonById(id.intValue());
-		List<MeasurementHistory> history = MeasurementHistory.getHistoryOfAMeasure(person, measureType);
+	public List<MeasurementHistory> readPersonHistory(final Long id, final String measureType) {
+		LOG.info("readPersonHistory", "id", id, "measure_type", measureType);
+		
+		// The identical requests in flight share the same read
+		List<MeasurementHistory> history = HISTORY_READS.execute(id + "|" + measureType, 
+				new Callable<List<MeasurementHistory>>() {
+					@Override
+					public List<MeasurementHistory> call() {
+						Person person = Person.getPersonById(id.intValue());
+						return MeasurementHistory.getHistoryOfAMeasure(person, measureType);
+					}
+				});
 		
-		System.out.println("\tReturning the \"" + measureType + "\" history of the person with ID " + id + "...");
+		if (LOG.isDebugEnabled()) LOG.debug("readPersonHistory.returned", "id", id, "measure_type", measureType, 
+				"entries", (history != null) ? history.size() : 0);
 		return history;
 	}
 	
+	/***
+	 * A method that returns the histories of some measures {measureTypes} (e.g. weight and height)
+	 * for a person identified by {id}, with a single request.
+	 * @param id: the identifier of the person
+	 * @param measureTypes: the measures of interest (empty for all the measures recorded)
+	 * @return the history of each measure, in the requested order
+	 */
+	@Override
+	public List<MeasurementHistoryGroup> readPersonHistories(Long id, List<String> measureTypes) {
+		LOG.info("readPersonHistories", "id", id, "measure_types", measureTypes);
+		Person person = Person.getPersonById(id.intValue());
+		List<MeasurementHistoryGroup> histories = (person != null) 
+				? MeasurementHistory.getHistoriesOfMeasures(person, 
+						(measureTypes != null) ? measureTypes : Collections.<String>emptyList())
+				: new ArrayList<MeasurementHistoryGroup>();
+		
+		if (LOG.isDebugEnabled()) LOG.debug("readPersonHistories.returned", "id", id, "histories", histories.size());
+		return histories;
+	}
+	
+	/***
+	 * A method that returns a page of the history of {measureType} (e.g. weight)
+	 * for a person identified by {id}.
+	 * @param id: the identifier of the person
+	 * @param measureType: the measure of interest
+	 * @param from: the beginning of the time window in milliseconds since the epoch (inclusive, optional)
+	 * @param to: the end of the time window in milliseconds since the epoch (exclusive, optional)
+	 * @param order: "asc" (oldest entries first, the default) or "desc" (most recent entries first)
+	 * @param limit: the maximum number of entries of the page (default: 100)
+	 * @param cursor: the cursor returned with the previous page (empty for the first page)
+	 * @return a page of the measurements of a particular measure relative to a person
+	 */
+	@Override
+	public MeasurementHistoryPage readPersonHistoryPage(Long id, String measureType, Long from, Long to,
+			String order, Integer limit, String cursor) {
+		LOG.info("readPersonHistoryPage", "id", id, "measure_type", measureType, "cursor", cursor);
+		boolean descending = "desc".equalsIgnoreCase(order);
+		int pageSize = (limit != null && limit > 0) ? Math.min(limit, MAX_PAGE_SIZE) : DEFAULT_PAGE_SIZE;
+		
+		Person person = Person.getPersonById(id.intValue());
+		MeasurementHistoryPage page = MeasurementHistory.getHistoryPage(person, measureType, from, to,
+				descending, pageSize, (cursor != null && !cursor.isEmpty()) ? cursor : null);
+		
+		if (LOG.isDebugEnabled()) LOG.debug("readPersonHistoryPage.returned", "id", id, "measure_type", measureType, 
+				"entries", page.getMeasurements().size());
+		return page;
+	}
+	
+	/***
+	 * A method that returns the aggregates (count, min, max, mean and last value) of {measureType}
+	 * (e.g. weight) for a person identified by {id} in a time window, optionally grouped by time bucket.
+	 * @param id: the identifier of the person
+	 * @param measureType: the measure of interest
+	 * @param from: the beginning of the time window in milliseconds since the epoch (inclusive, optional)
+	 * @param to: the end of the time window in milliseconds since the epoch (exclusive, optional)
+	 * @param bucket: "hour", "day" or "week" (empty to aggregate the whole window)
+	 * @return the aggregates of each non-empty bucket, sorted by time
+	 */
+	@Override
+	public List<MeasurementAggregate> readPersonHistoryStats(Long id, String measureType, Long from, Long to,
+			String bucket) {
+		LOG.info("readPersonHistoryStats", "id", id, "measure_type", measureType, "bucket", bucket);
+		List<MeasurementAggregate> aggregates = MeasurementHistory.getHistoryAggregates(id.intValue(), 
+				measureType, from, to, MeasurementAggregate.Bucket.fromName(bucket));
+		
+		if (LOG.isDebugEnabled()) LOG.debug("readPersonHistoryStats.returned", "id", id, "measure_type", measureType, 
+				"aggregates", aggregates.size());
+		return aggregates;
+	}
+	
 	/***
 	 * A method that returns the list of all the measures supported by the service.
 	 * @return the list of all the measures supported by the service
 	 */
 	@Override
 	public List<Measure> readMeasureTypes() {
-		System.out.println("Executing readMeasureTypes()...");
+		LOG.info("readMeasureTypes");
 		List<Measure> measures = Measure.getAllMeasures();
 		
-		System.out.println("\tReturning the whole list of measures...");
+		if (LOG.isDebugEnabled()) LOG.debug("readMeasureTypes.returned", "measures", measures.size());
 		return measures;
 	}
 	
@@ -135,13 +363,12 @@ public class PeopleImplementation implements People {
 	 */
 	@Override
 	public MeasurementHistory readPersonMeasure(Long id, String measureType, Long mid) {
-		System.out.println("Executing readPersonMeasure()...");
+		LOG.info("readPersonMeasure", "id", id, "measure_type", measureType, "mid", mid);
 		Person person = Person.getPersonById(id.intValue());
 		MeasurementHistory measurement = MeasurementHistory.getHistoryOfAMeasureById(
 				person, mid.intValue(), measureType);
 		
-		System.out.println("\tReturning the \"" + measureType + "\" with mID " + mid + 
-				" of the person with ID " + id + "...");
+		LOG.debug("readPersonMeasure.returned", "id", id, "mid", mid, "found", (measurement != null));
 		return measurement;
 	}
 	
@@ -153,21 +380,149 @@ public class PeopleImplementation implements People {
 	 * @return the saved measurement
 	 */
 	@Override
-	public Measurement savePersonMeasure(Long id, Measurement m) {
-		System.out.println("Executing savePersonMeasure()...");
-		Person person = Person.getPersonById(id.intValue());
-		m.setPerson(person);
-		Measurement mCurr = Measurement.getMeasure(person, m.getMeasureName());
-		int mIdCurr = (mCurr!=null) ? mCurr.getId() : -1;	// get the current measure ID
-
-		mCurr = Measurement.updateMeasurement(mIdCurr, m);	// update/create the measurement
-		MeasurementHistory.addMeasurementToHistory(mCurr);	// add it to the history
+	public Measurement savePersonMeasure(final Long id, final Measurement m) {
+		LOG.info("savePersonMeasure", "id", id);
+		
+		// Update/create the measurement and add it to the history in a single transaction
+		Measurement mCurr;
+		PERSON_LOCKS.lock(id);
+		try {
+			mCurr = write(new UnitOfWork<Measurement>() {
+				@Override
+				public Measurement execute(EntityManager em) {
+					Person person = em.find(Person.class, id.intValue());
+					return (person != null) ? Measurement.saveMeasurementWithHistory(em, person, m) : null;
+				}
+			});
+		} finally {
+			PERSON_LOCKS.unlock(id);
+		}
 		
-		System.out.println("\tReturning the saved measurement with mID " + mIdCurr + 
-				" of the person with ID " + id + "...");
+		if (mCurr != null) {
+			EntityCache.evict(Person.class, id.intValue());	// the health profile of the cached person is changed
+			if (LOG.isDebugEnabled()) LOG.debug("savePersonMeasure.returned", "id", id, "mid", mCurr.getId());
+		} else {
+			LOG.warn("savePersonMeasure.not_found", "id", id);
+		}
 		return mCurr;
 	}
 	
+	/***
+	 * A method that saves a batch of new measure objects (e.g. weight) for a person identified
+	 * by {id}, updating the health profile and the history in a single transaction.
+	 * @param id: the identifier of the person
+	 * @param measurements: the measurements of interest
+	 * @return the result of each measurement, in the same order of the request
+	 */
+	@Override
+	public List<MeasurementResult> savePersonMeasures(Long id, List<Measurement> measurements) {
+		if (LOG.isInfoEnabled()) LOG.info("savePersonMeasures", "id", id, 
+				"measurements", (measurements != null) ? measurements.size() : 0);
+		PersonMeasurements pm = new PersonMeasurements();
+		pm.setId(id);
+		pm.setMeasurements(measurements);
+		
+		List<MeasurementResult> results = saveMeasures(Collections.singletonList(pm));
+		
+		if (LOG.isDebugEnabled()) LOG.debug("savePersonMeasures.returned", "id", id, "results", results.size());
+		return results;
+	}
+	
+	/***
+	 * A method that saves a batch of new measure objects for many people,
+	 * updating the health profiles and the histories in a single transaction.
+	 * @param people: the people with their measurements of interest
+	 * @return the result of each measurement, in the same order of the request
+	 */
+	@Override
+	public List<MeasurementResult> savePeopleMeasures(List<PersonMeasurements> people) {
+		if (LOG.isInfoEnabled()) LOG.info("savePeopleMeasures", "people", (people != null) ? people.size() : 0);
+		List<MeasurementResult> results = saveMeasures(
+				(people != null) ? people : Collections.<PersonMeasurements>emptyList());
+		
+		if (LOG.isDebugEnabled()) LOG.debug("savePeopleMeasures.returned", "results", results.size());
+		return results;
+	}
+	
+	/**
+	 * An helper method of the two above that saves the measurements of many people in a single
+	 * transaction. Invalid measurements (or unknown people) are reported as errors and skipped;
+	 * if the transaction fails, all the measurements are reported as errors.
+	 * @param people: the people with their measurements of interest
+	 * @return results: the result of each measurement
+	 */
+	private List<MeasurementResult> saveMeasures(final List<PersonMeasurements> people) {
+		final List<MeasurementResult> results = new ArrayList<MeasurementResult>();
+		List<Long> ids = new ArrayList<Long>();
+		for (PersonMeasurements pm : people) {
+			ids.add(pm.getId());
+		}
+		
+		List<ReentrantLock> locks = PERSON_LOCKS.lockAll(ids);
+		try {
+			EHealthDao.instance.runInTransaction(new UnitOfWork<Void>() {
+				@Override
+				public Void execute(EntityManager em) {
+					results.clear();	// the unit of work is executed again if the database is locked
+					
+					// The health profile written so far for each person (a person can be listed more than once)
+					Map<Integer, Map<String, Measurement>> profiles = new HashMap<Integer, Map<String, Measurement>>();
+					for (PersonMeasurements pm : people) {
+						List<Measurement> measures = (pm.getMeasurements() != null) 
+								? pm.getMeasurements() : Collections.<Measurement>emptyList();
+						List<MeasurementResult> personResults = new ArrayList<MeasurementResult>();
+						long personId = (pm.getId() != null) ? pm.getId() : -1;
+						
+						for (int i = 0; i < measures.size(); i++) {
+							personResults.add(new MeasurementResult(personId, i));
+						}
+						results.addAll(personResults);
+						
+						Person person = (pm.getId() != null) ? em.find(Person.class, pm.getId().intValue()) : null;
+						if (person == null) {
+							for (MeasurementResult r : personResults) {
+								r.error("The person with ID " + personId + " doesn't exist");
+							}
+						} else {
+							Map<String, Measurement> profile = profiles.get(person.getId());
+							if (profile == null) {
+								profile = new HashMap<String, Measurement>();
+								profiles.put(person.getId(), profile);
+							}
+							Measurement.saveMeasurementsWithHistory(em, person, measures, personResults, profile);
+						}
+					}
+					return null;
+				}
+			});
+		} catch (RuntimeException e) {
+			LOG.error("saveMeasures.failed", "people", people.size(), e);
+			for (MeasurementResult r : results) {
+				r.error("The batch could not be saved: " + e.getMessage());
+			}
+		} finally {
+			PERSON_LOCKS.unlockAll(locks);
+		}
+		
+		for (PersonMeasurements pm : people) {	// the health profiles of the cached people are changed
+			if (pm.getId() != null) EntityCache.evict(Person.class, pm.getId().intValue());
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * An helper method of savePersonMeasure and updatePersonMeasure that executes a write in its own
+	 * transaction or, if write.behind.enabled, in the next group commit of the write-behind queue.
+	 * In both cases it returns once the write is committed.
+	 * @param work: the unit of work of the write
+	 * @return result: the result of the unit of work
+	 */
+	private static <T> T write(UnitOfWork<T> work) {
+		return WriteBehindQueue.isEnabled() ? WriteBehindQueue.instance.execute(work)
+				: EHealthDao.instance.runInTransaction(work);
+	}
+	
 	/***
 	 * A method that updates the measure (e.g. weight) identified
 	 * with {m.mid} for a person identified by {id}.
@@ -177,15 +532,25 @@ public class PeopleImplementation implements People {
 	 */
 	@Override
 	public Long updatePersonMeasure(Long id, MeasurementHistory m) {
-		System.out.println("Executing updatePersonMeasure()...");
-		Person person = Person.getPersonById(id.intValue());
-		MeasurementHistory mHistory = MeasurementHistory.getHistoryOfAMeasureById(
-				person, m.getId(), m.getMeasureName());
-		
-		mHistory.setMeasureValue(m.getMeasureValue());
-		MeasurementHistory.updateMeasurementHistory(mHistory);
-		
-		return Long.valueOf(mHistory.getId());
+		if (LOG.isInfoEnabled()) LOG.info("updatePersonMeasure", "id", id, "mid", m.getId());
+		PERSON_LOCKS.lock(id);
+		try {
+			Person person = Person.getPersonById(id.intValue());
+			final MeasurementHistory mHistory = MeasurementHistory.getHistoryOfAMeasureById(
+					person, m.getId(), m.getMeasureName());
+			
+			mHistory.setMeasureValue(m.getMeasureValue());
+			write(new UnitOfWork<MeasurementHistory>() {
+				@Override
+				public MeasurementHistory execute(EntityManager em) {
+					return MeasurementHistory.updateMeasurementHistory(em, mHistory);
+				}
+			});
+			
+			return Long.valueOf(mHistory.getId());
+		} finally {
+			PERSON_LOCKS.unlock(id);
+		}
 	}
 	
 	/***
@@ -194,10 +559,10 @@ public class PeopleImplementation implements People {
 	 */
 	@Override
 	public List<Goal> readGoalList() {
-		System.out.println("Executing readGoalList()...");
+		LOG.info("readGoalList");
 		List<Goal> goal = Goal.getAllGoals();
 		
-		System.out.println("\tReturning the whole list of goals...");
+		if (LOG.isDebugEnabled()) LOG.debug("readGoalList.returned", "goals", goal.size());
 		return goal;
 	}
 	
@@ -208,10 +573,10 @@ public class PeopleImplementation implements People {
 	 */
 	@Override
 	public Goal readGoal(Long id) {
-		System.out.println("Executing readGoal()...");
+		LOG.info("readGoal", "id", id);
 		Goal goal = Goal.getGoalById(id.intValue());
 		
-		System.out.println("\tReturning the goal with ID " + id.toString() + "...");
+		LOG.debug("readGoal.returned", "id", id, "found", (goal != null));
 		return goal;
 	}
 	
@@ -223,11 +588,11 @@ public class PeopleImplementation implements People {
 	 */
 	@Override
 	public Goal updateGoal(Long id, Goal g) {
-		System.out.println("Executing updateGoal()...");
+		if (LOG.isInfoEnabled()) LOG.info("updateGoal", "id", id, "gid", g.getId());
 		g.setPerson(Person.getPersonById(id.intValue()));
 		g.updateGoal(g);
 		
-		System.out.println("\tReturning the goal updated (ID: " + g.getId() + ")...");
+		if (LOG.isDebugEnabled()) LOG.debug("updateGoal.returned", "gid", g.getId());
 		return g;
 	}
 	
@@ -239,11 +604,11 @@ public class PeopleImplementation implements People {
 	 */
 	@Override
 	public Goal createGoal(Long id, Goal g) {
-		System.out.println("Executing createGoal()...");
+		LOG.info("createGoal", "id", id);
 		g.setPerson(Person.getPersonById(id.intValue()));
 		Goal goal = Goal.saveGoal(g);
 		
-		System.out.println("\tReturning the goal created (ID: " + goal.getId() + ")...");
+		if (LOG.isDebugEnabled()) LOG.debug("createGoal.returned", "gid", goal.getId());
 		return goal;
 	}
 	
@@ -253,14 +618,14 @@ public class PeopleImplementation implements People {
 	 */
 	@Override
 	public void deleteGoal(Long id) {
-		System.out.println("Executing deleteGoal()...");
+		LOG.info("deleteGoal", "id", id);
 		Goal goal = Goal.getGoalById(id.intValue());
 		
 		if (goal != null) {						// check if the goal exists
 			Goal.deleteGoal(goal);				// if yes, delete it
-			System.out.println("\tDeleting the goal with ID " + goal.getId() + "...");
+			LOG.debug("deleteGoal.deleted", "id", id);
 		} else {								// o.w., print an error message
-			System.out.println("\tERROR! The goal with ID " + id + " doesn't exist!");
+			LOG.warn("deleteGoal.not_found", "id", id);
 		}
 	}
 	
@@ -271,11 +636,11 @@ public class PeopleImplementation implements People {
 	 */
 	@Override
 	public List<Goal> readPersonGoalList(Long id) {
-		System.out.println("Executing readPersonGoalList()...");
+		LOG.info("readPersonGoalList", "id", id);
 		Person person = Person.getPersonById(id.intValue());
 		List<Goal> goals = Goal.getAllPersonGoals(person);
 		
-		System.out.println("\tReturning the whole list of goals of the person with ID " + id + "...");
+		if (LOG.isDebugEnabled()) LOG.debug("readPersonGoalList.returned", "id", id, "goals", goals.size());
 		return goals;
 	}
 	
@@ -288,12 +653,11 @@ public class PeopleImplementation implements People {
 	 */
 	@Override
 	public Goal readPersonGoalById(Long id, Long gId) {
-		System.out.println("Executing readPersonGoalById()...");
+		LOG.info("readPersonGoalById", "id", id, "gid", gId);
 		Person person = Person.getPersonById(id.intValue());
 		Goal goal = Goal.getPersonGoalById(person, gId.intValue());
 		
-		System.out.println("\tReturning the goal with gID " + gId + 
-				" of the person with ID " + id + "...");
+		LOG.debug("readPersonGoalById.returned", "id", id, "gid", gId, "found", (goal != null));
 		return goal;
 	}
 	
@@ -306,12 +670,11 @@ public class PeopleImplementation implements People {
 	 */
 	@Override
 	public Goal readPersonGoalByName(Long id, String title) {
-		System.out.println("Executing readPersonGoalByName()...");
+		LOG.info("readPersonGoalByName", "id", id, "title", title);
 		Person person = Person.getPersonById(id.intValue());
 		Goal goal = Goal.getPersonGoalByName(person, title);
 		
-		System.out.println("\tReturning the \"" + title + "\" goal " +
-				"of the person with ID " + id + "...");
+		LOG.debug("readPersonGoalByName.returned", "id", id, "title", title, "found", (goal != null));
 		return goal;
 	}
 	
@@ -324,12 +687,12 @@ public class PeopleImplementation implements People {
 	 */
 	@Override
 	public List<Goal> readPersonGoalByStatus(Long id, String status) {
-		System.out.println("Executing readPersonGoalByStatus()...");
+		LOG.info("readPersonGoalByStatus", "id", id, "status", status);
 		Person person = Person.getPersonById(id.intValue());
 		List<Goal> goals = Goal.getPersonGoalByStatus(person, status);
 		
-		System.out.println("\tReturning the \"" + status + "\" goals " +
-				"of the person with ID " + id + "...");
+		if (LOG.isDebugEnabled()) LOG.debug("readPersonGoalByStatus.returned", "id", id, "status", status, 
+				"goals", (goals != null) ? goals.size() : 0);
 		return goals;
 	}
 	
@@ -343,20 +706,32 @@ public class PeopleImplementation implements People {
 	 */
 	@Override
 	public Goal readPersonGoalByNameAndStatus(Long id, String title, String status) {
-		System.out.println("Executing readPersonGoalByNameAndStatus()...");
+		LOG.info("readPersonGoalByNameAndStatus", "id", id, "title", title, "status", status);
 		Person person = Person.getPersonById(id.intValue());
 		Goal goal = Goal.getPersonGoalByNameAndStatus(person, title, status);
 		
-		System.out.println("\tReturning the \"" + title + "\" goal (achieved: " + status + ") " +
-				"of the person with ID " + id + "...");
+		LOG.debug("readPersonGoalByNameAndStatus.returned", "id", id, "found", (goal != null));
 		return goal;
 	}
 	
 	/***
-	 * An accessory method used to reset the database and that populates it with sample data.
+	 * An accessory method used to reset the database and that populates it with sample data or,
+	 * if {people} is given, with generated data of that size (see DataGenerator).
+	 * @param people: the number of people to generate (none for the sample data)
+	 * @param days: the number of days of measures of each person
+	 * @param seed: the seed of the generated values (the same seed gives the same data)
 	 */
 	@Override
-	public void initializeDatabase() {
-		EHealthDao.instance.initializeDB();	// call the initialization method on the EHealthDao
+	public void initializeDatabase(Integer people, Integer days, Long seed) {
+		LOG.info("initializeDatabase", "people", people, "days", days, "seed", seed);
+		if (people == null || people <= 0) {
+			EHealthDao.instance.initializeDB();	// call the initialization method on the EHealthDao
+			return;
+		}
+		
+		// Limit the size of the history (9 measures per person per day), so that a request cannot fill the disk
+		int size = (int) Math.min(people, Math.max(1, MAX_GENERATED_ROWS / 9));
+		int historyDays = (days != null && days > 0) ? (int) Math.min(days, MAX_GENERATED_ROWS / (9L * size)) : 0;
+		EHealthDao.instance.initializeDB(size, historyDays, seed);
 	}
 }
\ No newline at end of file